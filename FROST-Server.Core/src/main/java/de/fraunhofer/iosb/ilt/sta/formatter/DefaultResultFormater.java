@@ -17,18 +17,23 @@
  */
 package de.fraunhofer.iosb.ilt.sta.formatter;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
 import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import de.fraunhofer.iosb.ilt.sta.model.core.StreamingEntitySet;
+import de.fraunhofer.iosb.ilt.sta.model.ext.EntitySetResult;
 import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
 import de.fraunhofer.iosb.ilt.sta.util.VisibilityHelper;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -43,6 +48,33 @@ import java.util.logging.Logger;
  */
 public class DefaultResultFormater implements ResultFormatter {
 
+    private final boolean prettyPrint;
+    private final ObjectWriter writer;
+
+    /**
+     * Create a formatter that writes compact JSON.
+     */
+    public DefaultResultFormater() {
+        this(false);
+    }
+
+    /**
+     * Create a formatter that writes compact, or indented JSON.
+     *
+     * @param prettyPrint true for indented JSON.
+     */
+    public DefaultResultFormater(boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+        this.writer = EntityFormatter.getObjectWriter(prettyPrint);
+    }
+
+    /**
+     * @return true if this formatter writes indented JSON.
+     */
+    public boolean isPrettyPrint() {
+        return prettyPrint;
+    }
+
     @Override
     public String format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks) {
         String entityJsonString = "";
@@ -51,7 +83,7 @@ public class DefaultResultFormater implements ResultFormatter {
 
                 Entity entity = (Entity) result;
                 VisibilityHelper.applyVisibility(entity, path, query, useAbsoluteNavigationLinks);
-                entityJsonString = EntityFormatter.writeEntity(entity);
+                entityJsonString = writer.writeValueAsString(entity);
 
             } else if (EntitySet.class.isAssignableFrom(result.getClass())) {
                 EntitySet entitySet = (EntitySet) result;
@@ -59,17 +91,17 @@ public class DefaultResultFormater implements ResultFormatter {
                     return formatDataArray(path, query, entitySet);
                 }
                 VisibilityHelper.applyVisibility(entitySet, path, query, useAbsoluteNavigationLinks);
-                entityJsonString = EntityFormatter.writeEntityCollection(entitySet);
+                entityJsonString = writer.writeValueAsString(new EntitySetResult(entitySet));
             } else if (path != null && path.isValue()) {
                 if (result instanceof Map) {
-                    entityJsonString = EntityFormatter.writeObject(result);
+                    entityJsonString = writer.writeValueAsString(result);
                 } else if (result instanceof Id) {
                     entityJsonString = ((Id) result).getValue().toString();
                 } else {
                     entityJsonString = result.toString();
                 }
             } else {
-                entityJsonString = EntityFormatter.writeObject(result);
+                entityJsonString = writer.writeValueAsString(result);
             }
         } catch (IOException ex) {
             Logger.getLogger(DefaultResultFormater.class.getName()).log(Level.SEVERE, null, ex);
@@ -77,6 +109,31 @@ public class DefaultResultFormater implements ResultFormatter {
         return entityJsonString;
     }
 
+    @Override
+    public void format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks, Writer out) throws IOException {
+        if (result instanceof StreamingDataArray) {
+            StreamingDataArray dataArray = (StreamingDataArray) result;
+            if (dataArray.getDatastream() != null) {
+                dataArray.getDatastream().setNavigationLink(UrlHelper.generateSelfLink(path, dataArray.getDatastream()));
+            }
+            if (dataArray.getMultiDatastream() != null) {
+                dataArray.getMultiDatastream().setNavigationLink(UrlHelper.generateSelfLink(path, dataArray.getMultiDatastream()));
+            }
+            EntityFormatter.writeDataArray(dataArray, prettyPrint, out);
+            return;
+        }
+        if (result instanceof StreamingEntitySet) {
+            StreamingEntitySet<? extends Entity> entitySet = (StreamingEntitySet<? extends Entity>) result;
+            EntityFormatter.writeEntityCollection(
+                    entitySet,
+                    VisibilityHelper.createApplier(entitySet.getEntityType(), path, query, useAbsoluteNavigationLinks),
+                    prettyPrint,
+                    out);
+            return;
+        }
+        out.write(format(path, query, result, useAbsoluteNavigationLinks));
+    }
+
     public static class VisibleComponents {
 
         public final boolean id;
@@ -101,6 +158,19 @@ public class DefaultResultFormater implements ResultFormatter {
             parameters = allValue;
         }
 
+        /**
+         * Find the components that are visible for the given query.
+         *
+         * @param query The query to find the visible components for.
+         * @return The visible components.
+         */
+        public static VisibleComponents forQuery(Query query) {
+            if (query == null || query.getSelect().isEmpty()) {
+                return new VisibleComponents(true);
+            }
+            return new VisibleComponents(query.getSelect());
+        }
+
         public VisibleComponents(Set<Property> select) {
             id = select.contains(EntityProperty.ID);
             phenomenonTime = select.contains(EntityProperty.PHENOMENONTIME);
@@ -165,12 +235,7 @@ public class DefaultResultFormater implements ResultFormatter {
     }
 
     public String formatDataArray(ResourcePath path, Query query, EntitySet<Observation> entitySet) throws IOException {
-        VisibleComponents visComps;
-        if (query == null || query.getSelect().isEmpty()) {
-            visComps = new VisibleComponents(true);
-        } else {
-            visComps = new VisibleComponents(query.getSelect());
-        }
+        VisibleComponents visComps = VisibleComponents.forQuery(query);
         List<String> components = visComps.getComponents();
 
         Map<String, DataArrayValue> dataArraySet = new LinkedHashMap<>();
@@ -190,9 +255,10 @@ public class DefaultResultFormater implements ResultFormatter {
         }
 
         result.setCount(entitySet.getCount());
+        result.setCountEstimated(entitySet.isCountEstimated());
         result.setNextLink(entitySet.getNextLink());
 
-        return EntityFormatter.writeObject(result);
+        return writer.writeValueAsString(result);
     }
 
 }
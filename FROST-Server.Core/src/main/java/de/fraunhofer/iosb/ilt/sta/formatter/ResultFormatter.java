@@ -19,6 +19,8 @@ package de.fraunhofer.iosb.ilt.sta.formatter;
 
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  *
@@ -27,4 +29,21 @@ import de.fraunhofer.iosb.ilt.sta.query.Query;
 public interface ResultFormatter {
 
     public String format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks);
+
+    /**
+     * Format the result, writing it to the given Writer. Results that are
+     * read lazily, like a StreamingEntitySet, are written while they are
+     * read.
+     *
+     * @param path The path of the request.
+     * @param query The query of the request.
+     * @param result The result to format.
+     * @param useAbsoluteNavigationLinks Whether to use absolute navigation
+     * links.
+     * @param out The Writer to write the formatted result to.
+     * @throws IOException If the Writer throws an IOException.
+     */
+    public default void format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks, Writer out) throws IOException {
+        out.write(format(path, query, result, useAbsoluteNavigationLinks));
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.formatter;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.core.StreamingEntitySet;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The Observations of a single Datastream or MultiDatastream in the
+ * dataArray format, read lazily as rows of components while they are written
+ * out. The rows are created directly by the persistence manager, without
+ * creating Observation objects. Like its parent, it can only be iterated
+ * once, and the nextLink is only known after the last row is read.
+ *
+ * @author scf
+ */
+public class StreamingDataArray extends StreamingEntitySet<Observation> {
+
+    private final Datastream datastream;
+    private final MultiDatastream multiDatastream;
+    private final List<String> components;
+    private Iterator<List<Object>> rows;
+
+    public StreamingDataArray(Datastream datastream, List<String> components) {
+        super(EntityType.OBSERVATION);
+        this.datastream = datastream;
+        this.multiDatastream = null;
+        this.components = components;
+        setSource(Collections.emptyIterator());
+    }
+
+    public StreamingDataArray(MultiDatastream multiDatastream, List<String> components) {
+        super(EntityType.OBSERVATION);
+        this.datastream = null;
+        this.multiDatastream = multiDatastream;
+        this.components = components;
+        setSource(Collections.emptyIterator());
+    }
+
+    /**
+     * @return The Datastream all rows belong to, or null.
+     */
+    public Datastream getDatastream() {
+        return datastream;
+    }
+
+    /**
+     * @return The MultiDatastream all rows belong to, or null.
+     */
+    public MultiDatastream getMultiDatastream() {
+        return multiDatastream;
+    }
+
+    /**
+     * @return The names of the components of each row.
+     */
+    public List<String> getComponents() {
+        return components;
+    }
+
+    /**
+     * Set the iterator the rows are read from.
+     *
+     * @param rows The iterator the rows are read from.
+     */
+    public void setRows(Iterator<List<Object>> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Get the rows. Can only be called once.
+     *
+     * @return The iterator over the rows.
+     */
+    public Iterator<List<Object>> getRows() {
+        if (rows == null) {
+            throw new IllegalStateException("A StreamingDataArray can only be iterated once.");
+        }
+        Iterator<List<Object>> result = rows;
+        rows = null;
+        return result;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return rows == null || !rows.hasNext();
+    }
+
+}
@@ -17,8 +17,11 @@
  */
 package de.fraunhofer.iosb.ilt.sta.json.deserialize;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import de.fraunhofer.iosb.ilt.sta.formatter.DataArrayValue;
@@ -43,7 +46,9 @@ import de.fraunhofer.iosb.ilt.sta.model.core.EntitySetImpl;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.model.mixin.MixinUtils;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,6 +67,12 @@ public class EntityParser {
     public static final TypeReference listOfDataArrayValue = new TypeReference<List<DataArrayValue>>() {
         // Empty by design.
     };
+    private static final TypeReference<List<String>> LIST_OF_STRING = new TypeReference<List<String>>() {
+        // Empty by design.
+    };
+    private static final TypeReference<List<Object>> LIST_OF_OBJECT = new TypeReference<List<Object>>() {
+        // Empty by design.
+    };
     /**
      * The logger for this class.
      */
@@ -183,6 +194,99 @@ public class EntityParser {
         return mapper.readValue(value, listOfDataArrayValue);
     }
 
+    public List<DataArrayValue> parseObservationDataArray(Reader value) throws IOException {
+        return mapper.readValue(value, listOfDataArrayValue);
+    }
+
+    /**
+     * Parse a list of DataArrayValues from the given reader, handing the rows
+     * to the given handler while they are parsed, instead of building the
+     * whole list first. The handler gets DataArrayValues with at most
+     * chunkSize rows each. A DataArrayValue of the input is split over
+     * several chunks, each with the Datastream or MultiDatastream and the
+     * components of the input. Rows that come before the Datastream,
+     * MultiDatastream or components in the input are held until the end of
+     * their DataArrayValue.
+     *
+     * @param value The reader to parse from.
+     * @param chunkSize The maximum number of rows to hand over at once.
+     * @param handler The handler of the parsed rows.
+     * @throws IOException If the input is not valid.
+     */
+    public void parseObservationDataArray(Reader value, int chunkSize, Consumer<DataArrayValue> handler) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(value)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw JsonMappingException.from(parser, "Expected an array of DataArrayValues.");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                parseDataArrayValue(parser, chunkSize, handler);
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw JsonMappingException.from(parser, "Expected a DataArrayValue, found " + token);
+            }
+        }
+    }
+
+    private void parseDataArrayValue(JsonParser parser, int chunkSize, Consumer<DataArrayValue> handler) throws IOException {
+        DataArrayValue chunk = new DataArrayValue();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+                case "Datastream":
+                    chunk.setDatastream(mapper.readValue(parser, Datastream.class));
+                    break;
+
+                case "MultiDatastream":
+                    chunk.setMultiDatastream(mapper.readValue(parser, MultiDatastream.class));
+                    break;
+
+                case "components":
+                    chunk.setComponents(mapper.readValue(parser, LIST_OF_STRING));
+                    break;
+
+                case "dataArray@iot.count":
+                    parser.skipChildren();
+                    break;
+
+                case "dataArray":
+                    chunk = parseDataArray(parser, chunk, chunkSize, handler);
+                    break;
+
+                default:
+                    throw JsonMappingException.from(parser, "Unknown property in DataArrayValue: " + name);
+            }
+        }
+        if (!chunk.getDataArray().isEmpty()) {
+            handler.accept(chunk);
+        }
+    }
+
+    private DataArrayValue parseDataArray(JsonParser parser, DataArrayValue first, int chunkSize, Consumer<DataArrayValue> handler) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw JsonMappingException.from(parser, "Expected an array of rows in dataArray.");
+        }
+        DataArrayValue chunk = first;
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            chunk.getDataArray().add(mapper.readValue(parser, LIST_OF_OBJECT));
+            boolean complete = chunk.getComponents() != null
+                    && (chunk.getDatastream() != null || chunk.getMultiDatastream() != null);
+            if (complete && chunk.getDataArray().size() >= chunkSize) {
+                handler.accept(chunk);
+                if (chunk.getDatastream() != null) {
+                    chunk = new DataArrayValue(chunk.getDatastream(), chunk.getComponents());
+                } else {
+                    chunk = new DataArrayValue(chunk.getMultiDatastream(), chunk.getComponents());
+                }
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw JsonMappingException.from(parser, "Expected a row in dataArray, found " + parser.getCurrentToken());
+        }
+        return chunk;
+    }
+
     public ObservedProperty parseObservedProperty(String value) throws IOException {
         return mapper.readValue(value, ObservedProperty.class);
     }
@@ -199,6 +303,10 @@ public class EntityParser {
         return mapper.readValue(value, clazz);
     }
 
+    public <T extends Entity> T parseEntity(Class<T> clazz, Reader value) throws IOException {
+        return mapper.readValue(value, clazz);
+    }
+
     public <T> T parseObject(Class<T> clazz, String value) throws IOException {
         return mapper.readValue(value, clazz);
     }
@@ -90,8 +90,16 @@ public class CustomEntityChangedMessageDeserializer extends JsonDeserializer<Ent
                     break;
             }
         }
-        if (type == null || entityJson == null) {
-            throw new IllegalArgumentException("Message json with no type or no entity.");
+        if (type == null) {
+            throw new IllegalArgumentException("Message json with no type.");
+        }
+        if (entityJson == null) {
+            // Deletes with a filter only have the type of the deleted entities.
+            if (message.getEventType() != EntityChangedMessage.Type.DELETE) {
+                throw new IllegalArgumentException("Message json with no entity.");
+            }
+            message.setEntityType(type);
+            return message;
         }
         message.setEntity(parseEntity(mapper, entityJson, type));
         return message;
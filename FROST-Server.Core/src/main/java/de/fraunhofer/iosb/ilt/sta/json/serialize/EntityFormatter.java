@@ -18,11 +18,15 @@
 package de.fraunhofer.iosb.ilt.sta.json.serialize;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import de.fraunhofer.iosb.ilt.sta.formatter.AggregationResult;
 import de.fraunhofer.iosb.ilt.sta.formatter.DataArrayResult;
 import de.fraunhofer.iosb.ilt.sta.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.sta.formatter.StreamingDataArray;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.custom.GeoJsonDeserializier;
 import de.fraunhofer.iosb.ilt.sta.json.serialize.custom.CustomSerializationManager;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
@@ -38,6 +42,10 @@ import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.sta.model.ext.EntitySetResult;
 import de.fraunhofer.iosb.ilt.sta.model.mixin.MixinUtils;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Enables serialization of entities as JSON.
@@ -63,7 +71,6 @@ public class EntityFormatter {
 
     private static ObjectMapper createObjectMapper() {
         ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
         mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
         mapper.setPropertyNamingStrategy(new EntitySetCamelCaseNamingStrategy());
@@ -80,6 +87,7 @@ public class EntityFormatter {
         module.addSerializer(EntitySetResult.class, new EntitySetResultSerializer());
         module.addSerializer(DataArrayValue.class, new DataArrayValueSerializer());
         module.addSerializer(DataArrayResult.class, new DataArrayResultSerializer());
+        module.addSerializer(AggregationResult.class, new AggregationResultSerializer());
         mapper.registerModule(module);
         return mapper;
     }
@@ -87,6 +95,20 @@ public class EntityFormatter {
     private EntityFormatter() {
     }
 
+    /**
+     * Get a writer that writes compact, or indented JSON.
+     *
+     * @param prettyPrint true for indented JSON.
+     * @return The writer.
+     */
+    public static ObjectWriter getObjectWriter(boolean prettyPrint) {
+        ObjectMapper mapper = getObjectMapper();
+        if (prettyPrint) {
+            return mapper.writerWithDefaultPrettyPrinter();
+        }
+        return mapper.writer();
+    }
+
     public static <T extends Entity> String writeEntity(T entity) throws IOException {
         return getObjectMapper().writeValueAsString(entity);
     }
@@ -95,6 +117,109 @@ public class EntityFormatter {
         return getObjectMapper().writeValueAsString(new EntitySetResult(entityCollection));
     }
 
+    /**
+     * Write the given entity collection to the given Writer, one entity at a
+     * time, while the entities are read from the collection. The nextLink is
+     * written after the entities, since it may only be known after the last
+     * entity is read.
+     *
+     * @param entityCollection The collection to write.
+     * @param beforeWrite Called for each entity, before it is written.
+     * @param prettyPrint true for indented JSON.
+     * @param out The Writer to write to. It is not closed.
+     * @throws IOException If the Writer throws an IOException.
+     */
+    public static void writeEntityCollection(EntitySet<? extends Entity> entityCollection, Consumer<Entity> beforeWrite, boolean prettyPrint, Writer out) throws IOException {
+        ObjectMapper mapper = getObjectMapper();
+        // The entity writer has no pretty printer of its own, so it keeps the
+        // one of the generator, with the right indentation level.
+        ObjectWriter entityWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (prettyPrint) {
+                gen.useDefaultPrettyPrinter();
+            }
+            gen.writeStartObject();
+            long count = entityCollection.getCount();
+            if (count >= 0) {
+                gen.writeNumberField("@iot.count", count);
+                if (entityCollection.isCountEstimated()) {
+                    gen.writeBooleanField("@iot.countEstimated", true);
+                }
+            }
+            gen.writeArrayFieldStart("value");
+            for (Entity entity : entityCollection) {
+                beforeWrite.accept(entity);
+                entityWriter.writeValue(gen, entity);
+            }
+            gen.writeEndArray();
+            String nextLink = entityCollection.getNextLink();
+            if (nextLink != null) {
+                gen.writeStringField("@iot.nextLink", nextLink);
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Write a dataArray result while its rows are read. The number of rows is
+     * not known in advance, so the dataArray@iot.count is not written. The
+     * nextLink is written after the rows.
+     *
+     * @param dataArray The dataArray to write. The navigationLink of its
+     * Datastream or MultiDatastream must be set.
+     * @param prettyPrint true for indented JSON.
+     * @param out The Writer to write to. It is not closed.
+     * @throws IOException If the Writer throws an IOException.
+     */
+    public static void writeDataArray(StreamingDataArray dataArray, boolean prettyPrint, Writer out) throws IOException {
+        ObjectMapper mapper = getObjectMapper();
+        ObjectWriter rowWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (prettyPrint) {
+                gen.useDefaultPrettyPrinter();
+            }
+            gen.writeStartObject();
+            long count = dataArray.getCount();
+            if (count >= 0) {
+                gen.writeNumberField("@iot.count", count);
+                if (dataArray.isCountEstimated()) {
+                    gen.writeBooleanField("@iot.countEstimated", true);
+                }
+            }
+            gen.writeArrayFieldStart("value");
+            Iterator<List<Object>> rows = dataArray.getRows();
+            if (rows.hasNext()) {
+                writeDataArrayValue(dataArray, rows, rowWriter, gen);
+            }
+            gen.writeEndArray();
+            String nextLink = dataArray.getNextLink();
+            if (nextLink != null) {
+                gen.writeStringField("@iot.nextLink", nextLink);
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    private static void writeDataArrayValue(StreamingDataArray dataArray, Iterator<List<Object>> rows, ObjectWriter rowWriter, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        if (dataArray.getDatastream() != null) {
+            gen.writeStringField("Datastream@iot.navigationLink", dataArray.getDatastream().getNavigationLink());
+        }
+        if (dataArray.getMultiDatastream() != null) {
+            gen.writeStringField("MultiDatastream@iot.navigationLink", dataArray.getMultiDatastream().getNavigationLink());
+        }
+        gen.writeFieldName("components");
+        rowWriter.writeValue(gen, dataArray.getComponents());
+        gen.writeArrayFieldStart("dataArray");
+        while (rows.hasNext()) {
+            rowWriter.writeValue(gen, rows.next());
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
     public static String writeDatastream(Datastream datastream) throws IOException {
         return writeEntity(datastream);
     }
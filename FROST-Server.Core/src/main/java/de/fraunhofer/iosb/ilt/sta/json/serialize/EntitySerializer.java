@@ -115,6 +115,9 @@ public class EntitySerializer extends JsonSerializer<Entity> {
         long count = set.getCount();
         if (count >= 0) {
             gen.writeNumberField(property.getName() + "@iot.count", count);
+            if (set.isCountEstimated()) {
+                gen.writeBooleanField(property.getName() + "@iot.countEstimated", true);
+            }
         }
         String nextLink = set.getNextLink();
         if (nextLink != null) {
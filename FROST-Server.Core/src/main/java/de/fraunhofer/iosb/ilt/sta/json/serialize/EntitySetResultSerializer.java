@@ -35,6 +35,9 @@ public class EntitySetResultSerializer extends JsonSerializer<EntitySetResult> {
         long count = value.getValues().getCount();
         if (count >= 0) {
             gen.writeNumberField("@iot.count", count);
+            if (value.getValues().isCountEstimated()) {
+                gen.writeBooleanField("@iot.countEstimated", true);
+            }
         }
         String nextLink = value.getValues().getNextLink();
         if (nextLink != null) {
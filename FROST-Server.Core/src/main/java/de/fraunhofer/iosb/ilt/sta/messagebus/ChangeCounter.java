@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.messagebus;
+
+import de.fraunhofer.iosb.ilt.sta.util.EntityTagHelper;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the entity changes seen on the message bus. Any result read after a
+ * change can differ from the result read before it, so the count, combined
+ * with the start time of the counter, is a version of the entire data set.
+ *
+ * Changes that do not pass the message bus, like changes made directly in
+ * the database, are not counted.
+ *
+ * @author scf
+ */
+public class ChangeCounter implements MessageListener {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeCounter.class);
+    private static ChangeCounter instance;
+
+    private final String prefix = Long.toString(System.currentTimeMillis(), 36) + "-";
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Get the counter, creating it if needed.
+     *
+     * @return The counter, or null if the message bus is not available.
+     */
+    public static synchronized ChangeCounter getInstance() {
+        if (instance == null) {
+            ChangeCounter counter = new ChangeCounter();
+            try {
+                MessageBusFactory.getMessageBus().addMessageListener(counter);
+            } catch (IllegalStateException exc) {
+                LOGGER.debug("Message bus not available (yet), not counting changes.");
+                return null;
+            }
+            instance = counter;
+        }
+        return instance;
+    }
+
+    private ChangeCounter() {
+        // Use getInstance().
+    }
+
+    /**
+     * @return The number of changes seen since the counter started.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return A weak entity tag for the current version of the data set.
+     */
+    public String getTag() {
+        return EntityTagHelper.weakTag(prefix + count.get());
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        count.incrementAndGet();
+    }
+}
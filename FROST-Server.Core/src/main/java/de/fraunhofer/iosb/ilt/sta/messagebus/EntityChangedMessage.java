@@ -58,7 +58,8 @@ public class EntityChangedMessage {
     private EntityType entityType;
     /**
      * The new version of the entity (for create/update) or the old entity (for
-     * delete).
+     * delete). Null for deletes with a filter, where only the type of the
+     * deleted entities is known.
      */
     private Entity entity;
 
@@ -90,14 +90,16 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
     @Override
     public void sendMessage(EntityChangedMessage message) {
         Entity entity = message.getEntity();
-        EntityType entityType = entity.getEntityType();
-        // We directly hand the entity on without serialization step.
-        // The receivers expect the navigation entities to not be exportable.
-        for (NavigationProperty property : entityType.getNavigationEntities()) {
-            Object parentObject = entity.getProperty(property);
-            if (parentObject instanceof Entity) {
-                Entity parentEntity = (Entity) parentObject;
-                parentEntity.setExportObject(false);
+        if (entity != null) {
+            EntityType entityType = entity.getEntityType();
+            // We directly hand the entity on without serialization step.
+            // The receivers expect the navigation entities to not be exportable.
+            for (NavigationProperty property : entityType.getNavigationEntities()) {
+                Object parentObject = entity.getProperty(property);
+                if (parentObject instanceof Entity) {
+                    Entity parentEntity = (Entity) parentObject;
+                    parentEntity.setExportObject(false);
+                }
             }
         }
         if (!entityChangedMessageQueue.offer(message)) {
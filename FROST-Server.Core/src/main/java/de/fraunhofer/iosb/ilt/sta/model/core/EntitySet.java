@@ -36,6 +36,20 @@ public interface EntitySet<T extends Entity> extends Collection<T>, NavigableEle
 
     public void setCount(long count);
 
+    /**
+     * Check if the count is an estimate, instead of an exact count.
+     *
+     * @return true if the count is an estimate.
+     */
+    public boolean isCountEstimated();
+
+    /**
+     * Set if the count is an estimate, instead of an exact count.
+     *
+     * @param countEstimated true if the count is an estimate.
+     */
+    public void setCountEstimated(boolean countEstimated);
+
     public String getNextLink();
 
     public void setNextLink(String nextLink);
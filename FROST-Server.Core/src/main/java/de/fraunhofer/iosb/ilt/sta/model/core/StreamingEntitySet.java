@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.model.core;
+
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import java.util.Iterator;
+
+/**
+ * An EntitySet that reads its entities lazily, while it is written out. It can
+ * only be iterated once, and only while the PersistenceManager that created it
+ * is open. The nextLink is only known after the last entity is read.
+ *
+ * @author scf
+ * @param <T> Type of collection elements.
+ */
+public class StreamingEntitySet<T extends Entity> extends EntitySetImpl<T> {
+
+    private Iterator<T> source;
+
+    public StreamingEntitySet(EntityType type) {
+        super(type);
+        setExportObject(true);
+    }
+
+    /**
+     * Set the iterator the entities are read from.
+     *
+     * @param source The iterator the entities are read from.
+     */
+    public void setSource(Iterator<T> source) {
+        this.source = source;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (source == null) {
+            throw new IllegalStateException("A StreamingEntitySet can only be iterated once.");
+        }
+        Iterator<T> result = source;
+        source = null;
+        return result;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return source == null || !source.hasNext();
+    }
+
+}
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.sta.parser.query;
 
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
+import de.fraunhofer.iosb.ilt.sta.query.Aggregation;
 import de.fraunhofer.iosb.ilt.sta.query.Expand;
 import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
@@ -90,12 +91,14 @@ public class QueryParser extends AbstractParserVisitor {
 
     private static final String OP_TOP = "top";
     private static final String OP_SKIP = "skip";
+    private static final String OP_SKIPTOKEN = "skiptoken";
     private static final String OP_COUNT = "count";
     private static final String OP_SELECT = "select";
     private static final String OP_EXPAND = "expand";
     private static final String OP_FILTER = "filter";
     private static final String OP_FORMAT = "resultformat";
     private static final String OP_ORDER_BY = "orderby";
+    private static final String OP_AGGREGATE = "aggregate";
 
     @Override
     public Object visit(ASTOption node, Object data) {
@@ -111,6 +114,10 @@ public class QueryParser extends AbstractParserVisitor {
                 query.setSkip(Math.toIntExact((long) ((ASTValueNode) node.jjtGetChild(0)).jjtGetValue()));
                 break;
 
+            case OP_SKIPTOKEN:
+                query.setSkipToken((String) ((ASTValueNode) node.jjtGetChild(0)).jjtGetValue());
+                break;
+
             case OP_COUNT:
                 query.setCount(((ASTBool) node.jjtGetChild(0)).getValue());
                 break;
@@ -140,6 +147,13 @@ public class QueryParser extends AbstractParserVisitor {
                 query.setFormat(((ASTFormat) node.jjtGetChild(0)).getValue());
                 break;
 
+            case OP_AGGREGATE:
+                if (node.jjtGetNumChildren() != 1 || !(node.jjtGetChild(0) instanceof ASTIdentifiers)) {
+                    throw new IllegalArgumentException("ASTOption(aggregate) must have exactly one child node of type ASTIdentifiers");
+                }
+                query.setAggregation(visitAggregation((ASTIdentifiers) node.jjtGetChild(0)));
+                break;
+
             case OP_ORDER_BY:
                 if (node.jjtGetNumChildren() != 1 || !(node.jjtGetChild(0) instanceof ASTOrderBys)) {
                     throw new IllegalArgumentException("ASTOption(orderby) must have exactly one child node of type ASTOrderBys");
@@ -154,6 +168,14 @@ public class QueryParser extends AbstractParserVisitor {
         return data;
     }
 
+    private Aggregation visitAggregation(ASTIdentifiers node) {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            items.add(((ASTPathElement) node.jjtGetChild(i)).getName());
+        }
+        return Aggregation.parse(items);
+    }
+
     @Override
     public List<Expand> visit(ASTFilteredPaths node, Object data) {
         List<Expand> result = new ArrayList<>();
@@ -20,6 +20,7 @@ package de.fraunhofer.iosb.ilt.sta.persistence;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBus;
 import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
@@ -48,35 +49,97 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
         this.changedEntities = new ArrayList<>();
     }
 
-    private Entity fetchEntity(EntityType entityType, Id id) {
-        Entity entity = get(entityType, id);
-        for (NavigationProperty property : entityType.getNavigationEntities()) {
-            Object parentObject = entity.getProperty(property);
+    /**
+     * Adds the given change message to the messages that are sent to the bus
+     * on commit. If the implementation did not put the stored entity in the
+     * message, it is read back from the store.
+     *
+     * @param message The message to add.
+     * @param entity The entity that was written.
+     */
+    private void addChangedEntity(EntityChangedMessage message, Entity entity) {
+        Entity newEntity = message.getEntity();
+        if (newEntity == null) {
+            newEntity = get(entity.getEntityType(), entity.getId());
+            message.setEntity(newEntity);
+        }
+        for (NavigationProperty property : newEntity.getEntityType().getNavigationEntities()) {
+            Object parentObject = newEntity.getProperty(property);
             if (parentObject instanceof Entity) {
                 Entity parentEntity = (Entity) parentObject;
                 parentEntity.setExportObject(true);
             }
         }
-        return entity;
+        changedEntities.add(message);
     }
 
     @Override
     public boolean insert(Entity entity) throws NoSuchEntityException, IncompleteEntityException {
-        boolean result = doInsert(entity);
-        if (result) {
-            Entity newEntity = fetchEntity(
-                    entity.getEntityType(),
-                    entity.getId());
-            changedEntities.add(
+        EntityChangedMessage result = doInsert(entity);
+        if (result != null) {
+            result.setEventType(EntityChangedMessage.Type.CREATE);
+            addChangedEntity(result, entity);
+        }
+        return result != null;
+    }
+
+    /**
+     * Insert the given entity and return a message for the insert. If the
+     * implementation knows the entity as it is stored, for instance because
+     * the insert returned the stored row, it can put it in the message.
+     * Otherwise the AbstractPersistenceManager reads the entity back.
+     *
+     * @param entity The entity to insert.
+     * @return A message for the insert, or null if the entity was not
+     * inserted.
+     * @throws NoSuchEntityException If the entity depends on another entity
+     * that does not exist.
+     * @throws IncompleteEntityException If the entity does not have all the
+     * required fields.
+     */
+    public abstract EntityChangedMessage doInsert(Entity entity) throws NoSuchEntityException, IncompleteEntityException;
+
+    @Override
+    public List<Exception> insertAll(List<Observation> observations) {
+        List<Entity> stored = new ArrayList<>(observations.size());
+        List<Exception> errors = doInsertAll(observations, stored);
+        for (int i = 0; i < observations.size(); i++) {
+            if (errors.get(i) != null) {
+                continue;
+            }
+            addChangedEntity(
                     new EntityChangedMessage()
                             .setEventType(EntityChangedMessage.Type.CREATE)
-                            .setEntity(newEntity)
-            );
+                            .setEntity(stored.get(i)),
+                    observations.get(i));
         }
-        return result;
+        return errors;
     }
 
-    public abstract boolean doInsert(Entity entity) throws NoSuchEntityException, IncompleteEntityException;
+    /**
+     * Insert all given Observations, without generating change messages. The
+     * default implementation inserts the Observations one by one.
+     *
+     * @param observations The Observations to insert.
+     * @param stored The list to add, for each Observation in the same order,
+     * the Observation as it is stored to, or null if that is not known.
+     * @return A list with, for each Observation in the same order, null if the
+     * Observation was inserted, or the Exception explaining why it was not.
+     */
+    public List<Exception> doInsertAll(List<Observation> observations, List<Entity> stored) {
+        List<Exception> errors = new ArrayList<>(observations.size());
+        for (Observation observation : observations) {
+            try {
+                EntityChangedMessage message = doInsert(observation);
+                errors.add(null);
+                stored.add(message == null ? null : message.getEntity());
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                errors.add(exc);
+                stored.add(null);
+            }
+        }
+        return errors;
+    }
 
     @Override
     public boolean delete(EntityPathElement pathElement) throws NoSuchEntityException {
@@ -95,6 +158,13 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
     @Override
     public void delete(ResourcePath path, Query query) throws NoSuchEntityException {
         doDelete(path, query);
+        // The deleted entities are not known, the message only has the type.
+        EntitySetPathElement set = (EntitySetPathElement) path.getLastElement();
+        changedEntities.add(
+                new EntityChangedMessage()
+                        .setEventType(EntityChangedMessage.Type.DELETE)
+                        .setEntityType(set.getEntityType())
+        );
     }
 
     private Entity getEntityByEntityPath(EntityPathElement pathElement) {
@@ -114,24 +184,21 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
         EntityChangedMessage result = doUpdate(pathElement, entity);
         if (result != null) {
             result.setEventType(EntityChangedMessage.Type.UPDATE);
-            Entity newEntity = fetchEntity(
-                    entity.getEntityType(),
-                    entity.getId());
-            result.setEntity(newEntity);
-            changedEntities.add(result);
+            addChangedEntity(result, entity);
         }
         return result != null;
     }
 
     /**
      * Update the given entity and return a message with the fields that were
-     * changed. The entity is added to the message by the
-     * AbstractPersistenceManager.
+     * changed. If the implementation knows the entity as it is stored after the
+     * update, it can put it in the message. Otherwise the entity is added to
+     * the message by the AbstractPersistenceManager.
      *
      * @param pathElement The path to the entity to update.
      * @param entity The updated entity.
-     * @return A message with the fields that were changed. The entity is added
-     * by the AbstractPersistenceManager.
+     * @return A message with the fields that were changed, or null if the
+     * entity was not updated.
      * @throws NoSuchEntityException If the entity does not exist.
      * @throws IncompleteEntityException If the entity does not have all the
      * required fields.
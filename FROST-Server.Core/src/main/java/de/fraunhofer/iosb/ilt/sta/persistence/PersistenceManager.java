@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.sta.persistence;
 
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
@@ -29,6 +30,7 @@ import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.UpgradeFailedException;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.List;
 
 /**
  *
@@ -57,6 +59,18 @@ public interface PersistenceManager {
      */
     public boolean insert(Entity entity) throws NoSuchEntityException, IncompleteEntityException;
 
+    /**
+     * Insert all given Observations. Observations that can not be inserted do
+     * not stop the insertion of the other Observations. Related entities that
+     * are shared by several Observations, like the Datastream, only need to be
+     * checked once.
+     *
+     * @param observations The Observations to insert.
+     * @return A list with, for each Observation in the same order, null if the
+     * Observation was inserted, or the Exception explaining why it was not.
+     */
+    public List<Exception> insertAll(List<Observation> observations);
+
     public Entity get(EntityType entityType, Id id);
 
     public Object get(ResourcePath path, Query query);
@@ -107,6 +121,43 @@ public interface PersistenceManager {
      */
     public CoreSettings getCoreSettings();
 
+    /**
+     * Hint that all requests until this PM is closed only read, so they can be
+     * served by a read-only replica of the storage backend, if there is one.
+     * Must be called before the first request. Back-ends without replicas can
+     * ignore this.
+     *
+     * @param readOnly true if the following requests only read.
+     */
+    public default void setReadOnly(boolean readOnly) {
+        // Most back-ends do not have replicas.
+    }
+
+    /**
+     * Check if the data read by this PM came from a read-only replica, and may
+     * thus be older than the changes already seen on the message bus. Such
+     * data must not be cached for all clients.
+     *
+     * @return true if the data read by this PM may lag behind the message
+     * bus.
+     */
+    public default boolean isReadFromReplica() {
+        return false;
+    }
+
+    /**
+     * Hint that the result of the next request is written out directly,
+     * while the PM is still open. Entity collections may then be returned as
+     * a StreamingEntitySet, that reads its entities while it is written.
+     * Back-ends that can not stream results can ignore this.
+     *
+     * @param streaming true if the result of the next request can be
+     * streamed.
+     */
+    public default void setStreaming(boolean streaming) {
+        // Most back-ends do not stream results.
+    }
+
     public void commit();
 
     public void rollback();
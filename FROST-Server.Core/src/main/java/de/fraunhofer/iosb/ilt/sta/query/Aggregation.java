@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import org.joda.time.Period;
+
+/**
+ * The $aggregate of a query on Observations: the numeric results are grouped
+ * in buckets of phenomenonTime, and of each bucket the requested aggregate
+ * functions are returned instead of the Observations themselves.
+ *
+ * @author scf
+ */
+public class Aggregation {
+
+    /**
+     * The size of the time buckets. The name is the field used for the
+     * date_trunc function of PostgreSQL.
+     */
+    public enum Bucket {
+        SECOND("second", Period.seconds(1)),
+        MINUTE("minute", Period.minutes(1)),
+        HOUR("hour", Period.hours(1)),
+        DAY("day", Period.days(1)),
+        WEEK("week", Period.weeks(1)),
+        MONTH("month", Period.months(1)),
+        QUARTER("quarter", Period.months(3)),
+        YEAR("year", Period.years(1));
+
+        public final String name;
+        public final Period period;
+
+        private Bucket(String name, Period period) {
+            this.name = name;
+            this.period = period;
+        }
+
+    }
+
+    /**
+     * The aggregate functions. First and last are the results with the
+     * earliest and latest phenomenonTime in the bucket.
+     */
+    public enum Function {
+        AVG("avg"),
+        MIN("min"),
+        MAX("max"),
+        COUNT("count"),
+        FIRST("first"),
+        LAST("last");
+
+        public final String name;
+
+        private Function(String name) {
+            this.name = name;
+        }
+
+    }
+
+    private final Bucket bucket;
+    private final List<Function> functions;
+
+    public Aggregation(Bucket bucket, List<Function> functions) {
+        if (bucket == null) {
+            throw new IllegalArgumentException("$aggregate needs a bucket size.");
+        }
+        if (functions == null || functions.isEmpty()) {
+            throw new IllegalArgumentException("$aggregate needs at least one function.");
+        }
+        this.bucket = bucket;
+        this.functions = Collections.unmodifiableList(new ArrayList<>(functions));
+    }
+
+    /**
+     * Parse the items of an $aggregate option: the bucket size, followed by
+     * one or more functions, for example hour,avg,min,max.
+     *
+     * @param items The items of the option.
+     * @return The Aggregation.
+     */
+    public static Aggregation parse(List<String> items) {
+        if (items.size() < 2) {
+            throw new IllegalArgumentException("$aggregate needs a bucket size and at least one function.");
+        }
+        Bucket bucket = parseBucket(items.get(0));
+        List<Function> functions = new ArrayList<>();
+        for (String item : items.subList(1, items.size())) {
+            Function function = parseFunction(item);
+            if (!functions.contains(function)) {
+                functions.add(function);
+            }
+        }
+        return new Aggregation(bucket, functions);
+    }
+
+    private static Bucket parseBucket(String name) {
+        for (Bucket bucket : Bucket.values()) {
+            if (bucket.name.equalsIgnoreCase(name)) {
+                return bucket;
+            }
+        }
+        throw new IllegalArgumentException("Unknown $aggregate bucket size '" + name + "'.");
+    }
+
+    private static Function parseFunction(String name) {
+        for (Function function : Function.values()) {
+            if (function.name.equalsIgnoreCase(name)) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException("Unknown $aggregate function '" + name + "'.");
+    }
+
+    public Bucket getBucket() {
+        return bucket;
+    }
+
+    public List<Function> getFunctions() {
+        return functions;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(bucket, functions);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final Aggregation other = (Aggregation) obj;
+        return this.bucket == other.bucket
+                && Objects.equals(this.functions, other.functions);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(bucket.name);
+        for (Function function : functions) {
+            sb.append(',').append(function.name);
+        }
+        return sb.toString();
+    }
+
+}
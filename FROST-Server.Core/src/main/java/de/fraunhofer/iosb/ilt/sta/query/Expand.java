@@ -89,6 +89,9 @@ public class Expand {
             currentEntityType = navigationProperty.getType();
         }
         if (subQuery != null) {
+            if (subQuery.getAggregation() != null) {
+                throw new IllegalArgumentException("$aggregate is not allowed in $expand.");
+            }
             subQuery.validate(currentEntityType);
         }
     }
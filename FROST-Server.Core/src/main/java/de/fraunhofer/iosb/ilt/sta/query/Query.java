@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.sta.query;
 
 import de.fraunhofer.iosb.ilt.sta.path.CustomPropertyPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.path.PropertyPathElement;
@@ -42,12 +43,14 @@ public class Query {
     private CoreSettings settings;
     private Optional<Integer> top;
     private Optional<Integer> skip;
+    private String skipToken;
     private Optional<Boolean> count;
     private Set<Property> select;
     private Expression filter;
     private List<Expand> expand;
     private List<OrderBy> orderBy;
     private String format;
+    private Aggregation aggregation;
 
     public Query() {
         this(new CoreSettings());
@@ -72,6 +75,14 @@ public class Query {
         if (entityType == null) {
             throw new IllegalStateException("Unkown ResourcePathElementType found.");
         }
+        if (aggregation != null) {
+            if (entityType != EntityType.OBSERVATION || !(mainElement instanceof EntitySetPathElement)) {
+                throw new IllegalArgumentException("$aggregate is only allowed on collections of Observations.");
+            }
+            if (!expand.isEmpty() || !select.isEmpty()) {
+                throw new IllegalArgumentException("$aggregate can not be combined with $expand or $select.");
+            }
+        }
         validate(entityType);
     }
 
@@ -110,6 +121,16 @@ public class Query {
         return dflt;
     }
 
+    /**
+     * The continuation token of a keyset-paged nextLink. The token is opaque,
+     * only the persistence manager that created it can interpret it.
+     *
+     * @return The continuation token, or null if none was given.
+     */
+    public String getSkipToken() {
+        return skipToken;
+    }
+
     public Optional<Boolean> getCount() {
         return count;
     }
@@ -142,6 +163,16 @@ public class Query {
         return format;
     }
 
+    /**
+     * The time-bucketed aggregation of the Observations, if the aggregates
+     * should be returned instead of the Observations.
+     *
+     * @return The aggregation, or null if none was given.
+     */
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
     public List<Expand> getExpand() {
         return expand;
     }
@@ -158,10 +189,28 @@ public class Query {
         }
     }
 
+    /**
+     * Removes the $top from the query.
+     */
+    public void clearTop() {
+        this.top = Optional.empty();
+    }
+
     public void setSkip(int skip) {
         this.skip = Optional.of(skip);
     }
 
+    /**
+     * Removes the $skip from the query.
+     */
+    public void clearSkip() {
+        this.skip = Optional.empty();
+    }
+
+    public void setSkipToken(String skipToken) {
+        this.skipToken = skipToken;
+    }
+
     public void setCount(boolean count) {
         this.count = Optional.of(count);
     }
@@ -174,6 +223,10 @@ public class Query {
         this.format = format;
     }
 
+    public void setAggregation(Aggregation aggregation) {
+        this.aggregation = aggregation;
+    }
+
     public void setExpand(List<Expand> expand) {
         this.expand = expand;
     }
@@ -188,7 +241,7 @@ public class Query {
 
     @Override
     public int hashCode() {
-        return Objects.hash(top, skip, count, select, filter, format, expand, orderBy);
+        return Objects.hash(top, skip, skipToken, count, select, filter, format, aggregation, expand, orderBy);
     }
 
     @Override
@@ -206,9 +259,11 @@ public class Query {
         return Objects.equals(this.count, other.count)
                 && Objects.equals(this.top, other.top)
                 && Objects.equals(this.skip, other.skip)
+                && Objects.equals(this.skipToken, other.skipToken)
                 && Objects.equals(this.select, other.select)
                 && Objects.equals(this.filter, other.filter)
                 && Objects.equals(this.format, other.format)
+                && Objects.equals(this.aggregation, other.aggregation)
                 && Objects.equals(this.expand, other.expand)
                 && Objects.equals(this.orderBy, other.orderBy);
     }
@@ -227,12 +282,16 @@ public class Query {
 
         addSkipToUrl(sb, separator);
 
+        addSkipTokenToUrl(sb, separator);
+
         addSelectToUrl(sb, separator);
 
         addFilterToUrl(sb, separator, inExpand);
 
         addFormatToUrl(sb, separator);
 
+        addAggregationToUrl(sb, separator);
+
         addExpandToUrl(sb, separator, inExpand);
 
         addOrderbyToUrl(sb, separator, inExpand);
@@ -257,12 +316,24 @@ public class Query {
         }
     }
 
+    private void addAggregationToUrl(StringBuilder sb, char separator) {
+        if (aggregation != null) {
+            sb.append(separator).append("$aggregate=").append(aggregation.toString());
+        }
+    }
+
     private void addSkipToUrl(StringBuilder sb, char separator) {
         if (skip.isPresent()) {
             sb.append(separator).append("$skip=").append(skip.get());
         }
     }
 
+    private void addSkipTokenToUrl(StringBuilder sb, char separator) {
+        if (skipToken != null) {
+            sb.append(separator).append("$skiptoken=").append(UrlHelper.urlEncode(skipToken));
+        }
+    }
+
     private void addTopToUrl(StringBuilder sb, char separator) {
         if (top.isPresent()) {
             sb.append(separator).append("$top=").append(top.get());
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of when clients last wrote data, so their reads can be kept away
+ * from read replicas that may not have their writes yet.
+ *
+ * @author scf
+ */
+class RecentWriters {
+
+    /**
+     * Above this number of tracked clients, expired entries are removed.
+     */
+    private static final int CLEANUP_SIZE = 1000;
+    private static final Map<String, Long> LAST_WRITES = new ConcurrentHashMap<>();
+
+    private RecentWriters() {
+        // Utility class, should not be instantiated.
+    }
+
+    /**
+     * Register that the given client wrote data now.
+     *
+     * @param clientId The client that wrote data.
+     * @param window The read-your-writes window in milliseconds.
+     */
+    static void registerWrite(String clientId, long window) {
+        long now = System.currentTimeMillis();
+        LAST_WRITES.put(clientId, now);
+        if (LAST_WRITES.size() > CLEANUP_SIZE) {
+            Iterator<Long> it = LAST_WRITES.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next() > window) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if the given client wrote data within the given window.
+     *
+     * @param clientId The client to check.
+     * @param window The read-your-writes window in milliseconds.
+     * @return true if the client wrote data within the window.
+     */
+    static boolean wroteWithin(String clientId, long window) {
+        Long lastWrite = LAST_WRITES.get(clientId);
+        return lastWrite != null && System.currentTimeMillis() - lastWrite <= window;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.service;
+
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.path.Property;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
+import de.fraunhofer.iosb.ilt.sta.query.Expand;
+import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.sta.query.expression.Path;
+import de.fraunhofer.iosb.ilt.sta.query.expression.function.Function;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least-recently-used cache of formatted GET responses, by url. Entries
+ * expire after a fixed time. Shared by all services.
+ *
+ * Each entry records the entity types its result depends on: the types in
+ * the path, in the $expand, and those navigated to in the $filter and
+ * $orderby. The cache listens on the message bus and drops the entries
+ * that depend on the type of each changed entity. Since deletes cascade in
+ * the database, without messages for the cascaded entities, any delete
+ * clears the cache. Changes made without messages, like the deferred
+ * aggregation of Datastreams, or changes made directly in the database,
+ * only show after the entries expire.
+ *
+ * @author scf
+ */
+public class ResponseCache implements MessageListener {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+    /**
+     * The entity types that also change when an entity of a type changes.
+     * Inserting an Observation changes the time extents of its Datastream,
+     * and may generate a FeatureOfInterest. Changing the Location of a Thing
+     * generates a HistoricalLocation.
+     */
+    private static final Map<EntityType, Set<EntityType>> SIDE_EFFECTS = new EnumMap<>(EntityType.class);
+
+    static {
+        SIDE_EFFECTS.put(EntityType.OBSERVATION, EnumSet.of(EntityType.OBSERVATION, EntityType.DATASTREAM, EntityType.MULTIDATASTREAM, EntityType.FEATUREOFINTEREST));
+        SIDE_EFFECTS.put(EntityType.THING, EnumSet.of(EntityType.THING, EntityType.HISTORICALLOCATION));
+        SIDE_EFFECTS.put(EntityType.LOCATION, EnumSet.of(EntityType.LOCATION, EntityType.HISTORICALLOCATION));
+    }
+
+    private static ResponseCache instance;
+
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+    /**
+     * The generation of each entity type, by ordinal. Incremented for each
+     * message that changes the type, so that results read while a change to
+     * one of their types came in are not cached.
+     */
+    private final long[] generations = new long[EntityType.values().length];
+
+    /**
+     * Get the cache, creating it if needed.
+     *
+     * @param maxSize The maximum number of responses in the cache.
+     * @param ttlSeconds The number of seconds a response stays valid.
+     * @return The cache, or null if the size or ttl is 0 or less, or if the
+     * message bus is not available to keep the cache up to date.
+     */
+    public static synchronized ResponseCache getInstance(int maxSize, long ttlSeconds) {
+        if (maxSize <= 0 || ttlSeconds <= 0) {
+            return null;
+        }
+        if (instance == null) {
+            ResponseCache cache = new ResponseCache(maxSize, ttlSeconds);
+            try {
+                MessageBusFactory.getMessageBus().addMessageListener(cache);
+            } catch (IllegalStateException exc) {
+                LOGGER.debug("Message bus not available (yet), not caching responses.");
+                return null;
+            }
+            instance = cache;
+        }
+        return instance;
+    }
+
+    private ResponseCache(final int maxSize, long ttlSeconds) {
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cached, formatted response for the given key.
+     *
+     * @param key The key of the response, see {@link #ticket(String)}.
+     * @return The formatted response, or null if it is not cached.
+     */
+    public synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.formatted;
+    }
+
+    /**
+     * Start reading a response that can be cached under the given key. The
+     * response is only cached if no change to one of the entity types it
+     * depends on comes in between this call and storing the response.
+     *
+     * @param key The key of the response, the normalised url and the variant
+     * of the formatter.
+     * @return The ticket to store the response with.
+     */
+    public synchronized Ticket ticket(String key) {
+        return new Ticket(key, generations.clone());
+    }
+
+    private synchronized void put(Ticket ticket, String formatted, Set<EntityType> dependencies) {
+        for (EntityType type : dependencies) {
+            if (ticket.generations[type.ordinal()] != generations[type.ordinal()]) {
+                return;
+            }
+        }
+        entries.put(ticket.key, new Entry(formatted, dependencies, System.currentTimeMillis() + ttlMillis));
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        if (message.getEventType() == EntityChangedMessage.Type.DELETE) {
+            clear();
+            return;
+        }
+        EntityType type = message.getEntityType();
+        remove(SIDE_EFFECTS.getOrDefault(type, EnumSet.of(type)));
+    }
+
+    private synchronized void remove(Set<EntityType> changed) {
+        for (EntityType type : changed) {
+            generations[type.ordinal()]++;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Set<EntityType> dependencies = it.next().dependencies;
+            for (EntityType type : changed) {
+                if (dependencies.contains(type)) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private synchronized void clear() {
+        for (int i = 0; i < generations.length; i++) {
+            generations[i]++;
+        }
+        entries.clear();
+    }
+
+    /**
+     * Find the entity types the result of a request depends on.
+     *
+     * @param path The path of the request.
+     * @param query The query of the request.
+     * @return The entity types the result depends on.
+     */
+    public static Set<EntityType> findDependencies(ResourcePath path, Query query) {
+        Set<EntityType> types = EnumSet.noneOf(EntityType.class);
+        for (int i = 0; i < path.size(); i++) {
+            ResourcePathElement element = path.get(i);
+            if (element instanceof EntityPathElement) {
+                types.add(((EntityPathElement) element).getEntityType());
+            } else if (element instanceof EntitySetPathElement) {
+                types.add(((EntitySetPathElement) element).getEntityType());
+            }
+        }
+        addDependencies(query, types);
+        return types;
+    }
+
+    private static void addDependencies(Query query, Set<EntityType> types) {
+        if (query == null) {
+            return;
+        }
+        addDependencies(query.getFilter(), types);
+        for (OrderBy orderBy : query.getOrderBy()) {
+            addDependencies(orderBy.getExpression(), types);
+        }
+        for (Expand expand : query.getExpand()) {
+            for (NavigationProperty np : expand.getPath()) {
+                types.add(np.getType());
+            }
+            addDependencies(expand.getSubQuery(), types);
+        }
+    }
+
+    private static void addDependencies(Expression expression, Set<EntityType> types) {
+        if (expression instanceof Path) {
+            for (Property property : ((Path) expression).getElements()) {
+                if (property instanceof NavigationProperty) {
+                    types.add(((NavigationProperty) property).getType());
+                }
+            }
+        } else if (expression instanceof Function) {
+            for (Expression parameter : ((Function) expression).getParameters()) {
+                addDependencies(parameter, types);
+            }
+        }
+    }
+
+    /**
+     * The state of the cache at the start of a read.
+     */
+    public class Ticket {
+
+        private final String key;
+        private final long[] generations;
+
+        private Ticket(String key, long[] generations) {
+            this.key = key;
+            this.generations = generations;
+        }
+
+        /**
+         * Cache the formatted response, unless a change to one of the entity
+         * types it depends on came in since the ticket was created.
+         *
+         * @param path The path of the request.
+         * @param query The query of the request.
+         * @param formatted The formatted response.
+         */
+        public void store(ResourcePath path, Query query, String formatted) {
+            put(this, formatted, findDependencies(path, query));
+        }
+    }
+
+    private static class Entry {
+
+        private final String formatted;
+        private final Set<EntityType> dependencies;
+        private final long expires;
+
+        public Entry(String formatted, Set<EntityType> dependencies, long expires) {
+            this.formatted = formatted;
+            this.dependencies = dependencies;
+            this.expires = expires;
+        }
+    }
+}
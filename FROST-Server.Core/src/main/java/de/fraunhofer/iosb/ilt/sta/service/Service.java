@@ -20,12 +20,15 @@ package de.fraunhofer.iosb.ilt.sta.service;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import de.fraunhofer.iosb.ilt.sta.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.sta.formatter.DefaultResultFormater;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.sta.messagebus.ChangeCounter;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.builder.ObservationBuilder;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.StreamingEntitySet;
 import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
 import de.fraunhofer.iosb.ilt.sta.parser.query.QueryParser;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
@@ -38,15 +41,20 @@ import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManagerFactory;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.Settings;
 import de.fraunhofer.iosb.ilt.sta.util.ArrayValueHandlers;
+import de.fraunhofer.iosb.ilt.sta.util.EntityTagHelper;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -69,6 +77,10 @@ import org.slf4j.LoggerFactory;
  * result in a transaction rollback, even when a transaction is explicitly
  * started.
  *
+ * GET requests outside of an explicit transaction are marked read-only, so
+ * that the back-end can send them to a read replica. Requests of a client that
+ * wrote data within the read-your-writes window stay on the primary.
+ *
  * This class is not thread-safe.
  *
  * @author jab, scf
@@ -79,37 +91,131 @@ public class Service {
     private static final String NOT_A_VALID_ID = "Not a valid id";
     private static final String POST_ONLY_ALLOWED_TO_COLLECTIONS = "POST only allowed to Collections.";
     private static final String COULD_NOT_PARSE_JSON = "Could not parse json.";
+    /**
+     * The maximum number of Observations of a CreateObservations request that
+     * are parsed before they are inserted.
+     */
+    private static final int DATA_ARRAY_CHUNK_SIZE = 1000;
 
     private final CoreSettings settings;
     private PersistenceManager persistenceManager;
     private boolean transactionActive = false;
+    /**
+     * The client the requests are executed for, used for read-your-writes.
+     */
+    private String clientId;
+    /**
+     * Flag indicating data was written through this service.
+     */
+    private boolean hasWritten = false;
+    /**
+     * Flag indicating the caller writes responses out directly, so results
+     * can be streamed.
+     */
+    private boolean streamingAllowed = false;
 
     public Service(CoreSettings settings) {
         this.settings = settings;
         PersistenceManagerFactory.init(settings);
     }
 
+    /**
+     * Set the client the requests are executed for. After a client writes
+     * data, its reads are not sent to a read replica for the configured
+     * read-your-writes window.
+     *
+     * @param clientId The identifier of the client, or null if unknown.
+     * @return this
+     */
+    public Service setClientId(String clientId) {
+        this.clientId = clientId;
+        return this;
+    }
+
+    /**
+     * Allow results to be streamed: formatted while they are read, when they
+     * are written out. Only callers that write the response out with
+     * {@link ServiceResponse#writeResult(java.io.Writer)}, or get the
+     * formatted result, for each response should allow this, since the
+     * backend is only closed after the result is written.
+     *
+     * @param streamingAllowed true if results can be streamed.
+     * @return this
+     */
+    public Service setStreamingAllowed(boolean streamingAllowed) {
+        this.streamingAllowed = streamingAllowed;
+        return this;
+    }
+
+    /**
+     * Check if data was written through this service.
+     *
+     * @return true if data was written through this service.
+     */
+    public boolean hasWritten() {
+        return hasWritten;
+    }
+
+    /**
+     * Mark this service as having written data, so that its reads are not
+     * sent to a read replica. Used for services that read on behalf of
+     * another service that wrote data.
+     *
+     * @param hasWritten true if the reads of this service must see earlier
+     * writes.
+     * @return this
+     */
+    public Service setHasWritten(boolean hasWritten) {
+        this.hasWritten = hasWritten;
+        return this;
+    }
+
     public <T> ServiceResponse<T> execute(ServiceRequest request) {
         switch (request.getRequestType()) {
             case GET_CAPABILITIES:
                 return executeGetCapabilities(request);
             case CREATE:
-                return executePost(request);
+                return registerWrite(executePost(request));
             case CREATE_OBSERVATIONS:
-                return executeCreateObservations(request);
+                return registerWrite(executeCreateObservations(request));
             case READ:
                 return executeGet(request);
             case DELETE:
-                return executeDelete(request);
+                return registerWrite(executeDelete(request));
             case UPDATE_ALL:
-                return executePut(request);
+                return registerWrite(executePut(request));
             case UPDATE_CHANGES:
-                return executePatch(request);
+                return registerWrite(executePatch(request));
             default:
                 return new ServiceResponse<>(500, "Illegal request type.");
         }
     }
 
+    private <T> ServiceResponse<T> registerWrite(ServiceResponse<T> response) {
+        if (response.isSuccessful()) {
+            hasWritten = true;
+            long window = settings.getPersistenceSettings().getReadYourWritesWindow();
+            if (clientId != null && window > 0) {
+                RecentWriters.registerWrite(clientId, window);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Check if reads can be sent to a read replica: only outside of explicit
+     * transactions, and if the client did not recently write data.
+     *
+     * @return true if reads can be sent to a read replica.
+     */
+    private boolean canReadFromReplica() {
+        if (transactionActive || hasWritten) {
+            return false;
+        }
+        long window = settings.getPersistenceSettings().getReadYourWritesWindow();
+        return clientId == null || window <= 0 || !RecentWriters.wroteWithin(clientId, window);
+    }
+
     /**
      * Explicitly starts a transaction. All subsequent calls to
      * {@link #execute(ServiceRequest)} will run in this transaction, until
@@ -210,22 +316,134 @@ public class Service {
 
     private <T> ServiceResponse<T> executeGet(ServiceRequest request) {
         ServiceResponse<T> response = new ServiceResponse<>();
+        String changeTag = getChangeTag();
+        if (EntityTagHelper.matchesTag(request.getIfNoneMatch(), changeTag)) {
+            // Nothing changed since the client read the result.
+            response.setCode(304);
+            addEntityTag(response, changeTag);
+            return response;
+        }
+        // A wildcard only matches if the resource exists, so it can only be
+        // checked after the request has been resolved.
+        boolean wildcard = changeTag != null && EntityTagHelper.isWildcard(request.getIfNoneMatch());
+        ResponseCache.Ticket cacheTicket = null;
+        ResponseCache cache = getResponseCache(request);
+        if (cache != null) {
+            String cacheKey = responseCacheKey(request);
+            String cached = cache.get(cacheKey);
+            if (cached != null) {
+                response.setResultFormatted(cached);
+                response.setCode(200);
+                if (changeTag != null) {
+                    addEntityTag(response, changeTag);
+                }
+                if (wildcard) {
+                    setNotModified(response);
+                }
+                return response;
+            }
+            cacheTicket = cache.ticket(cacheKey);
+        }
         PersistenceManager pm = getPm();
+        if (canReadFromReplica()) {
+            pm.setReadOnly(true);
+        }
+        if (streamingAllowed && cacheTicket == null && !wildcard && !transactionActive && settings.getPersistenceSettings().getStreamingFetchSize() > 0) {
+            // Streamed results are not formatted up front, so can not be cached.
+            pm.setStreaming(true);
+        }
         try {
-            return handleGet(pm, request, response);
+            handleGet(pm, request, response, cacheTicket);
+            if (changeTag != null && response.isSuccessful()) {
+                addEntityTag(response, changeTag);
+            }
+            if (wildcard && response.getCode() == 200) {
+                setNotModified(response);
+            }
+            return response;
         } catch (Exception e) {
             response.setStatus(500, "Failed to execute query. See logs for details.");
+            response.setResultWriter(null);
             LOGGER.error("", e);
             if (pm != null) {
                 pm.rollbackAndClose();
             }
         } finally {
-            maybeRollbackAndClose();
+            if (response.getResultWriter() == null) {
+                // A streamed result closes the PM when it is written.
+                maybeRollbackAndClose();
+            }
         }
         return response;
     }
 
-    private <T> ServiceResponse<T> handleGet(PersistenceManager pm, ServiceRequest request, ServiceResponse<T> response) {
+    /**
+     * Get the entity tag of the current version of the data, if entity tags
+     * based on the changes seen on the message bus are enabled. The tag is
+     * taken before reading, so a change made during the read leads to a new
+     * tag for the next request. Deferred Datastream aggregation changes
+     * Datastreams without a message, so the counter is not used with it.
+     *
+     * @return The entity tag, or null if not enabled or not available.
+     */
+    private String getChangeTag() {
+        Settings httpSettings = settings.getHttpSettings();
+        if (transactionActive
+                || !httpSettings.getBoolean(CoreSettings.TAG_ETAG_ENABLE, CoreSettings.DEFAULT_ETAG_ENABLE)
+                || !httpSettings.getBoolean(CoreSettings.TAG_ETAG_CHANGE_COUNTER, CoreSettings.DEFAULT_ETAG_CHANGE_COUNTER)
+                || settings.getPersistenceSettings().isDatastreamAggregationDeferred()) {
+            return null;
+        }
+        ChangeCounter counter = ChangeCounter.getInstance();
+        if (counter == null) {
+            return null;
+        }
+        return counter.getTag();
+    }
+
+    /**
+     * Get the response cache, if it is enabled and can be used for the
+     * request. Transactions and clients that recently wrote data bypass the
+     * cache, since their changes may not have reached it yet. Other reads can
+     * be served from the cache, but only responses read from the primary
+     * database are stored.
+     *
+     * @param request The request to get the cache for.
+     * @return The cache, or null if it can not be used.
+     */
+    private ResponseCache getResponseCache(ServiceRequest request) {
+        if (!(request.getFormatter() instanceof DefaultResultFormater) || !canReadFromReplica()) {
+            return null;
+        }
+        return ResponseCache.getInstance(settings.getResponseCacheSize(), settings.getResponseCacheTtl());
+    }
+
+    private static String responseCacheKey(ServiceRequest request) {
+        StringBuilder key = new StringBuilder();
+        key.append(((DefaultResultFormater) request.getFormatter()).isPrettyPrint() ? "pretty:" : "compact:");
+        String urlPath = request.getUrlPath();
+        if (urlPath != null) {
+            key.append(urlPath.endsWith("/") ? urlPath.substring(0, urlPath.length() - 1) : urlPath);
+        }
+        String urlQuery = request.getUrlQuery();
+        if (urlQuery != null && !urlQuery.trim().isEmpty()) {
+            key.append('?').append(urlQuery.trim());
+        }
+        return key.toString();
+    }
+
+    private static void addEntityTag(ServiceResponse<?> response, String tag) {
+        response.addHeader("ETag", tag);
+        response.addHeader("Cache-Control", "no-cache");
+    }
+
+    private static void setNotModified(ServiceResponse<?> response) {
+        response.setCode(304);
+        response.setResult(null);
+        response.setResultFormatted(null);
+    }
+
+    private <T> ServiceResponse<T> handleGet(PersistenceManager pm, ServiceRequest request, ServiceResponse<T> response, ResponseCache.Ticket cacheTicket) {
         ResourcePath path;
         try {
             path = PathParser.parsePath(pm.getIdManager(), settings.getServiceRootUrl(), request.getUrlPath());
@@ -288,15 +506,35 @@ public class Service {
             } else {
                 response.setStatus(404, "Nothing found.");
             }
+        } else if (object instanceof StreamingEntitySet) {
+            response.setResult(object);
+            response.setResultWriter(out -> writeStreamed(request, path, query, object, out));
+            response.setCode(200);
+            return response;
         } else {
             response.setResult(object);
             response.setResultFormatted(request.getFormatter().format(path, query, object, settings.isUseAbsoluteNavigationLinks()));
             response.setCode(200);
+            if (cacheTicket != null && !pm.isReadFromReplica()) {
+                // A lagging replica may not have the changes the ticket saw.
+                cacheTicket.store(path, query, response.getResultFormatted());
+            }
         }
         maybeCommitAndClose();
         return response;
     }
 
+    private void writeStreamed(ServiceRequest request, ResourcePath path, Query query, Object result, Writer out) throws IOException {
+        try {
+            request.getFormatter().format(path, query, result, settings.isUseAbsoluteNavigationLinks(), out);
+            maybeCommitAndClose();
+        } catch (IOException | RuntimeException exc) {
+            LOGGER.error("Failed to write streamed result.", exc);
+            maybeRollbackAndClose();
+            throw exc;
+        }
+    }
+
     private <T> ServiceResponse<T> executePost(ServiceRequest request) {
         ServiceResponse<T> response = new ServiceResponse<>();
         String urlPath = request.getUrlPath();
@@ -339,7 +577,7 @@ public class Service {
         EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
         Entity entity;
         try {
-            entity = entityParser.parseEntity(type.getImplementingClass(), request.getContent());
+            entity = entityParser.parseEntity(type.getImplementingClass(), request.getContentReader());
             entity.complete(mainSet);
         } catch (JsonParseException | JsonMappingException | IncompleteEntityException | IllegalStateException ex) {
             LOGGER.debug("Post failed: {}", ex.getMessage());
@@ -374,10 +612,15 @@ public class Service {
 
         PersistenceManager pm = getPm();
         try {
+            Reader content = request.getContentReader();
+            if (content == null) {
+                throw new IllegalArgumentException("No content.");
+            }
             EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
-            List<DataArrayValue> postData = entityParser.parseObservationDataArray(request.getContent());
             List<String> selfLinks = new ArrayList<>();
-            for (DataArrayValue daValue : postData) {
+            // The rows are inserted while they are parsed, all in the same
+            // transaction, so a parse error still rolls back all of them.
+            entityParser.parseObservationDataArray(content, DATA_ARRAY_CHUNK_SIZE, daValue -> {
                 Datastream datastream = daValue.getDatastream();
                 MultiDatastream multiDatastream = daValue.getMultiDatastream();
                 List<ArrayValueHandlers.ArrayValueHandler> handlers = new ArrayList<>();
@@ -385,7 +628,7 @@ public class Service {
                     handlers.add(ArrayValueHandlers.getHandler(component));
                 }
                 handleDataArrayItems(handlers, daValue, datastream, multiDatastream, pm, selfLinks);
-            }
+            });
             maybeCommitAndClose();
             response.setResultFormatted(request.getFormatter().format(null, null, selfLinks, settings.isUseAbsoluteNavigationLinks()));
             return response.setStatus(201, "Created");
@@ -397,7 +640,12 @@ public class Service {
 
     private void handleDataArrayItems(List<ArrayValueHandlers.ArrayValueHandler> handlers, DataArrayValue daValue, Datastream datastream, MultiDatastream multiDatastream, PersistenceManager pm, List<String> selfLinks) {
         int compCount = handlers.size();
-        for (List<Object> entry : daValue.getDataArray()) {
+        List<List<Object>> dataArray = daValue.getDataArray();
+        String[] links = new String[dataArray.size()];
+        List<Observation> observations = new ArrayList<>(dataArray.size());
+        List<Integer> positions = new ArrayList<>(dataArray.size());
+        int position = 0;
+        for (List<Object> entry : dataArray) {
             try {
                 ObservationBuilder obsBuilder = new ObservationBuilder();
                 obsBuilder.setDatastream(datastream);
@@ -405,15 +653,26 @@ public class Service {
                 for (int i = 0; i < compCount; i++) {
                     handlers.get(i).handle(entry.get(i), obsBuilder);
                 }
-                Observation observation = obsBuilder.build();
-                pm.insert(observation);
-                String selfLink = UrlHelper.generateSelfLink(settings.getServiceRootUrl(), observation);
-                selfLinks.add(selfLink);
-            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                observations.add(obsBuilder.build());
+                positions.add(position);
+            } catch (IllegalArgumentException exc) {
+                LOGGER.debug("Failed to create entity", exc);
+                links[position] = "error " + exc.getMessage();
+            }
+            position++;
+        }
+
+        List<Exception> errors = pm.insertAll(observations);
+        for (int i = 0; i < observations.size(); i++) {
+            Exception exc = errors.get(i);
+            if (exc == null) {
+                links[positions.get(i)] = UrlHelper.generateSelfLink(settings.getServiceRootUrl(), observations.get(i));
+            } else {
                 LOGGER.debug("Failed to create entity", exc);
-                selfLinks.add("error " + exc.getMessage());
+                links[positions.get(i)] = "error " + exc.getMessage();
             }
         }
+        selfLinks.addAll(Arrays.asList(links));
     }
 
     private <T> ServiceResponse<T> executePatch(ServiceRequest request) {
@@ -443,7 +702,7 @@ public class Service {
         try {
             mainElement = parsePathForPutPatch(pm, request, response);
             EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
-            entity = entityParser.parseEntity(mainElement.getEntityType().getImplementingClass(), request.getContent());
+            entity = entityParser.parseEntity(mainElement.getEntityType().getImplementingClass(), request.getContentReader());
         } catch (IllegalArgumentException exc) {
             LOGGER.trace("Path not valid.", exc);
             return response;
@@ -523,7 +782,7 @@ public class Service {
             mainElement = parsePathForPutPatch(pm, request, response);
 
             EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
-            entity = entityParser.parseEntity(mainElement.getEntityType().getImplementingClass(), request.getContent());
+            entity = entityParser.parseEntity(mainElement.getEntityType().getImplementingClass(), request.getContentReader());
             entity.complete(true);
             entity.setEntityPropertiesSet();
         } catch (IllegalArgumentException exc) {
@@ -17,7 +17,11 @@
  */
 package de.fraunhofer.iosb.ilt.sta.service;
 
+import com.google.common.io.CharStreams;
 import de.fraunhofer.iosb.ilt.sta.formatter.ResultFormatter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 
 /**
  *
@@ -29,7 +33,16 @@ public class ServiceRequest {
     private String urlPath;
     private String urlQuery;
     private String content;
+    /**
+     * The content of the request as a reader, if it is not read into content
+     * yet.
+     */
+    private Reader contentReader;
     private ResultFormatter formatter;
+    /**
+     * The If-None-Match header of the request, if any.
+     */
+    private String ifNoneMatch;
 
     protected ServiceRequest() {
 
@@ -69,10 +82,44 @@ public class ServiceRequest {
         return requestType;
     }
 
+    /**
+     * Get the content of the request as a String. If the content was given as
+     * a reader, the reader is read completely. Use
+     * {@link #getContentReader()} to avoid holding the content in memory.
+     *
+     * @return The content of the request, or null.
+     */
     public String getContent() {
+        if (content == null && contentReader != null) {
+            try {
+                content = CharStreams.toString(contentReader);
+            } catch (IOException exc) {
+                throw new IllegalStateException("Failed to read the content of the request.", exc);
+            }
+            contentReader = null;
+        }
         return content;
     }
 
+    /**
+     * Get the content of the request as a reader, so that it can be parsed
+     * while it is read. A reader given with {@link #setContentReader(Reader)}
+     * can only be read once.
+     *
+     * @return The content of the request, or null.
+     */
+    public Reader getContentReader() {
+        if (contentReader != null) {
+            Reader reader = contentReader;
+            contentReader = null;
+            return reader;
+        }
+        if (content == null) {
+            return null;
+        }
+        return new StringReader(content);
+    }
+
     public ResultFormatter getFormatter() {
         return formatter;
     }
@@ -118,7 +165,32 @@ public class ServiceRequest {
         this.content = content;
     }
 
+    /**
+     * Set the content of the request as a reader, that is read when the
+     * content is needed.
+     *
+     * @param contentReader The reader holding the content of the request.
+     */
+    public void setContentReader(Reader contentReader) {
+        this.content = null;
+        this.contentReader = contentReader;
+    }
+
     public void setFormatter(ResultFormatter formatter) {
         this.formatter = formatter;
     }
+
+    /**
+     * @return The If-None-Match header of the request, or null.
+     */
+    public String getIfNoneMatch() {
+        return ifNoneMatch;
+    }
+
+    /**
+     * @param ifNoneMatch The If-None-Match header of the request.
+     */
+    public void setIfNoneMatch(String ifNoneMatch) {
+        this.ifNoneMatch = ifNoneMatch;
+    }
 }
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.sta.service;
 
 import de.fraunhofer.iosb.ilt.sta.formatter.DefaultResultFormater;
 import de.fraunhofer.iosb.ilt.sta.formatter.ResultFormatter;
+import java.io.Reader;
 import java.util.Optional;
 
 /**
@@ -32,7 +33,9 @@ public class ServiceRequestBuilder {
     private Optional<String> urlPath;
     private Optional<String> urlQuery;
     private Optional<String> content;
+    private Optional<Reader> contentReader;
     private ResultFormatter formatter;
+    private Optional<String> ifNoneMatch;
 
     public ServiceRequestBuilder() {
         this.requestType = Optional.empty();
@@ -40,7 +43,9 @@ public class ServiceRequestBuilder {
         this.urlPath = Optional.empty();
         this.urlQuery = Optional.empty();
         this.content = Optional.empty();
+        this.contentReader = Optional.empty();
         this.formatter = new DefaultResultFormater();
+        this.ifNoneMatch = Optional.empty();
     }
 
     public ServiceRequestBuilder withUrl(String url) {
@@ -63,11 +68,21 @@ public class ServiceRequestBuilder {
         return this;
     }
 
+    public ServiceRequestBuilder withContentReader(Reader contentReader) {
+        this.contentReader = Optional.ofNullable(contentReader);
+        return this;
+    }
+
     public ServiceRequestBuilder withFormatter(ResultFormatter formatter) {
         this.formatter = formatter;
         return this;
     }
 
+    public ServiceRequestBuilder withIfNoneMatch(String ifNoneMatch) {
+        this.ifNoneMatch = Optional.ofNullable(ifNoneMatch);
+        return this;
+    }
+
     public ServiceRequestBuilder withRequestType(RequestType requestType) {
         this.requestType = Optional.of(requestType);
         return this;
@@ -87,9 +102,15 @@ public class ServiceRequestBuilder {
         if (content.isPresent()) {
             result.setContent(content.get());
         }
+        if (contentReader.isPresent()) {
+            result.setContentReader(contentReader.get());
+        }
         if (requestType.isPresent()) {
             result.setRequestType(requestType.get());
         }
+        if (ifNoneMatch.isPresent()) {
+            result.setIfNoneMatch(ifNoneMatch.get());
+        }
         result.setFormatter(formatter);
         return result;
     }
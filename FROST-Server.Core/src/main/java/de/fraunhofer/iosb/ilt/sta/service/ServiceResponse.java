@@ -17,6 +17,10 @@
  */
 package de.fraunhofer.iosb.ilt.sta.service;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,8 +30,28 @@ import java.util.Map;
  */
 public class ServiceResponse<T> {
 
+    /**
+     * Writes a result that is formatted while it is written.
+     */
+    public interface ResultWriter {
+
+        /**
+         * Format the result, writing it to the given Writer. Can only be
+         * called once.
+         *
+         * @param out The Writer to write to.
+         * @throws IOException If the Writer throws an IOException.
+         */
+        public void write(Writer out) throws IOException;
+    }
+
     private T result;
     private String resultFormatted;
+    /**
+     * If set, the result is not formatted yet, but is formatted when it is
+     * written out.
+     */
+    private ResultWriter resultWriter;
     private int code;
     private String message;
     private final Map<String, String> headers;
@@ -88,7 +112,22 @@ public class ServiceResponse<T> {
         return this;
     }
 
+    /**
+     * Get the formatted result. If the result is not formatted yet, but has a
+     * ResultWriter, the result is formatted into a String first.
+     *
+     * @return The formatted result.
+     */
     public String getResultFormatted() {
+        if (resultFormatted == null && resultWriter != null) {
+            StringWriter out = new StringWriter();
+            try {
+                writeResult(out);
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+            resultFormatted = out.toString();
+        }
         return resultFormatted;
     }
 
@@ -96,6 +135,44 @@ public class ServiceResponse<T> {
         this.resultFormatted = resultFormatted;
     }
 
+    /**
+     * @return The writer that formats the result while writing it, or null if
+     * the result is already formatted.
+     */
+    public ResultWriter getResultWriter() {
+        return resultWriter;
+    }
+
+    /**
+     * Set the writer that formats the result while writing it. Whoever
+     * handles the response must either call
+     * {@link #writeResult(java.io.Writer)} or {@link #getResultFormatted()}.
+     *
+     * @param resultWriter The writer that formats the result.
+     */
+    public void setResultWriter(ResultWriter resultWriter) {
+        this.resultWriter = resultWriter;
+    }
+
+    /**
+     * Write the formatted result to the given Writer, formatting it while it
+     * is written if it has a ResultWriter.
+     *
+     * @param out The Writer to write to.
+     * @throws IOException If the Writer throws an IOException.
+     */
+    public void writeResult(Writer out) throws IOException {
+        if (resultWriter == null) {
+            if (resultFormatted != null) {
+                out.write(resultFormatted);
+            }
+            return;
+        }
+        ResultWriter writer = resultWriter;
+        resultWriter = null;
+        writer.write(out);
+    }
+
     public boolean isSuccessful() {
         return code >= 200 && code < 300;
     }
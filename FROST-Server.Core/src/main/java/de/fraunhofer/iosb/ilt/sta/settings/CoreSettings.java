@@ -46,6 +46,8 @@ public class CoreSettings {
     public static final String TAG_SERVICE_ROOT_URL = "serviceRootUrl";
     public static final String TAG_USE_ABSOLUTE_NAVIGATION_LINKS = "useAbsoluteNavigationLinks";
     public static final String TAG_TEMP_PATH = "tempPath";
+    public static final String TAG_RESPONSE_CACHE_SIZE = "responseCacheSize";
+    public static final String TAG_RESPONSE_CACHE_TTL = "responseCacheTtl";
 
     // HTTP Tags
     public static final String TAG_CORS_ENABLE = "cors.enable";
@@ -56,6 +58,14 @@ public class CoreSettings {
     public static final String TAG_CORS_SUPPORT_CREDENTIALS = "cors.support.credentials";
     public static final String TAG_CORS_PREFLIGHT_MAXAGE = "cors.preflight.maxage";
     public static final String TAG_CORS_REQUEST_DECORATE = "cors.request.decorate";
+    public static final String TAG_PRETTY_PRINT = "prettyPrint";
+    public static final String TAG_COMPRESSION_ENABLE = "compression.enable";
+    public static final String TAG_COMPRESSION_THRESHOLD = "compression.threshold";
+    public static final String TAG_COMPRESSION_LEVEL = "compression.level";
+    public static final String TAG_ETAG_ENABLE = "etag.enable";
+    public static final String TAG_ETAG_CHANGE_COUNTER = "etag.changeCounter";
+    public static final String TAG_BATCH_THREADS = "batch.threads";
+    public static final String TAG_BATCH_MAX_HELD_SIZE = "batch.maxHeldSize";
 
     /**
      * Defaults
@@ -65,6 +75,8 @@ public class CoreSettings {
     public static final long DEFAULT_MAX_DATASIZE = 25000000;
     public static final boolean DEFAULT_COUNT = true;
     public static final boolean DEFAULT_USE_ABSOLUTE_NAV_LINKS = true;
+    public static final int DEFAULT_RESPONSE_CACHE_SIZE = 0;
+    public static final long DEFAULT_RESPONSE_CACHE_TTL = 60;
     // HTTP Defaults
     public static final boolean DEFAULT_CORS_ENABLE = false;
     public static final String DEFAULT_CORS_ALLOWED_ORIGINS = "*";
@@ -74,6 +86,14 @@ public class CoreSettings {
     public static final String DEFAULT_CORS_SUPPORT_CREDENTIALS = "false";
     public static final String DEFAULT_CORS_PREFLIGHT_MAXAGE = "1800";
     public static final String DEFAULT_CORS_REQUEST_DECORATE = "true";
+    public static final boolean DEFAULT_PRETTY_PRINT = false;
+    public static final boolean DEFAULT_COMPRESSION_ENABLE = false;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    public static final boolean DEFAULT_ETAG_ENABLE = false;
+    public static final boolean DEFAULT_ETAG_CHANGE_COUNTER = false;
+    public static final int DEFAULT_BATCH_THREADS = 0;
+    public static final long DEFAULT_BATCH_MAX_HELD_SIZE = 1_000_000;
 
     /**
      * Prefixes
@@ -118,6 +138,14 @@ public class CoreSettings {
      * Path to temp folder.
      */
     private String tempPath;
+    /**
+     * The maximum number of GET responses to cache.
+     */
+    private int responseCacheSize = DEFAULT_RESPONSE_CACHE_SIZE;
+    /**
+     * The number of seconds a cached GET response stays valid.
+     */
+    private long responseCacheTtl = DEFAULT_RESPONSE_CACHE_TTL;
     /**
      * The MQTT settings to use.
      */
@@ -183,6 +211,8 @@ public class CoreSettings {
         topDefault = settings.getWithDefault(TAG_DEFAULT_TOP, DEFAULT_MAX_TOP, Integer.class);
         topMax = settings.getWithDefault(TAG_MAX_TOP, DEFAULT_MAX_TOP, Integer.class);
         dataSizeMax = settings.getWithDefault(TAG_MAX_DATASIZE, DEFAULT_MAX_DATASIZE, Long.class);
+        responseCacheSize = settings.getWithDefault(TAG_RESPONSE_CACHE_SIZE, DEFAULT_RESPONSE_CACHE_SIZE, Integer.class);
+        responseCacheTtl = settings.getWithDefault(TAG_RESPONSE_CACHE_TTL, DEFAULT_RESPONSE_CACHE_TTL, Long.class);
 
         mqttSettings = new MqttSettings(new Settings(settings.getProperties(), PREFIX_MQTT, false));
         persistenceSettings = new PersistenceSettings(new Settings(settings.getProperties(), PREFIX_PERSISTENCE, false));
@@ -315,4 +345,22 @@ public class CoreSettings {
         this.countDefault = countDefault;
     }
 
+    /**
+     * The maximum number of GET responses to cache. 0 disables the cache.
+     *
+     * @return the responseCacheSize
+     */
+    public int getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    /**
+     * The number of seconds a cached GET response stays valid.
+     *
+     * @return the responseCacheTtl
+     */
+    public long getResponseCacheTtl() {
+        return responseCacheTtl;
+    }
+
 }
@@ -32,6 +32,40 @@ public class PersistenceSettings {
     private static final String TAG_ID_GENERATION_MODE = "idGenerationMode";
     private static final String TAG_AUTO_UPDATE_DATABASE = "autoUpdateDatabase";
     private static final boolean DEFAULT_AUTO_UPDATE_DATABASE = false;
+    private static final String TAG_EXPAND_STRATEGY = "expandStrategy";
+    private static final String DEFAULT_EXPAND_STRATEGY = "PerEntity";
+    private static final String TAG_KEYSET_PAGINATION = "keysetPagination";
+    private static final boolean DEFAULT_KEYSET_PAGINATION = false;
+    private static final String TAG_COUNT_MODE = "countMode";
+    private static final String DEFAULT_COUNT_MODE = "Full";
+    private static final String TAG_COUNT_ESTIMATE_THRESHOLD = "countEstimateThreshold";
+    private static final long DEFAULT_COUNT_ESTIMATE_THRESHOLD = 10000;
+    private static final String TAG_SQL_TEMPLATE_CACHE_SIZE = "sqlTemplateCacheSize";
+    private static final int DEFAULT_SQL_TEMPLATE_CACHE_SIZE = 0;
+    private static final String TAG_READ_YOUR_WRITES_WINDOW = "readYourWritesWindow";
+    private static final long DEFAULT_READ_YOUR_WRITES_WINDOW = 0;
+    private static final String TAG_DATASTREAM_AGGREGATION = "datastreamAggregation";
+    private static final String DEFAULT_DATASTREAM_AGGREGATION = "Trigger";
+    private static final String TAG_DATASTREAM_AGGREGATION_INTERVAL = "datastreamAggregationInterval";
+    private static final long DEFAULT_DATASTREAM_AGGREGATION_INTERVAL = 10;
+    private static final String TAG_PARTITION_OBSERVATIONS = "partitionObservations";
+    private static final boolean DEFAULT_PARTITION_OBSERVATIONS = false;
+    private static final String TAG_PARTITIONS_AHEAD = "partitionsAhead";
+    private static final int DEFAULT_PARTITIONS_AHEAD = 3;
+    private static final String TAG_OBSERVATION_INDEXES = "observationIndexes";
+    private static final boolean DEFAULT_OBSERVATION_INDEXES = false;
+    private static final String TAG_GENERATED_FOI_CACHE_SIZE = "generatedFoiCacheSize";
+    private static final int DEFAULT_GENERATED_FOI_CACHE_SIZE = 0;
+    private static final String TAG_OBSERVED_PROPERTY_COUNT_CACHE_SIZE = "observedPropertyCountCacheSize";
+    private static final int DEFAULT_OBSERVED_PROPERTY_COUNT_CACHE_SIZE = 10000;
+    private static final String TAG_EXISTENCE_CACHE_SIZE = "existenceCacheSize";
+    private static final int DEFAULT_EXISTENCE_CACHE_SIZE = 0;
+    private static final String TAG_EXISTENCE_CACHE_TTL = "existenceCacheTtl";
+    private static final long DEFAULT_EXISTENCE_CACHE_TTL = 60;
+    private static final String TAG_STREAMING_FETCH_SIZE = "streamingFetchSize";
+    private static final int DEFAULT_STREAMING_FETCH_SIZE = 0;
+    private static final String TAG_LATEST_OBSERVATION_CACHE_SIZE = "latestObservationCacheSize";
+    private static final int DEFAULT_LATEST_OBSERVATION_CACHE_SIZE = 0;
 
     /**
      * Fully-qualified class name of the PersistenceManager implementation class
@@ -40,6 +74,87 @@ public class PersistenceSettings {
     private boolean alwaysOrderbyId = true;
     private String idGenerationMode = "ServerGeneratedOnly";
     private boolean autoUpdateDatabase;
+    /**
+     * How the persistence manager loads the entities of an $expand.
+     */
+    private String expandStrategy;
+    /**
+     * Generate nextLinks that continue after the last entity of a page,
+     * instead of using $skip.
+     */
+    private boolean keysetPagination;
+    /**
+     * How the persistence manager calculates $count.
+     */
+    private String countMode;
+    /**
+     * Up to how many entities $count is exact, when using the LimitEstimate
+     * count mode.
+     */
+    private long countEstimateThreshold;
+    /**
+     * How many generated SQL queries are cached, by request shape. 0 disables
+     * the cache.
+     */
+    private int sqlTemplateCacheSize;
+    /**
+     * For how many milliseconds after a write the reads of the same client
+     * are not sent to a read replica.
+     */
+    private long readYourWritesWindow;
+    /**
+     * How the time ranges and observed areas of Datastreams are updated when
+     * Observations are inserted.
+     */
+    private String datastreamAggregation;
+    /**
+     * The number of seconds between two runs of the deferred Datastream
+     * aggregation.
+     */
+    private long datastreamAggregationInterval;
+    /**
+     * Partition the Observations table by month, on the start of the
+     * phenomenonTime.
+     */
+    private boolean partitionObservations;
+    /**
+     * For how many months in the future the Observation partitions are
+     * created.
+     */
+    private int partitionsAhead;
+    /**
+     * Add the indexes for ordering and filtering Observations by time.
+     */
+    private boolean observationIndexes;
+    /**
+     * For how many (Multi)Datastreams the id of the generated
+     * FeatureOfInterest is cached. 0 disables the cache.
+     */
+    private int generatedFoiCacheSize;
+    /**
+     * For how many MultiDatastreams the number of ObservedProperties is
+     * cached. 0 disables the cache.
+     */
+    private int observedPropertyCountCacheSize;
+    /**
+     * For how many entities per type it is cached that they exist. 0 disables
+     * the cache.
+     */
+    private int existenceCacheSize;
+    /**
+     * For how many seconds it is cached that an entity exists.
+     */
+    private long existenceCacheTtl;
+    /**
+     * The number of rows fetched at a time when streaming entity collections
+     * from the database to the response. 0 disables streaming.
+     */
+    private int streamingFetchSize;
+    /**
+     * For how many (Multi)Datastreams the latest Observation is cached. 0
+     * disables the cache.
+     */
+    private int latestObservationCacheSize;
     /**
      * Extension point for implementation specific settings
      */
@@ -57,6 +172,23 @@ public class PersistenceSettings {
         alwaysOrderbyId = settings.getBoolean(TAG_ALWAYS_ORDERBY_ID, alwaysOrderbyId);
         idGenerationMode = settings.get(TAG_ID_GENERATION_MODE, idGenerationMode);
         autoUpdateDatabase = settings.getBoolean(TAG_AUTO_UPDATE_DATABASE, DEFAULT_AUTO_UPDATE_DATABASE);
+        expandStrategy = settings.get(TAG_EXPAND_STRATEGY, DEFAULT_EXPAND_STRATEGY);
+        keysetPagination = settings.getBoolean(TAG_KEYSET_PAGINATION, DEFAULT_KEYSET_PAGINATION);
+        countMode = settings.get(TAG_COUNT_MODE, DEFAULT_COUNT_MODE);
+        countEstimateThreshold = settings.getLong(TAG_COUNT_ESTIMATE_THRESHOLD, DEFAULT_COUNT_ESTIMATE_THRESHOLD);
+        sqlTemplateCacheSize = settings.getInt(TAG_SQL_TEMPLATE_CACHE_SIZE, DEFAULT_SQL_TEMPLATE_CACHE_SIZE);
+        readYourWritesWindow = settings.getLong(TAG_READ_YOUR_WRITES_WINDOW, DEFAULT_READ_YOUR_WRITES_WINDOW);
+        datastreamAggregation = settings.get(TAG_DATASTREAM_AGGREGATION, DEFAULT_DATASTREAM_AGGREGATION);
+        datastreamAggregationInterval = settings.getLong(TAG_DATASTREAM_AGGREGATION_INTERVAL, DEFAULT_DATASTREAM_AGGREGATION_INTERVAL);
+        partitionObservations = settings.getBoolean(TAG_PARTITION_OBSERVATIONS, DEFAULT_PARTITION_OBSERVATIONS);
+        partitionsAhead = settings.getInt(TAG_PARTITIONS_AHEAD, DEFAULT_PARTITIONS_AHEAD);
+        observationIndexes = settings.getBoolean(TAG_OBSERVATION_INDEXES, DEFAULT_OBSERVATION_INDEXES);
+        generatedFoiCacheSize = settings.getInt(TAG_GENERATED_FOI_CACHE_SIZE, DEFAULT_GENERATED_FOI_CACHE_SIZE);
+        observedPropertyCountCacheSize = settings.getInt(TAG_OBSERVED_PROPERTY_COUNT_CACHE_SIZE, DEFAULT_OBSERVED_PROPERTY_COUNT_CACHE_SIZE);
+        existenceCacheSize = settings.getInt(TAG_EXISTENCE_CACHE_SIZE, DEFAULT_EXISTENCE_CACHE_SIZE);
+        existenceCacheTtl = settings.getLong(TAG_EXISTENCE_CACHE_TTL, DEFAULT_EXISTENCE_CACHE_TTL);
+        streamingFetchSize = settings.getInt(TAG_STREAMING_FETCH_SIZE, DEFAULT_STREAMING_FETCH_SIZE);
+        latestObservationCacheSize = settings.getInt(TAG_LATEST_OBSERVATION_CACHE_SIZE, DEFAULT_LATEST_OBSERVATION_CACHE_SIZE);
         customSettings = settings;
     }
 
@@ -79,4 +211,82 @@ public class PersistenceSettings {
     public String getIdGenerationMode() {
         return idGenerationMode;
     }
+
+    public String getExpandStrategy() {
+        return expandStrategy;
+    }
+
+    public boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    public String getCountMode() {
+        return countMode;
+    }
+
+    public long getCountEstimateThreshold() {
+        return countEstimateThreshold;
+    }
+
+    public int getSqlTemplateCacheSize() {
+        return sqlTemplateCacheSize;
+    }
+
+    public long getReadYourWritesWindow() {
+        return readYourWritesWindow;
+    }
+
+    public String getDatastreamAggregation() {
+        return datastreamAggregation;
+    }
+
+    /**
+     * Check if the Datastreams are aggregated deferred. Deferred aggregation
+     * changes Datastreams without sending a message on the message bus.
+     *
+     * @return true if the datastreamAggregation is Deferred.
+     */
+    public boolean isDatastreamAggregationDeferred() {
+        return "deferred".equalsIgnoreCase(datastreamAggregation);
+    }
+
+    public long getDatastreamAggregationInterval() {
+        return datastreamAggregationInterval;
+    }
+
+    public boolean isPartitionObservations() {
+        return partitionObservations;
+    }
+
+    public int getPartitionsAhead() {
+        return partitionsAhead;
+    }
+
+    public boolean isObservationIndexes() {
+        return observationIndexes;
+    }
+
+    public int getGeneratedFoiCacheSize() {
+        return generatedFoiCacheSize;
+    }
+
+    public int getObservedPropertyCountCacheSize() {
+        return observedPropertyCountCacheSize;
+    }
+
+    public int getExistenceCacheSize() {
+        return existenceCacheSize;
+    }
+
+    public long getExistenceCacheTtl() {
+        return existenceCacheTtl;
+    }
+
+    public int getStreamingFetchSize() {
+        return streamingFetchSize;
+    }
+
+    public int getLatestObservationCacheSize() {
+        return latestObservationCacheSize;
+    }
 }
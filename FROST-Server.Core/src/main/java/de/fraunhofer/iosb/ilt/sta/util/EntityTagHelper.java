@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Helper methods for HTTP entity tags (ETags), used for conditional GET
+ * requests.
+ *
+ * @author scf
+ */
+public class EntityTagHelper {
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private EntityTagHelper() {
+        // Utility class, not to be instantiated.
+    }
+
+    /**
+     * Create a weak entity tag with the given value.
+     *
+     * @param value The value of the tag, without quotes.
+     * @return The weak entity tag.
+     */
+    public static String weakTag(String value) {
+        return WEAK_PREFIX + '"' + value + '"';
+    }
+
+    /**
+     * Create a weak entity tag from a hash of the given content.
+     *
+     * @param content The content to create the tag for.
+     * @return The weak entity tag.
+     */
+    public static String contentTag(String content) {
+        return weakTag(Hashing.murmur3_128().hashString(content, StringHelper.ENCODING).toString());
+    }
+
+    /**
+     * Check if the given entity tag matches the value of an If-None-Match
+     * header, using the weak comparison that applies to GET requests. A
+     * wildcard matches any tag, so this must only be used for a resource that
+     * is known to exist.
+     *
+     * @param ifNoneMatch The value of the If-None-Match header, may be null.
+     * @param tag The entity tag of the current representation.
+     * @return true if the tag matches.
+     */
+    public static boolean matches(String ifNoneMatch, String tag) {
+        if (tag == null) {
+            return false;
+        }
+        return isWildcard(ifNoneMatch) || matchesTag(ifNoneMatch, tag);
+    }
+
+    /**
+     * Check if the given entity tag is listed in the value of an If-None-Match
+     * header, using the weak comparison that applies to GET requests. Unlike
+     * {@link #matches(String, String)} a wildcard is ignored, so this can be
+     * used before it is known if the resource exists.
+     *
+     * @param ifNoneMatch The value of the If-None-Match header, may be null.
+     * @param tag The entity tag of the current representation.
+     * @return true if the tag is listed.
+     */
+    public static boolean matchesTag(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null || tag == null) {
+            return false;
+        }
+        String opaqueTag = stripWeak(tag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            if (stripWeak(candidate.trim()).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the value of an If-None-Match header is the wildcard, that
+     * matches any current representation of the resource.
+     *
+     * @param ifNoneMatch The value of the If-None-Match header, may be null.
+     * @return true if the value is the wildcard.
+     */
+    public static boolean isWildcard(String ifNoneMatch) {
+        return ifNoneMatch != null && "*".equals(ifNoneMatch.trim());
+    }
+
+    private static String stripWeak(String tag) {
+        if (tag.startsWith(WEAK_PREFIX)) {
+            return tag.substring(WEAK_PREFIX.length());
+        }
+        return tag;
+    }
+}
@@ -25,6 +25,7 @@ import static de.fraunhofer.iosb.ilt.sta.util.StringHelper.ENCODING;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Optional;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -122,6 +123,29 @@ public class UrlHelper {
         return nextLink;
     }
 
+    /**
+     * Generate a nextLink that continues after the last entity of the current
+     * page using the given continuation token, instead of using $skip.
+     *
+     * @param path The path of the current page.
+     * @param query The query of the current page.
+     * @param skipToken The continuation token identifying the last entity of
+     * the current page.
+     * @return The nextLink.
+     */
+    public static String generateNextLink(ResourcePath path, Query query, String skipToken) {
+        Optional<Integer> oldSkip = query.getSkip();
+        String oldSkipToken = query.getSkipToken();
+        query.clearSkip();
+        query.setSkipToken(skipToken);
+        String nextLink = path.toString() + "?" + query.toString(false);
+        if (oldSkip.isPresent()) {
+            query.setSkip(oldSkip.get());
+        }
+        query.setSkipToken(oldSkipToken);
+        return nextLink;
+    }
+
     public static String generateSelfLink(String serviceRootUrl, Entity entity) {
         StringBuilder sb = new StringBuilder(serviceRootUrl);
         sb.append('/');
@@ -31,6 +31,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -108,6 +109,28 @@ public class VisibilityHelper {
         applyVisibility(entitySet, path, v, useAbsoluteNavigationLinks);
     }
 
+    /**
+     * Create a function that applies the visibility to single entities of an
+     * entity set, for when the entities of the set are written while they are
+     * read.
+     *
+     * @param entityType The type of the entities in the set.
+     * @param path The path of the request.
+     * @param query The query of the request.
+     * @param useAbsoluteNavigationLinks Whether to use absolute navigation
+     * links.
+     * @return The function that applies the visibility to an entity.
+     */
+    public static Consumer<Entity> createApplier(EntityType entityType, ResourcePath path, Query query, boolean useAbsoluteNavigationLinks) {
+        if (path.isRef()) {
+            Set<Property> select = query.getSelect();
+            select.clear();
+            select.add(EntityProperty.SELFLINK);
+        }
+        Visibility v = createVisibility(entityType, query, true);
+        return e -> applyVisibility(e, path, v, useAbsoluteNavigationLinks);
+    }
+
     private static void applyVisibility(Entity e, ResourcePath path, Visibility v, boolean useAbsoluteNavigationLinks) {
         if (e.getId() != null) {
             e.setSelfLink(UrlHelper.generateSelfLink(path, e));
@@ -46,6 +46,7 @@ import de.fraunhofer.iosb.ilt.sta.model.core.IdString;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.util.TestHelper;
 import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -714,6 +715,48 @@ public class EntityParserTest {
         assertEquals(expectedResult, result);
     }
 
+    @Test
+    public void readObservation_DataArrayStreamed() throws IOException {
+        String json = "[\n"
+                + "  {\n"
+                + "    \"dataArray\": [\n"
+                + "      [\"2010-12-23T10:20:00-0700\", 20],\n"
+                + "      [\"2010-12-23T10:21:00-0700\", 30]\n"
+                + "    ],\n"
+                + "    \"Datastream\": {\"@iot.id\": 1},\n"
+                + "    \"components\": [\"phenomenonTime\", \"result\"]\n"
+                + "  },\n"
+                + "  {\n"
+                + "    \"MultiDatastream\": {\"@iot.id\": 2},\n"
+                + "    \"components\": [\"phenomenonTime\", \"result\"],\n"
+                + "    \"dataArray@iot.count\": 3,\n"
+                + "    \"dataArray\": [\n"
+                + "      [\"2010-12-23T10:20:00-0700\", 65],\n"
+                + "      [\"2010-12-23T10:21:00-0700\", 60],\n"
+                + "      [\"2010-12-23T10:22:00-0700\", 55]\n"
+                + "    ]\n"
+                + "  }\n"
+                + "]";
+        List<String> components = Arrays.asList("phenomenonTime", "result");
+        Datastream ds1 = new DatastreamBuilder().setId(new IdLong(1L)).build();
+        MultiDatastream mds2 = new MultiDatastreamBuilder().setId(new IdLong(2L)).build();
+
+        // The rows before the header are held until the header is complete.
+        DataArrayValue dav1 = new DataArrayValue(ds1, components);
+        dav1.getDataArray().add(Arrays.asList(new Object[]{"2010-12-23T10:20:00-0700", 20}));
+        dav1.getDataArray().add(Arrays.asList(new Object[]{"2010-12-23T10:21:00-0700", 30}));
+        DataArrayValue dav2 = new DataArrayValue(mds2, components);
+        dav2.getDataArray().add(Arrays.asList(new Object[]{"2010-12-23T10:20:00-0700", 65}));
+        dav2.getDataArray().add(Arrays.asList(new Object[]{"2010-12-23T10:21:00-0700", 60}));
+        DataArrayValue dav3 = new DataArrayValue(mds2, components);
+        dav3.getDataArray().add(Arrays.asList(new Object[]{"2010-12-23T10:22:00-0700", 55}));
+        List<DataArrayValue> expectedResult = Arrays.asList(dav1, dav2, dav3);
+
+        List<DataArrayValue> result = new ArrayList<>();
+        entityParser.parseObservationDataArray(new StringReader(json), 2, result::add);
+        assertEquals(expectedResult, result);
+    }
+
     @Test
     public void readObservedProperty_Basic_Success() throws IOException {
         String json = "{\n"
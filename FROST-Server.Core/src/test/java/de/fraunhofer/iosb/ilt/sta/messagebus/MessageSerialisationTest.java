@@ -31,6 +31,7 @@ import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.IdLong;
 import de.fraunhofer.iosb.ilt.sta.model.ext.TimeInstant;
 import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.util.TestHelper;
 import java.io.IOException;
@@ -156,4 +157,19 @@ public class MessageSerialisationTest {
         assertEquals(message, deserialisedMessage);
     }
 
+    @Test
+    public void serialiseMessageDeleteWithoutEntity() throws IOException {
+        EntityChangedMessage message = new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.DELETE)
+                .setEntityType(EntityType.OBSERVATION);
+
+        ObjectMapper mapper = EntityFormatter.getObjectMapper();
+        String serialisedMessage = mapper.writeValueAsString(message);
+
+        EntityParser parser = new EntityParser(IdLong.class);
+        EntityChangedMessage deserialisedMessage = parser.parseObject(EntityChangedMessage.class, serialisedMessage);
+
+        assertEquals(message, deserialisedMessage);
+    }
+
 }
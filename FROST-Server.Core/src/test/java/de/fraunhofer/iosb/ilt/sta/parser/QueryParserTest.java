@@ -21,6 +21,7 @@ import de.fraunhofer.iosb.ilt.sta.parser.query.QueryParser;
 import de.fraunhofer.iosb.ilt.sta.path.CustomProperty;
 import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.query.Aggregation;
 import de.fraunhofer.iosb.ilt.sta.query.Expand;
 import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
@@ -561,4 +562,21 @@ public class QueryParserTest {
         Query result = QueryParser.parseQuery(query);
         assert (result.equals(expResult));
     }
+
+    @Test
+    public void testParseQuery_Aggregate() {
+        String query = "$aggregate=hour,avg,count,last";
+        Query expResult = new Query();
+        expResult.setAggregation(new Aggregation(
+                Aggregation.Bucket.HOUR,
+                Arrays.asList(Aggregation.Function.AVG, Aggregation.Function.COUNT, Aggregation.Function.LAST)));
+        Query result = QueryParser.parseQuery(query);
+        Assert.assertEquals(expResult, result);
+        Assert.assertEquals(query, result.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseQuery_AggregateUnknownBucket() {
+        QueryParser.parseQuery("$aggregate=hourly,avg");
+    }
 }
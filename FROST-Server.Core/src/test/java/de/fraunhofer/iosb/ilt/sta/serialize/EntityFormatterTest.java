@@ -172,6 +172,23 @@ public class EntityFormatterTest {
         assert (jsonEqual(expResult, EntityFormatter.writeEntityCollection(things)));
     }
 
+    @Test
+    public void writeThings_EstimatedCount_Success() throws IOException {
+        String expResult
+                = "{\n"
+                + "\"@iot.count\": 1000,\n"
+                + "\"@iot.countEstimated\": true,\n"
+                + "\"value\":[{\"@iot.id\": 1}]\n"
+                + "}";
+        EntitySet<Thing> things = new EntitySetImpl<>(EntityType.THING);
+        things.add(new ThingBuilder()
+                .setId(new IdLong(1))
+                .build());
+        things.setCount(1000);
+        things.setCountEstimated(true);
+        assert (jsonEqual(expResult, EntityFormatter.writeEntityCollection(things)));
+    }
+
     @Test
     public void writeThing_CompletelyEmpty_Success() throws IOException {
         String expResult
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class EntityTagHelperTest {
+
+    @Test
+    public void testMatches() {
+        String tag = EntityTagHelper.weakTag("abc");
+        Assert.assertEquals("W/\"abc\"", tag);
+        Assert.assertTrue(EntityTagHelper.matches("W/\"abc\"", tag));
+        Assert.assertTrue(EntityTagHelper.matches("\"abc\"", tag));
+        Assert.assertTrue(EntityTagHelper.matches("\"xyz\", W/\"abc\"", tag));
+        Assert.assertTrue(EntityTagHelper.matches("*", tag));
+        Assert.assertFalse(EntityTagHelper.matches("W/\"abd\"", tag));
+        Assert.assertFalse(EntityTagHelper.matches(null, tag));
+        Assert.assertFalse(EntityTagHelper.matches("*", null));
+    }
+
+    @Test
+    public void testMatchesTag() {
+        String tag = EntityTagHelper.weakTag("abc");
+        Assert.assertTrue(EntityTagHelper.matchesTag("\"xyz\", W/\"abc\"", tag));
+        Assert.assertFalse(EntityTagHelper.matchesTag("*", tag));
+        Assert.assertTrue(EntityTagHelper.isWildcard(" * "));
+        Assert.assertFalse(EntityTagHelper.isWildcard("W/\"abc\""));
+        Assert.assertFalse(EntityTagHelper.isWildcard(null));
+    }
+
+    @Test
+    public void testContentTag() {
+        Assert.assertEquals(EntityTagHelper.contentTag("{\"a\":1}"), EntityTagHelper.contentTag("{\"a\":1}"));
+        Assert.assertNotEquals(EntityTagHelper.contentTag("{\"a\":1}"), EntityTagHelper.contentTag("{\"a\":2}"));
+    }
+}
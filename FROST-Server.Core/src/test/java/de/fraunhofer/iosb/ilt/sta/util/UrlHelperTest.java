@@ -200,6 +200,34 @@ public class UrlHelperTest {
                 "/Datastreams?$filter=unitOfMeasurement/name eq 'metre'&$top=2");
     }
 
+    private void testNextLink(String baseUrl, String skipToken, String expectedNextUrl) {
+        IdManager idManager = new IdManagerlong();
+        ParserHelper.PathQuery queryBase = ParserHelper.parsePathAndQuery(idManager, "", baseUrl);
+        ParserHelper.PathQuery queryExpected = ParserHelper.parsePathAndQuery(idManager, "", expectedNextUrl);
+
+        String nextLink = UrlHelper.generateNextLink(queryBase.path, queryBase.query, skipToken);
+        nextLink = UrlHelper.urlDecode(nextLink);
+        ParserHelper.PathQuery next = ParserHelper.parsePathAndQuery(idManager, "", nextLink);
+
+        assert (next.equals(queryExpected));
+    }
+
+    @Test
+    public void testNextLink_SkipToken_Success() {
+        testNextLink(
+                "/Observations?$top=2",
+                "k1AQBs",
+                "/Observations?$top=2&$skiptoken=k1AQBs");
+        testNextLink(
+                "/Observations?$skip=2&$top=2&$orderby=phenomenonTime desc",
+                "k1AgB0-_",
+                "/Observations?$top=2&$orderby=phenomenonTime desc&$skiptoken=k1AgB0-_");
+        testNextLink(
+                "/Observations?$skiptoken=k1AQBs&$top=2",
+                "k1AQBt",
+                "/Observations?$top=2&$skiptoken=k1AQBt");
+    }
+
     @Test
     public void testgetRelativePath() {
         {
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.DEFAULT_COMPRESSION_ENABLE;
+import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.DEFAULT_COMPRESSION_LEVEL;
+import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.DEFAULT_COMPRESSION_THRESHOLD;
+import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.TAG_COMPRESSION_ENABLE;
+import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.TAG_COMPRESSION_LEVEL;
+import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.TAG_COMPRESSION_THRESHOLD;
+import de.fraunhofer.iosb.ilt.sta.settings.Settings;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Negotiates the compression of HTTP responses with the Accept-Encoding
+ * header of the request, and wraps the response in the negotiated
+ * compression.
+ *
+ * @author scf
+ */
+public class ResponseCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final boolean enabled;
+    private final int threshold;
+    private final int level;
+
+    public ResponseCompression(Settings httpSettings) {
+        enabled = httpSettings.getBoolean(TAG_COMPRESSION_ENABLE, DEFAULT_COMPRESSION_ENABLE);
+        threshold = httpSettings.getInt(TAG_COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD);
+        level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, httpSettings.getInt(TAG_COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL)));
+    }
+
+    /**
+     * Find the compression to use for the given request. If compression is
+     * enabled, the response is marked as varying on Accept-Encoding.
+     *
+     * @param request The request to find the compression for.
+     * @param response The response to mark.
+     * @return The encoding to use, or null if the response should not be
+     * compressed.
+     */
+    public String negotiate(HttpServletRequest request, HttpServletResponse response) {
+        if (!enabled) {
+            return null;
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        return negotiate(request.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * Find the supported encoding with the highest quality in the given
+     * Accept-Encoding header. On equal quality gzip is preferred.
+     *
+     * @param acceptEncoding The value of the Accept-Encoding header.
+     * @return The encoding to use, or null if no supported encoding is
+     * accepted.
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        String best = null;
+        double bestQuality = 0;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String name = parts[0].trim().toLowerCase();
+            if ("*".equals(name)) {
+                name = GZIP;
+            }
+            if (!GZIP.equals(name) && !DEFLATE.equals(name)) {
+                continue;
+            }
+            double quality = parseQuality(parts);
+            if (quality > bestQuality || (quality == bestQuality && quality > 0 && GZIP.equals(name))) {
+                best = name;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static double parseQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException exc) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Check if a response of the given length is large enough to compress.
+     *
+     * @param length The length of the response, in characters.
+     * @return true if the response should be compressed.
+     */
+    public boolean isAboveThreshold(int length) {
+        return length >= threshold;
+    }
+
+    /**
+     * Set the Content-Encoding of the response, and get a Writer that writes
+     * UTF-8, compressed with the given encoding, to the response. The Writer
+     * must be closed to finish the compressed stream.
+     *
+     * @param response The response to write to.
+     * @param encoding The encoding to compress with, as returned by negotiate.
+     * @return A Writer that compresses.
+     * @throws IOException If the output stream of the response can not be
+     * opened.
+     */
+    public Writer wrap(HttpServletResponse response, String encoding) throws IOException {
+        response.setHeader("Content-Encoding", encoding);
+        OutputStream out = response.getOutputStream();
+        OutputStream compressed;
+        if (GZIP.equals(encoding)) {
+            compressed = new LeveledGzipOutputStream(out, level);
+        } else {
+            compressed = new LeveledDeflaterOutputStream(out, level);
+        }
+        return new OutputStreamWriter(compressed, StandardCharsets.UTF_8);
+    }
+
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        public LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * A DeflaterOutputStream that releases its Deflater when it is closed.
+     */
+    private static class LeveledDeflaterOutputStream extends DeflaterOutputStream {
+
+        public LeveledDeflaterOutputStream(OutputStream out, int level) {
+            super(out, new Deflater(level), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+}
@@ -18,18 +18,24 @@
 package de.fraunhofer.iosb.ilt.frostserver.http.common;
 
 import com.google.common.base.Strings;
+import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.BatchPartProcessor;
 import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.BatchProcessor;
 import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.MixedContent;
+import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.MixedContentWriter;
+import de.fraunhofer.iosb.ilt.sta.formatter.DefaultResultFormater;
+import de.fraunhofer.iosb.ilt.sta.formatter.ResultFormatter;
 import de.fraunhofer.iosb.ilt.sta.service.RequestType;
 import de.fraunhofer.iosb.ilt.sta.service.Service;
 import de.fraunhofer.iosb.ilt.sta.service.ServiceRequest;
 import de.fraunhofer.iosb.ilt.sta.service.ServiceRequestBuilder;
 import de.fraunhofer.iosb.ilt.sta.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.Settings;
+import de.fraunhofer.iosb.ilt.sta.util.EntityTagHelper;
 import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.stream.Collectors;
+import java.io.Writer;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebInitParam;
@@ -104,40 +110,111 @@ public class ServletV1P0 extends HttpServlet {
         executeService(RequestType.DELETE, request, response);
     }
 
+    /**
+     * Process a batch request. The parts are processed while the request is
+     * read, so that the request is not held in memory as a whole. The
+     * responses are held until the request is read completely, since many
+     * clients do not read the response before sending the whole request.
+     * Held responses beyond http.batch.maxHeldSize are moved to a file in the
+     * tempPath. After the request is read, the responses are written as soon
+     * as they are done.
+     */
     private void processBatchRequest(HttpServletRequest request, HttpServletResponse response) {
         CoreSettings coreSettings = (CoreSettings) request.getServletContext().getAttribute(AbstractContextListener.TAG_CORE_SETTINGS);
-        Service service = new Service(coreSettings);
-
-        MixedContent multipartMixedData = new MixedContent(false);
-        multipartMixedData.parse(request);
-        MixedContent resultContent = BatchProcessor.processMultipartMixed(service, multipartMixedData);
-        sendMixedResponse(resultContent, response);
-    }
+        String clientId = clientIdFromHttpRequest(request);
+        Service service = new Service(coreSettings).setClientId(clientId);
+        int threads = coreSettings.getHttpSettings().getInt(CoreSettings.TAG_BATCH_THREADS, CoreSettings.DEFAULT_BATCH_THREADS);
+        long maxHeldSize = coreSettings.getHttpSettings().getLong(CoreSettings.TAG_BATCH_MAX_HELD_SIZE, CoreSettings.DEFAULT_BATCH_MAX_HELD_SIZE);
 
-    private void sendMixedResponse(MixedContent multipartMixedData, HttpServletResponse httpResponse) {
-        httpResponse.setStatus(200);
-        multipartMixedData.getHeaders().entrySet().forEach(x -> httpResponse.setHeader(x.getKey(), x.getValue()));
+        String boundary = MixedContent.createBoundary();
+        response.setStatus(200);
+        response.setHeader("Content-Type", "multipart/mixed; boundary=" + boundary);
+        response.setCharacterEncoding(ENCODING);
+        MixedContentWriter out;
         try {
-            httpResponse.setCharacterEncoding(ENCODING);
-            httpResponse.getWriter().write(multipartMixedData.getContent(false));
+            out = new MixedContentWriter(response.getWriter(), boundary, maxHeldSize, new File(coreSettings.getTempPath()));
         } catch (IOException ex) {
             LOGGER.error("Error writing HTTP result", ex);
-            httpResponse.setStatus(500);
+            response.setStatus(500);
+            return;
+        }
+        BatchPartProcessor processor = new BatchPartProcessor(
+                service,
+                BatchProcessor.getExecutor(threads),
+                () -> new Service(coreSettings).setClientId(clientId).setHasWritten(service.hasWritten()),
+                out::writePart);
+        try {
+            new MixedContent(false)
+                    .setPartListener(processor)
+                    .parse(request);
+            out.setRequestRead();
+            processor.finish();
+            out.finish();
+        } finally {
+            out.close();
         }
     }
 
     private void executeService(RequestType requestType, HttpServletRequest request, HttpServletResponse response) {
+        ResponseCompression compression = null;
         try {
             CoreSettings coreSettings = (CoreSettings) request.getServletContext().getAttribute(AbstractContextListener.TAG_CORE_SETTINGS);
-            Service service = new Service(coreSettings);
-            sendResponse(service.execute(serviceRequestFromHttpRequest(request, requestType)), response);
+            Settings httpSettings = coreSettings.getHttpSettings();
+            compression = new ResponseCompression(httpSettings);
+            Service service = new Service(coreSettings)
+                    .setClientId(clientIdFromHttpRequest(request))
+                    .setStreamingAllowed(true);
+            boolean prettyPrint = httpSettings.getBoolean(CoreSettings.TAG_PRETTY_PRINT, CoreSettings.DEFAULT_PRETTY_PRINT);
+            ServiceRequest serviceRequest = serviceRequestFromHttpRequest(request, requestType, new DefaultResultFormater(prettyPrint));
+            ServiceResponse<?> serviceResponse = service.execute(serviceRequest);
+            if (httpSettings.getBoolean(CoreSettings.TAG_ETAG_ENABLE, CoreSettings.DEFAULT_ETAG_ENABLE)) {
+                checkEntityTag(request, serviceResponse);
+            }
+            sendResponse(serviceResponse, request, response, compression);
         } catch (Exception exc) {
             LOGGER.error("", exc);
-            sendResponse(new ServiceResponse(500, exc.getMessage()), response);
+            sendResponse(new ServiceResponse(500, exc.getMessage()), request, response, compression);
         }
     }
 
-    private ServiceRequest serviceRequestFromHttpRequest(HttpServletRequest request, RequestType requestType) throws IOException {
+    /**
+     * Tag successful GET responses that have no entity tag yet with a hash of
+     * their content, and replace them with a 304 if the client already has
+     * that content.
+     */
+    private static void checkEntityTag(HttpServletRequest request, ServiceResponse<?> serviceResponse) {
+        if (!"GET".equals(request.getMethod())
+                || serviceResponse.getCode() != 200
+                || serviceResponse.getResultWriter() != null
+                || serviceResponse.getHeaders().containsKey("ETag")) {
+            return;
+        }
+        String result = serviceResponse.getResultFormatted();
+        if (result == null || result.isEmpty()) {
+            return;
+        }
+        String tag = EntityTagHelper.contentTag(result);
+        serviceResponse.addHeader("ETag", tag);
+        serviceResponse.addHeader("Cache-Control", "no-cache");
+        if (EntityTagHelper.matches(request.getHeader("If-None-Match"), tag)) {
+            serviceResponse.setCode(304);
+            serviceResponse.setResultFormatted(null);
+        }
+    }
+
+    /**
+     * Identify the client of the request, for read-your-writes: the
+     * authenticated user, or the remote address.
+     */
+    private static String clientIdFromHttpRequest(HttpServletRequest request) {
+        String user = request.getRemoteUser();
+        if (user != null) {
+            return user;
+        }
+        return request.getRemoteAddr();
+    }
+
+    private ServiceRequest serviceRequestFromHttpRequest(HttpServletRequest request, RequestType requestType, ResultFormatter formatter) throws IOException {
         // request.getPathInfo() is decoded, breaking urls that contain //
         // (ids that are urls)
         String requestURI = request.getRequestURI();
@@ -157,21 +234,45 @@ public class ServletV1P0 extends HttpServlet {
                 .withUrlQuery(request.getQueryString() != null
                         ? UrlHelper.urlDecode(request.getQueryString())
                         : null)
-                .withContent(readRequestData(request.getReader()))
+                .withContentReader(request.getReader())
+                .withFormatter(formatter)
+                .withIfNoneMatch(request.getHeader("If-None-Match"))
                 .build();
     }
 
-    private void sendResponse(ServiceResponse<?> serviceResponse, HttpServletResponse httpResponse) {
+    private void sendResponse(ServiceResponse<?> serviceResponse, HttpServletRequest request, HttpServletResponse httpResponse, ResponseCompression compression) {
         httpResponse.setStatus(serviceResponse.getCode());
         serviceResponse.getHeaders().entrySet().forEach(x -> httpResponse.setHeader(x.getKey(), x.getValue()));
         try {
-            if (serviceResponse.getCode() >= 200
+            if (serviceResponse.isSuccessful() && serviceResponse.getResultWriter() != null) {
+                // The result is formatted while it is written. The size is
+                // unknown up front, so it is always compressed, if accepted.
+                httpResponse.setContentType("application/json");
+                httpResponse.setCharacterEncoding(ENCODING);
+                String encoding = compression == null ? null : compression.negotiate(request, httpResponse);
+                if (encoding == null) {
+                    serviceResponse.writeResult(httpResponse.getWriter());
+                } else {
+                    try (Writer out = compression.wrap(httpResponse, encoding)) {
+                        serviceResponse.writeResult(out);
+                    }
+                }
+
+            } else if (serviceResponse.getCode() >= 200
                     && serviceResponse.getCode() < 300
                     && serviceResponse.getResultFormatted() != null
                     && !serviceResponse.getResultFormatted().isEmpty()) {
                 httpResponse.setContentType("application/json");
                 httpResponse.setCharacterEncoding(ENCODING);
-                httpResponse.getWriter().write(serviceResponse.getResultFormatted());
+                String result = serviceResponse.getResultFormatted();
+                String encoding = compression == null ? null : compression.negotiate(request, httpResponse);
+                if (encoding == null || !compression.isAboveThreshold(result.length())) {
+                    httpResponse.getWriter().write(result);
+                } else {
+                    try (Writer out = compression.wrap(httpResponse, encoding)) {
+                        out.write(result);
+                    }
+                }
 
             } else if (serviceResponse.getMessage() != null
                     && !serviceResponse.getMessage().isEmpty()) {
@@ -225,8 +326,4 @@ public class ServletV1P0 extends HttpServlet {
         }
         super.service(request, response);
     }
-
-    private String readRequestData(BufferedReader reader) {
-        return reader.lines().collect(Collectors.joining("\n"));
-    }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common.multipart;
+
+import com.google.common.base.Strings;
+import de.fraunhofer.iosb.ilt.sta.service.RequestType;
+import de.fraunhofer.iosb.ilt.sta.service.Service;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes the top-level parts of a batch request one at a time, as they are
+ * parsed, and hands their responses to a consumer, in the order of the parts.
+ *
+ * If an executor is given, consecutive GET requests that are not in a
+ * changeset are run in parallel, each with its own Service. All other parts
+ * are run with the given Service, after the GET requests before them are
+ * finished. Responses of GET requests are handed on as soon as they and all
+ * responses before them are done.
+ *
+ * @author scf
+ */
+public class BatchPartProcessor implements Consumer<Part> {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchPartProcessor.class);
+
+    private final Service service;
+    private final ExecutorService executor;
+    private final Supplier<Service> serviceFactory;
+    private final Consumer<Part> responses;
+    private final Deque<Future<HttpContent>> running = new ArrayDeque<>();
+
+    /**
+     * @param service The service to run the parts with that are not run in
+     * parallel.
+     * @param executor The executor to run the GET requests on, or null to run
+     * all parts one after another.
+     * @param serviceFactory Creates the Service for each GET request run on
+     * the executor. Once a part has written data, the created Services must
+     * not read from a read replica.
+     * @param responses The consumer of the response parts.
+     */
+    public BatchPartProcessor(Service service, ExecutorService executor, Supplier<Service> serviceFactory, Consumer<Part> responses) {
+        this.service = service;
+        this.executor = executor;
+        this.serviceFactory = serviceFactory;
+        this.responses = responses;
+    }
+
+    @Override
+    public void accept(Part part) {
+        LOGGER.debug("Part: {}", part);
+        Content content = part.getContent();
+        if (executor != null && content instanceof HttpContent && isRead((HttpContent) content)) {
+            HttpContent httpContent = (HttpContent) content;
+            // Created here, so it sees the writes of the parts before it.
+            Service partService = serviceFactory.get();
+            running.add(executor.submit(() -> BatchProcessor.processHttpRequest(partService, httpContent, false)));
+            sendResponses(false);
+            return;
+        }
+        sendResponses(true);
+        Content response;
+        try {
+            if (content instanceof MixedContent) {
+                response = BatchProcessor.processChangeset(service, (MixedContent) content);
+            } else if (content instanceof HttpContent) {
+                response = BatchProcessor.processHttpRequest(service, (HttpContent) content, false);
+            } else {
+                LOGGER.warn("Invalid multipart-part type: {}", content == null ? null : content.getClass().getName());
+                return;
+            }
+        } catch (RuntimeException exc) {
+            response = failedResponse(exc);
+        }
+        responses.accept(new Part(false).setContent(response));
+    }
+
+    /**
+     * Wait for the GET requests that are still running, and hand on their
+     * responses. Must be called after the last part.
+     */
+    public void finish() {
+        sendResponses(true);
+    }
+
+    /**
+     * Hand on the responses of the running GET requests, in order, until the
+     * first one that is not done yet, or until all are handed on if wait is
+     * true.
+     */
+    private void sendResponses(boolean wait) {
+        while (!running.isEmpty() && (wait || running.peek().isDone())) {
+            Future<HttpContent> future = running.poll();
+            HttpContent httpResponse;
+            try {
+                httpResponse = future.get();
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                httpResponse = failedResponse(exc);
+            } catch (ExecutionException exc) {
+                httpResponse = failedResponse(exc.getCause());
+            }
+            responses.accept(new Part(false).setContent(httpResponse));
+        }
+    }
+
+    private static boolean isRead(HttpContent httpContent) {
+        if (httpContent.isParseFailed()) {
+            return false;
+        }
+        try {
+            RequestType type = httpContent.getRequestType();
+            return type == RequestType.READ || type == RequestType.GET_CAPABILITIES;
+        } catch (IllegalArgumentException exc) {
+            // Handled when the part is run.
+            return false;
+        }
+    }
+
+    private static HttpContent failedResponse(Throwable exc) {
+        HttpContent httpResponse = new HttpContent(false);
+        if (exc instanceof IllegalArgumentException) {
+            LOGGER.debug("Invalid batch part.", exc);
+            httpResponse.setStatusLine(Headers.generateStatusLine(HttpStatus.SC_BAD_REQUEST));
+        } else {
+            LOGGER.error("Failed to process batch part.", exc);
+            httpResponse.setStatusLine(Headers.generateStatusLine(HttpStatus.SC_INTERNAL_SERVER_ERROR));
+        }
+        httpResponse.setExecuteFailed(true);
+        if (!Strings.isNullOrEmpty(exc.getMessage())) {
+            httpResponse.addData(exc.getMessage());
+        }
+        return httpResponse;
+    }
+}
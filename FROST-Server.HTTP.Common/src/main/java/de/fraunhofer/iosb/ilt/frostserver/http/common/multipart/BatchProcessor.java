@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.frostserver.http.common.multipart;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.service.RequestType;
 import de.fraunhofer.iosb.ilt.sta.service.Service;
@@ -28,6 +29,9 @@ import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +51,28 @@ public class BatchProcessor {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BatchProcessor.class);
 
+    private static ExecutorService executor;
+
+    /**
+     * Get the executor that runs the GET parts of batch requests in parallel,
+     * creating it if needed. The executor is shared by all batch requests.
+     *
+     * @param threads The number of threads of the executor, if it has to be
+     * created.
+     * @return The executor, or null if threads is less than 1.
+     */
+    public static synchronized ExecutorService getExecutor(int threads) {
+        if (threads < 1) {
+            return null;
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("BatchProcessor-%d").setDaemon(true).build());
+            LOGGER.info("Running GET parts of batch requests with {} threads.", threads);
+        }
+        return executor;
+    }
+
     public static HttpContent processHttpRequest(Service service, HttpContent httpRequest, boolean inChangeSet) {
         RequestType type = httpRequest.getRequestType();
         ServiceRequest serviceRequest = new ServiceRequestBuilder()
@@ -132,22 +158,30 @@ public class BatchProcessor {
     }
 
     public static MixedContent processMultipartMixed(Service service, MixedContent multipartMixedData) {
+        return processMultipartMixed(service, multipartMixedData, null, null);
+    }
+
+    /**
+     * Process the parts of a batch request, as described in
+     * {@link BatchPartProcessor}.
+     *
+     * @param service The service to run the parts with that are not run in
+     * parallel.
+     * @param multipartMixedData The batch request.
+     * @param executor The executor to run the GET requests on, or null to run
+     * all parts one after another.
+     * @param serviceFactory Creates the Service for each GET request run on
+     * the executor. Once a part has written data, the created Services must
+     * not read from a read replica.
+     * @return The batch response.
+     */
+    public static MixedContent processMultipartMixed(Service service, MixedContent multipartMixedData, ExecutorService executor, Supplier<Service> serviceFactory) {
         MixedContent mixedResponse = new MixedContent(false);
+        BatchPartProcessor processor = new BatchPartProcessor(service, executor, serviceFactory, mixedResponse::addPart);
         for (Part part : multipartMixedData.getParts()) {
-            LOGGER.debug("Part: {}", part);
-            Content content = part.getContent();
-            if (content instanceof MixedContent) {
-                MixedContent changset = (MixedContent) content;
-                Content changesetResponse = processChangeset(service, changset);
-                mixedResponse.addPart(new Part(false).setContent(changesetResponse));
-            } else if (content instanceof HttpContent) {
-                HttpContent httpContent = (HttpContent) content;
-                HttpContent httpResponse = processHttpRequest(service, httpContent, false);
-                mixedResponse.addPart(new Part(false).setContent(httpResponse));
-            } else {
-                LOGGER.warn("Invalid multipart-part type: {}", content.getClass().getName());
-            }
+            processor.accept(part);
         }
+        processor.finish();
         return mixedResponse;
     }
 
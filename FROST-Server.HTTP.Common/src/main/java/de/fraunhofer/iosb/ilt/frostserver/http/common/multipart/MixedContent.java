@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
@@ -81,6 +82,8 @@ public class MixedContent implements Content {
     private State state = State.PREAMBLE;
     private IsFinished finished = IsFinished.UNFINISHED;
     private Part currentPart;
+    private Consumer<Part> partListener;
+    private int partCount = 0;
 
     public MixedContent(boolean isChangeSet) {
         this.isChangeSet = isChangeSet;
@@ -117,6 +120,19 @@ public class MixedContent implements Content {
         }
     }
 
+    /**
+     * Set a listener that is given each part as soon as it is parsed, so that
+     * it can be processed while the rest of the content is still being read.
+     * Parts given to the listener are not kept in the list of parts.
+     *
+     * @param partListener The listener, or null to keep the parts.
+     * @return this.
+     */
+    public MixedContent setPartListener(Consumer<Part> partListener) {
+        this.partListener = partListener;
+        return this;
+    }
+
     public MixedContent setBoundaryHeader(String boundaryHeader) {
         boundary = boundaryHeader;
         boundaryPart = "--" + boundaryHeader;
@@ -176,14 +192,14 @@ public class MixedContent implements Content {
         if (checkBoundary && boundaryPart.equals(line.trim())) {
             LOGGER.debug("{}Found new part", logIndent);
             currentPart.stripLastNewline();
-            parts.add(currentPart);
+            partParsed(currentPart);
             currentPart = new Part(isChangeSet).setLogIndent(logIndent + "  ");
             setState(State.PARTCONTENT);
 
         } else if (checkBoundary && boundaryEnd.equals(line.trim())) {
             LOGGER.debug("{}Found end of multipart content", logIndent);
             currentPart.stripLastNewline();
-            parts.add(currentPart);
+            partParsed(currentPart);
             currentPart = null;
             finishParsing();
 
@@ -191,7 +207,7 @@ public class MixedContent implements Content {
             currentPart.appendLine(line);
             if (currentPart.isFinished() == IsFinished.FINISHED) {
                 LOGGER.debug("{}Part declared done", logIndent);
-                parts.add(currentPart);
+                partParsed(currentPart);
                 currentPart = null;
                 setState(State.PARTDONE);
             }
@@ -211,16 +227,23 @@ public class MixedContent implements Content {
         }
     }
 
+    private void partParsed(Part part) {
+        partCount++;
+        if (part.getContent() != null && part.getContent().isParseFailed()) {
+            parseFailed = true;
+            errors.addAll(part.getContent().getErrors());
+        }
+        if (partListener == null) {
+            parts.add(part);
+        } else {
+            partListener.accept(part);
+        }
+    }
+
     private void finishParsing() {
         setState(State.EPILOGUE);
         finished = IsFinished.FINISHED;
-        for (Part part : parts) {
-            if (part.getContent().isParseFailed()) {
-                parseFailed = true;
-                errors.addAll(part.getContent().getErrors());
-            }
-        }
-        LOGGER.debug("{}Found {} parts", logIndent, parts.size());
+        LOGGER.debug("{}Found {} parts", logIndent, partCount);
     }
 
     @Override
@@ -294,12 +317,19 @@ public class MixedContent implements Content {
     }
 
     private void generateBoundary() {
+        setBoundaryHeader(createBoundary());
+    }
+
+    /**
+     * Create a new, random boundary.
+     *
+     * @return A new boundary.
+     */
+    public static String createBoundary() {
         StringBuilder retval = new StringBuilder();
         for (int i = 0; i < 40; i++) {
             retval.append(BOUNDARY_CHARS[RAND.nextInt(BOUNDARY_CHARS.length)]);
         }
-        boundary = retval.toString();
-        boundaryPart = "--" + boundary;
-        boundaryEnd = boundaryPart + "--";
+        return retval.toString();
     }
 }
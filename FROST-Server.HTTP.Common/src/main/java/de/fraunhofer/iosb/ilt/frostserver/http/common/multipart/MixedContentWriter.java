@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common.multipart;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes multipart/mixed content part by part, in the same format as
+ * {@link MixedContent#getContent(boolean)} without headers.
+ *
+ * Until {@link #setRequestRead()} is called, the parts are held back. Many
+ * clients, like HttpURLConnection, only start reading the response after they
+ * have sent the whole request. Sending responses while the request is still
+ * being read would fill the network buffers of such a client, and the server
+ * would block on writing while the client blocks on sending. Held parts are
+ * kept in memory up to a maximum size, beyond that they are moved to a
+ * temporary file. Once the request is read, the held parts are written, and
+ * each later part is flushed as soon as it is written.
+ *
+ * @author scf
+ */
+public class MixedContentWriter {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MixedContentWriter.class);
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final Writer out;
+    private final String boundaryPart;
+    private final long maxHeldSize;
+    private final File tempDir;
+    private boolean failed = false;
+    private boolean requestRead = false;
+    private final StringBuilder held = new StringBuilder();
+    private File heldFile;
+    private Writer heldFileWriter;
+
+    /**
+     * Create a writer that holds all parts in memory until the request is
+     * read.
+     *
+     * @param out The writer to write to.
+     * @param boundary The boundary to separate the parts with.
+     */
+    public MixedContentWriter(Writer out, String boundary) {
+        this(out, boundary, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @param out The writer to write to.
+     * @param boundary The boundary to separate the parts with.
+     * @param maxHeldSize The maximum number of characters to hold in memory
+     * until the request is read.
+     * @param tempDir The directory for the file that holds the parts that do
+     * not fit in memory, or null for the default temporary directory.
+     */
+    public MixedContentWriter(Writer out, String boundary, long maxHeldSize, File tempDir) {
+        this.out = out;
+        this.boundaryPart = "--" + boundary;
+        this.maxHeldSize = maxHeldSize;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Write the given part, or hold it if the request is not read completely
+     * yet. After a write failed, for instance because the client went away,
+     * nothing is written anymore.
+     *
+     * @param part The part to write.
+     */
+    public void writePart(Part part) {
+        write('\n' + boundaryPart + '\n' + part.getContent().getContent(true));
+    }
+
+    /**
+     * Mark that the request has been read completely. The parts held until now
+     * are written, and later parts are written directly.
+     */
+    public void setRequestRead() {
+        if (requestRead) {
+            return;
+        }
+        requestRead = true;
+        if (failed) {
+            close();
+            return;
+        }
+        try {
+            if (heldFile != null) {
+                heldFileWriter.close();
+                heldFileWriter = null;
+                copyHeldFile();
+            }
+            out.write(held.toString());
+            out.flush();
+        } catch (IOException exc) {
+            LOGGER.error("Error writing HTTP result", exc);
+            failed = true;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Write the end of the multipart content. Implies
+     * {@link #setRequestRead()}.
+     */
+    public void finish() {
+        setRequestRead();
+        write('\n' + boundaryPart + "--");
+    }
+
+    /**
+     * Drop the held parts, and remove the temporary file, if there is one.
+     * Must be called if {@link #finish()} is not reached.
+     */
+    public void close() {
+        held.setLength(0);
+        if (heldFileWriter != null) {
+            try {
+                heldFileWriter.close();
+            } catch (IOException exc) {
+                LOGGER.debug("Failed to close temporary file.", exc);
+            }
+            heldFileWriter = null;
+        }
+        if (heldFile != null) {
+            if (!heldFile.delete()) {
+                LOGGER.warn("Failed to delete temporary file {}.", heldFile);
+            }
+            heldFile = null;
+        }
+    }
+
+    /**
+     * Check if writing failed.
+     *
+     * @return true if a write failed.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private void write(String data) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (requestRead) {
+                out.write(data);
+                out.flush();
+            } else {
+                hold(data);
+            }
+        } catch (IOException exc) {
+            LOGGER.error("Error writing HTTP result", exc);
+            failed = true;
+        }
+    }
+
+    private void hold(String data) throws IOException {
+        if (heldFileWriter != null) {
+            heldFileWriter.write(data);
+            return;
+        }
+        held.append(data);
+        if (held.length() > maxHeldSize) {
+            heldFile = File.createTempFile("batch", ".tmp", tempDir);
+            LOGGER.debug("Holding batch response in {}.", heldFile);
+            heldFileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(heldFile), StandardCharsets.UTF_8));
+            heldFileWriter.write(held.toString());
+            held.setLength(0);
+        }
+    }
+
+    private void copyHeldFile() throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(heldFile), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common.multipart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class MixedContentWriterTest {
+
+    @Test
+    public void testHoldUntilRequestRead() {
+        FlushWriter target = new FlushWriter();
+        MixedContentWriter out = new MixedContentWriter(target, "b");
+
+        // Parts done while the request is being read are not sent yet.
+        out.writePart(createPart("first"));
+        out.writePart(createPart("second"));
+        Assert.assertEquals("", target.flushed);
+
+        out.setRequestRead();
+        Assert.assertEquals("\n--b\nfirst\n--b\nsecond", target.flushed);
+
+        // Parts done after the request is read are sent directly.
+        out.writePart(createPart("third"));
+        Assert.assertEquals("\n--b\nfirst\n--b\nsecond\n--b\nthird", target.flushed);
+
+        out.finish();
+        Assert.assertEquals("\n--b\nfirst\n--b\nsecond\n--b\nthird\n--b--", target.flushed);
+        Assert.assertFalse(out.isFailed());
+    }
+
+    @Test
+    public void testFinishWritesHeldParts() {
+        FlushWriter target = new FlushWriter();
+        MixedContentWriter out = new MixedContentWriter(target, "b");
+        out.writePart(createPart("first"));
+        out.finish();
+        Assert.assertEquals("\n--b\nfirst\n--b--", target.flushed);
+    }
+
+    @Test
+    public void testHoldInFile() throws IOException {
+        File tempDir = Files.createTempDirectory("MixedContentWriterTest").toFile();
+        try {
+            FlushWriter target = new FlushWriter();
+            MixedContentWriter out = new MixedContentWriter(target, "b", 10, tempDir);
+            out.writePart(createPart("first"));
+            Assert.assertEquals(0, tempDir.list().length);
+            // Over the maximum, the held parts move to a file.
+            out.writePart(createPart("second"));
+            out.writePart(createPart("third"));
+            Assert.assertEquals(1, tempDir.list().length);
+            Assert.assertEquals("", target.flushed);
+
+            out.setRequestRead();
+            Assert.assertEquals("\n--b\nfirst\n--b\nsecond\n--b\nthird", target.flushed);
+            Assert.assertEquals(0, tempDir.list().length);
+
+            out.finish();
+            Assert.assertEquals("\n--b\nfirst\n--b\nsecond\n--b\nthird\n--b--", target.flushed);
+        } finally {
+            for (File file : tempDir.listFiles()) {
+                file.delete();
+            }
+            tempDir.delete();
+        }
+    }
+
+    @Test
+    public void testCloseRemovesFile() throws IOException {
+        File tempDir = Files.createTempDirectory("MixedContentWriterTest").toFile();
+        try {
+            FlushWriter target = new FlushWriter();
+            MixedContentWriter out = new MixedContentWriter(target, "b", 1, tempDir);
+            out.writePart(createPart("first"));
+            Assert.assertEquals(1, tempDir.list().length);
+            out.close();
+            Assert.assertEquals(0, tempDir.list().length);
+            Assert.assertEquals("", target.flushed);
+        } finally {
+            tempDir.delete();
+        }
+    }
+
+    private static Part createPart(String data) {
+        StringContent content = new StringContent();
+        content.setContent(new StringBuilder(data));
+        return new Part(false).setContent(content);
+    }
+
+    /**
+     * Keeps track of the data that was flushed.
+     */
+    private static class FlushWriter extends StringWriter {
+
+        private String flushed = "";
+
+        @Override
+        public void flush() {
+            super.flush();
+            flushed = toString();
+        }
+    }
+
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.JoinFlag;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ConstantImpl;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.QTuple;
+import com.querydsl.core.types.dsl.ComparableExpressionBase;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.sql.SQLExpressions;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.WindowFunction;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.sta.model.core.NavigableElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.factories.EntityFactory;
+import de.fraunhofer.iosb.ilt.sta.query.Expand;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
+import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the entities of an $expand for a set of parent entities together. Each
+ * expanded navigation property costs one query for all parents, instead of
+ * one query per parent. For entity sets, the $top and $skip of the expand are
+ * applied per parent, using a dense_rank() window over the children of each
+ * parent.
+ *
+ * With the LATERAL expand strategy, entity sets are loaded with a lateral join
+ * over the ids of the parents instead. The $orderby, $skip and $top are then
+ * applied in the query for each parent, so that for instance the latest
+ * Observation of each Datastream only reads one Observation per Datastream
+ * from the index, instead of ranking all Observations of the Datastreams.
+ *
+ * The latest Observation of Datastreams and MultiDatastreams, with
+ * {@code $top=1;$orderby=phenomenonTime desc}, is taken from the
+ * {@link LatestObservationCache} when it is enabled.
+ *
+ * @author scf
+ */
+public class BatchedExpander {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchedExpander.class);
+    private static final String ALIAS_SUBQUERY = "expanded";
+    private static final String ALIAS_COLUMN_PREFIX = "c";
+    private static final String ALIAS_RANK = "parentrank";
+    private static final String ALIAS_PARENTS = "parents";
+    private static final String ALIAS_PARENT_ID = "id";
+    /**
+     * The maximum number of parents to load the children of in one query,
+     * leaving room for the parameters of the $filter.
+     */
+    private static final int MAX_PARENTS_PER_QUERY = 10000;
+
+    private final PostgresPersistenceManager pm;
+    private final String serviceRootUrl;
+
+    /**
+     * @param pm The persistence manager.
+     * @param serviceRootUrl The service root url, used to generate nextLinks.
+     */
+    public BatchedExpander(PostgresPersistenceManager pm, String serviceRootUrl) {
+        this.pm = pm;
+        this.serviceRootUrl = serviceRootUrl;
+    }
+
+    /**
+     * Expand the given entities with the expands of the given query. All given
+     * entities must be of the same type.
+     *
+     * @param entities The entities to expand.
+     * @param query The query holding the expands.
+     */
+    public void expand(Collection<? extends Entity> entities, Query query) {
+        if (query == null || entities.isEmpty()) {
+            return;
+        }
+        for (Expand expand : query.getExpand()) {
+            expand(entities, expand, query);
+        }
+    }
+
+    private void expand(Collection<? extends Entity> entities, Expand expand, Query query) {
+        NavigationProperty firstNp = expand.getPath().get(0);
+        Query subQuery = EntityCreator.createSubQuery(expand, query);
+        List<Entity> toLoad = new ArrayList<>();
+        List<Entity> existing = new ArrayList<>();
+        for (Entity entity : entities) {
+            Object o = entity.getProperty(firstNp);
+            if (!(o instanceof NavigableElement) || !((NavigableElement) o).isExportObject()) {
+                toLoad.add(entity);
+            } else if (o instanceof EntitySet) {
+                for (Object subEntity : (EntitySet) o) {
+                    if (subEntity instanceof Entity) {
+                        existing.add((Entity) subEntity);
+                    }
+                }
+            } else if (o instanceof Entity) {
+                existing.add((Entity) o);
+            }
+        }
+        expand(existing, subQuery);
+        if (toLoad.isEmpty()) {
+            return;
+        }
+        List<Entity> loaded = new ArrayList<>();
+        // Each parent id is a bind parameter, of which a statement can have
+        // at most 32767.
+        for (int start = 0; start < toLoad.size(); start += MAX_PARENTS_PER_QUERY) {
+            List<Entity> parents = toLoad.subList(start, Math.min(start + MAX_PARENTS_PER_QUERY, toLoad.size()));
+            if (firstNp.isSet) {
+                loaded.addAll(loadSets(parents, firstNp, subQuery));
+            } else {
+                loaded.addAll(loadEntities(parents, firstNp, subQuery));
+            }
+        }
+        expand(loaded, subQuery);
+    }
+
+    /**
+     * Loads the single entities of the given navigation property. The parents
+     * already hold the ids of these entities, so they are loaded by id.
+     *
+     * @return The loaded entities.
+     */
+    private List<Entity> loadEntities(List<Entity> parents, NavigationProperty np, Query subQuery) {
+        Map<Object, List<Entity>> parentsByChildId = new LinkedHashMap<>();
+        for (Entity parent : parents) {
+            Object child = parent.getProperty(np);
+            if (child instanceof Entity) {
+                Object childId = ((Entity) child).getId().getValue();
+                parentsByChildId.computeIfAbsent(childId, k -> new ArrayList<>()).add(parent);
+            }
+        }
+        if (parentsByChildId.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        ResourcePath ePath = new ResourcePath(serviceRootUrl, null);
+        ePath.addPathElement(new EntitySetPathElement(np.type, null), true, false);
+        PathSqlBuilderImp psb = new PathSqlBuilderImp(pm.getPropertyResolver());
+        SQLQuery<Tuple> sqlQuery = psb.buildForParents(ePath, subQuery, parentsByChildId.keySet(), pm.createQueryFactory(), pm.getCoreSettings().getPersistenceSettings());
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", sqlQuery.getSQL().getSQL());
+        }
+
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(np.type);
+        ComparableExpressionBase<?> idPath = psb.getParentIdPath();
+        List<Entity> loaded = new ArrayList<>();
+        for (Tuple tuple : sqlQuery.fetch()) {
+            List<Entity> childParents = parentsByChildId.remove(tuple.get(idPath));
+            if (childParents == null) {
+                // Already handled, the row was a duplicate.
+                continue;
+            }
+            for (Entity parent : childParents) {
+                Entity child = factory.create(tuple, subQuery, new DataSize());
+                parent.setProperty(np, child);
+                loaded.add(child);
+            }
+        }
+        // What is left was not found, for instance because of a filter.
+        for (List<Entity> childParents : parentsByChildId.values()) {
+            for (Entity parent : childParents) {
+                parent.setProperty(np, null);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Loads the entity sets of the given navigation property, for all parents
+     * in one query.
+     *
+     * @return The loaded entities.
+     */
+    private List<Entity> loadSets(List<Entity> parents, NavigationProperty np, Query subQuery) {
+        EntityType parentType = parents.get(0).getEntityType();
+        List<Entity> loaded = new ArrayList<>();
+        LatestObservationCache.Ticket latestTicket = null;
+        if (np.type == EntityType.OBSERVATION && LatestObservationCache.isStreamType(parentType) && LatestObservationCache.isLatestQuery(subQuery)) {
+            LatestObservationCache latestCache = pm.getLatestObservationCache();
+            if (latestCache != null) {
+                parents = setCachedLatest(latestCache, parents, np, subQuery, loaded);
+                if (parents.isEmpty()) {
+                    return loaded;
+                }
+                if (pm.isReadCacheable() && subQuery.getSelect().isEmpty()) {
+                    latestTicket = latestCache.ticket();
+                }
+            }
+        }
+        Map<Object, List<Entity>> parentsById = new LinkedHashMap<>();
+        for (Entity parent : parents) {
+            parentsById.computeIfAbsent(parent.getId().getValue(), k -> new ArrayList<>()).add(parent);
+        }
+
+        ResourcePath ePath = new ResourcePath(serviceRootUrl, null);
+        EntitySetPathElement parentSet = new EntitySetPathElement(parentType, null);
+        ePath.addPathElement(parentSet, false, false);
+        ePath.addPathElement(new EntitySetPathElement(np.type, parentSet), true, false);
+        SQLQueryFactory qf = pm.createQueryFactory();
+        PersistenceSettings settings = pm.getCoreSettings().getPersistenceSettings();
+        boolean lateral = pm.getExpandStrategy() == ExpandStrategy.LATERAL;
+
+        Map<Object, Long> counts = null;
+        SQLQuery<Tuple> sqlQuery = null;
+        ComparableExpressionBase<?> parentIdPath = null;
+        ComparableExpressionBase<?> childIdPath = null;
+        if (subQuery.isCountOrDefault() || !lateral) {
+            PathSqlBuilderImp psb = new PathSqlBuilderImp(pm.getPropertyResolver());
+            sqlQuery = psb.buildForParents(ePath, subQuery, parentsById.keySet(), qf, settings);
+            parentIdPath = psb.getParentIdPath();
+            childIdPath = psb.getMainIdPath();
+            if (subQuery.isCountOrDefault()) {
+                counts = countPerParent(sqlQuery, parentIdPath, childIdPath);
+            }
+        }
+
+        int top = subQuery.getTopOrDefault();
+        long skip = subQuery.getSkip(0);
+        Path<Object> alias = Expressions.path(Object.class, ALIAS_SUBQUERY);
+        List<Expression<?>> columns;
+        Expression<?>[] outerSelect;
+        SQLQuery<Tuple> outerQuery;
+        if (lateral) {
+            // The $orderby, $skip and $top are applied in the query for each
+            // parent. The rank only restores the ordering in the outer query.
+            Path<Object> parentsAlias = Expressions.path(Object.class, ALIAS_PARENTS);
+            PathSqlBuilderImp psb = new PathSqlBuilderImp(pm.getPropertyResolver());
+            sqlQuery = psb.buildForLateralParent(ePath, subQuery, Expressions.path(Object.class, parentsAlias, ALIAS_PARENT_ID), qf, settings);
+            childIdPath = psb.getMainIdPath();
+            columns = ((FactoryExpression<?>) sqlQuery.getMetadata().getProjection()).getArgs();
+            List<OrderSpecifier<?>> orders = sqlQuery.getMetadata().getOrderBy();
+            WindowFunction<Long> rank = SQLExpressions.denseRank().over()
+                    .orderBy(orders.toArray(new OrderSpecifier<?>[orders.size()]));
+            outerSelect = selectWithRank(sqlQuery, columns, rank, alias);
+            NumberPath<Long> rankPath = (NumberPath<Long>) outerSelect[columns.size()];
+            outerQuery = qf.select(outerSelect)
+                    .from(parentIdValues(parentsById.keySet()))
+                    .join(sqlQuery, alias).on(Expressions.booleanTemplate("true"))
+                    .addJoinFlag("lateral ", JoinFlag.Position.BEFORE_TARGET)
+                    .orderBy(rankPath.asc());
+        } else {
+            columns = ((FactoryExpression<?>) sqlQuery.getMetadata().getProjection()).getArgs();
+            // The ordering of the children moves into the window, the child id
+            // makes the rank unique for each child of a parent.
+            List<OrderSpecifier<?>> orders = new ArrayList<>(sqlQuery.getMetadata().getOrderBy());
+            orders.add(childIdPath.asc());
+            sqlQuery.getMetadata().clearOrderBy();
+            WindowFunction<Long> rank = SQLExpressions.denseRank().over()
+                    .partitionBy(parentIdPath)
+                    .orderBy(orders.toArray(new OrderSpecifier<?>[orders.size()]));
+            outerSelect = selectWithRank(sqlQuery, columns, rank, alias);
+            NumberPath<Long> rankPath = (NumberPath<Long>) outerSelect[columns.size()];
+            // Fetch one extra child per parent, to find out if there is a nextLink.
+            outerQuery = qf.select(outerSelect)
+                    .from(sqlQuery, alias)
+                    .where(rankPath.gt(skip).and(rankPath.loe(skip + top + 1)))
+                    .orderBy(rankPath.asc());
+        }
+        int parentIdIndex = columns.size() - 1;
+        QTuple projection = Projections.tuple(columns.toArray(new Expression<?>[columns.size()]));
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", outerQuery.getSQL().getSQL());
+        }
+
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(np.type);
+        long maxDataSize = pm.getCoreSettings().getDataSizeMax();
+        Map<Object, ChildSet> childSets = new HashMap<>();
+        for (Tuple row : outerQuery.fetch()) {
+            Object[] values = new Object[columns.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.get(outerSelect[i]);
+            }
+            ChildSet childSet = childSets.computeIfAbsent(values[parentIdIndex], k -> new ChildSet());
+            if (childSet.full) {
+                childSet.hasMore = true;
+                continue;
+            }
+            Tuple tuple = projection.newInstance(values);
+            if (childSet.first == null) {
+                childSet.first = tuple;
+            }
+            childSet.entities.add(factory.create(tuple, subQuery, childSet.size));
+            childSet.full = childSet.entities.size() >= top || childSet.size.getDataSize() > maxDataSize;
+        }
+
+        for (Map.Entry<Object, List<Entity>> entry : parentsById.entrySet()) {
+            ChildSet childSet = childSets.get(entry.getKey());
+            if (childSet == null) {
+                childSet = new ChildSet();
+            }
+            if (latestTicket != null) {
+                Object childId = childSet.first == null ? null : childSet.first.get(childIdPath);
+                latestTicket.store(parentType, entry.getKey(), new LatestObservationCache.Entry(childSet.first, childId, childSet.hasMore, null));
+            }
+            loaded.addAll(childSet.entities);
+            for (Entity parent : entry.getValue()) {
+                EntitySet entitySet = new EntitySetImpl(np.type);
+                entitySet.addAll(childSet.entities);
+                if (counts != null) {
+                    entitySet.setCount(counts.getOrDefault(entry.getKey(), 0L));
+                }
+                if (childSet.hasMore) {
+                    ResourcePath parentPath = pathForParent(parent, np);
+                    if (childSet.entities.size() < top) {
+                        // The loading was aborted, due to size constraints.
+                        entitySet.setNextLink(generateNextLink(parentPath, subQuery, childSet.entities.size()));
+                    } else {
+                        entitySet.setNextLink(UrlHelper.generateNextLink(parentPath, subQuery));
+                    }
+                }
+                parent.setProperty(np, entitySet);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Sets the latest Observation of the parents that are in the cache.
+     *
+     * @return The parents that are not in the cache.
+     */
+    private List<Entity> setCachedLatest(LatestObservationCache cache, List<Entity> parents, NavigationProperty np, Query subQuery, List<Entity> loaded) {
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(np.type);
+        List<Entity> notCached = new ArrayList<>();
+        for (Entity parent : parents) {
+            LatestObservationCache.Entry entry = cache.get(parent.getEntityType(), parent.getId().getValue());
+            if (entry == null) {
+                notCached.add(parent);
+                continue;
+            }
+            EntitySet entitySet = new EntitySetImpl(np.type);
+            if (entry.getRow() != null) {
+                Entity child = factory.create(entry.getRow(), subQuery, new DataSize());
+                entitySet.add(child);
+                loaded.add(child);
+            }
+            if (entry.isHasMore()) {
+                entitySet.setNextLink(UrlHelper.generateNextLink(pathForParent(parent, np), subQuery));
+            }
+            parent.setProperty(np, entitySet);
+        }
+        return notCached;
+    }
+
+    /**
+     * Selects the given columns and the given rank in the given query, under
+     * generated names.
+     *
+     * @return The expressions that select the columns and the rank, in that
+     * order, from the query under the given alias.
+     */
+    private static Expression<?>[] selectWithRank(SQLQuery<Tuple> sqlQuery, List<Expression<?>> columns, WindowFunction<Long> rank, Path<Object> alias) {
+        Expression<?>[] innerSelect = new Expression<?>[columns.size() + 1];
+        Expression<?>[] outerSelect = new Expression<?>[columns.size() + 1];
+        for (int i = 0; i < columns.size(); i++) {
+            Expression<?> column = columns.get(i);
+            String name = ALIAS_COLUMN_PREFIX + i;
+            innerSelect[i] = ExpressionUtils.as(column, name);
+            outerSelect[i] = Expressions.path(column.getType(), alias, name);
+        }
+        innerSelect[columns.size()] = ExpressionUtils.as(rank, ALIAS_RANK);
+        outerSelect[columns.size()] = Expressions.numberPath(Long.class, alias, ALIAS_RANK);
+        sqlQuery.select(innerSelect);
+        return outerSelect;
+    }
+
+    /**
+     * A VALUES list with the given parent ids, as a table with one column.
+     */
+    private static Expression<?> parentIdValues(Collection<Object> parentIds) {
+        StringBuilder template = new StringBuilder("(values ");
+        List<Object> args = new ArrayList<>();
+        for (Object parentId : parentIds) {
+            if (!args.isEmpty()) {
+                template.append(", ");
+            }
+            template.append("({").append(args.size()).append("})");
+            args.add(ConstantImpl.create(parentId));
+        }
+        template.append(") as ").append(ALIAS_PARENTS).append('(').append(ALIAS_PARENT_ID).append(')');
+        return Expressions.template(Object.class, template.toString(), args);
+    }
+
+    private Map<Object, Long> countPerParent(SQLQuery<Tuple> sqlQuery, ComparableExpressionBase<?> parentIdPath, ComparableExpressionBase<?> childIdPath) {
+        SQLQuery<Tuple> countQuery = sqlQuery.clone();
+        countQuery.getMetadata().clearOrderBy();
+        countQuery.select(parentIdPath, childIdPath.countDistinct()).groupBy(parentIdPath);
+        Map<Object, Long> counts = new HashMap<>();
+        for (Tuple tuple : countQuery.fetch()) {
+            counts.put(tuple.get(parentIdPath), tuple.get(1, Long.class));
+        }
+        return counts;
+    }
+
+    /**
+     * Generate a nextLink with the given $top. The subQuery is shared by all
+     * parents, so its own $top is restored afterwards.
+     */
+    private static String generateNextLink(ResourcePath path, Query subQuery, int top) {
+        Optional<Integer> oldTop = subQuery.getTop();
+        subQuery.setTop(top);
+        String nextLink = UrlHelper.generateNextLink(path, subQuery);
+        if (oldTop.isPresent()) {
+            subQuery.setTop(oldTop.get());
+        } else {
+            subQuery.clearTop();
+        }
+        return nextLink;
+    }
+
+    private ResourcePath pathForParent(Entity parent, NavigationProperty np) {
+        ResourcePath parentPath = new ResourcePath(serviceRootUrl, null);
+        EntitySetPathElement parentCollection = new EntitySetPathElement(parent.getEntityType(), null);
+        parentPath.addPathElement(parentCollection, false, false);
+        EntityPathElement parentElement = new EntityPathElement(parent.getId(), parent.getEntityType(), parentCollection);
+        parentPath.addPathElement(parentElement, false, true);
+        parentPath.addPathElement(new EntitySetPathElement(np.type, parentElement), true, false);
+        return parentPath;
+    }
+
+    /**
+     * The children loaded for one parent.
+     */
+    private static class ChildSet {
+
+        private final List<Entity> entities = new ArrayList<>();
+        private final DataSize size = new DataSize();
+        /**
+         * The row of the first child, to cache as the latest Observation.
+         */
+        private Tuple first;
+        private boolean full = false;
+        private boolean hasMore = false;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.Wildcard;
+import com.querydsl.sql.SQLBindings;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates the $count of an EntitySet, exactly or estimated, depending on
+ * the CountMode.
+ *
+ * Estimates are the number of rows the query planner expects the query to
+ * return, taken from the top node of the EXPLAIN output. For queries without a
+ * filter this is based on the table statistics (pg_class.reltuples), for
+ * filtered queries on the column statistics.
+ *
+ * @author scf
+ */
+public class CountExecutor {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CountExecutor.class);
+    private static final Pattern ROWS_PATTERN = Pattern.compile("rows=(\\d+)");
+
+    private CountExecutor() {
+        // Utility class, should not be instantiated.
+    }
+
+    /**
+     * Count the entities selected by the given query, and set the count on
+     * the given EntitySet.
+     *
+     * @param qFactory The query factory to use.
+     * @param countQuery The query selecting the primary keys of the entities
+     * to count. The query is changed.
+     * @param mode The count mode to use.
+     * @param threshold The threshold for the LIMIT_ESTIMATE count mode.
+     * @param entitySet The EntitySet to set the count on.
+     */
+    public static void count(SQLQueryFactory qFactory, SQLQuery<?> countQuery, CountMode mode, long threshold, EntitySet<?> entitySet) {
+        // The count is over all pages, and does not depend on the ordering.
+        countQuery.getMetadata().setModifiers(QueryModifiers.EMPTY);
+        countQuery.getMetadata().clearOrderBy();
+        long estimate;
+        switch (mode) {
+            case ESTIMATE:
+                estimate = estimate(qFactory, countQuery);
+                if (estimate >= 0) {
+                    entitySet.setCount(estimate);
+                    entitySet.setCountEstimated(true);
+                    return;
+                }
+                break;
+
+            case LIMIT_ESTIMATE:
+                SQLQuery<?> limited = countQuery.clone();
+                limited.limit(threshold + 1);
+                long count = qFactory.select(Wildcard.count)
+                        .from(limited, Expressions.path(Object.class, "counted"))
+                        .fetchOne();
+                if (count <= threshold) {
+                    entitySet.setCount(count);
+                    return;
+                }
+                estimate = estimate(qFactory, countQuery);
+                if (estimate >= 0) {
+                    // We know there are more than threshold entities.
+                    entitySet.setCount(Math.max(count, estimate));
+                    entitySet.setCountEstimated(true);
+                    return;
+                }
+                break;
+
+            case FULL:
+            default:
+                break;
+        }
+        entitySet.setCount(countQuery.fetchCount());
+    }
+
+    /**
+     * Get the row estimate of the query planner for the given query.
+     *
+     * @param qFactory The query factory to use.
+     * @param countQuery The query to get the estimate for.
+     * @return The estimate, or -1 if the query plan has no estimate.
+     */
+    private static long estimate(SQLQueryFactory qFactory, SQLQuery<?> countQuery) {
+        SQLBindings bindings = countQuery.getSQL();
+        String sql = "EXPLAIN " + bindings.getSQL();
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", sql);
+        }
+        try (PreparedStatement stmt = qFactory.getConnection().prepareStatement(sql)) {
+            ReturningExecutor.setParameters(qFactory.getConfiguration(), stmt, bindings);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    Matcher matcher = ROWS_PATTERN.matcher(rs.getString(1));
+                    if (matcher.find()) {
+                        return Long.parseLong(matcher.group(1));
+                    }
+                }
+            }
+        } catch (SQLException exc) {
+            throw qFactory.getConfiguration().translate(sql, bindings.getNullFriendlyBindings(), exc);
+        }
+        LOGGER.warn("Failed to find row estimate in query plan, counting exactly.");
+        return -1;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ways $count can be calculated.
+ *
+ * @author scf
+ */
+public enum CountMode {
+    /**
+     * Always count exactly.
+     */
+    FULL,
+    /**
+     * Always use the row estimate of the query planner. Fast, but can be far
+     * off, especially for queries with filters.
+     */
+    ESTIMATE,
+    /**
+     * Count exactly, up to a threshold. If there are more entities than the
+     * threshold, use the row estimate of the query planner.
+     */
+    LIMIT_ESTIMATE;
+
+    private static final Map<String, CountMode> ALIASES = new HashMap<>();
+
+    static {
+        for (CountMode type : CountMode.values()) {
+            ALIASES.put(type.name().toLowerCase(), type);
+            ALIASES.put(type.name().replace("_", "").toLowerCase(), type);
+        }
+    }
+
+    /**
+     * Find the mode with the given name. The name is case insensitive, and
+     * may be written without underscores.
+     *
+     * @param input The name of the mode.
+     * @return The mode, or null if there is no mode with the given name.
+     */
+    public static CountMode findType(String input) {
+        return ALIASES.get(input.toLowerCase());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ways the phenomenonTime, resultTime and observedArea of Datastreams are
+ * kept up to date when Observations are inserted.
+ *
+ * @author scf
+ */
+public enum DatastreamAggregation {
+    /**
+     * A database trigger updates the Datastream for each inserted Observation.
+     * Always up to date, but concurrent inserts into the same Datastream wait
+     * for each others row lock.
+     */
+    TRIGGER,
+    /**
+     * The inserted Observations are collected in memory, and a background
+     * task updates the Datastreams and MultiDatastreams at a fixed interval.
+     * The Datastreams can lag behind by up to the interval.
+     */
+    DEFERRED;
+
+    private static final Map<String, DatastreamAggregation> ALIASES = new HashMap<>();
+
+    static {
+        for (DatastreamAggregation type : DatastreamAggregation.values()) {
+            ALIASES.put(type.name().toLowerCase(), type);
+        }
+    }
+
+    /**
+     * Find the mode with the given name. The name is case insensitive.
+     *
+     * @param input The name of the mode.
+     * @return The mode, or null if there is no mode with the given name.
+     */
+    public static DatastreamAggregation findType(String input) {
+        return ALIASES.get(input.toLowerCase());
+    }
+}
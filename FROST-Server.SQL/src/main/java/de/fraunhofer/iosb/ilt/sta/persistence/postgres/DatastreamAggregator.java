@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Folds the extents of inserted Observations into the phenomenonTime,
+ * resultTime and observedArea of their Datastreams and MultiDatastreams, at a
+ * fixed interval. Used instead of the insert trigger on the OBSERVATIONS
+ * table, when the DatastreamAggregation is DEFERRED.
+ *
+ * The extents are only kept in memory. Extents that are not folded yet when
+ * the server stops are lost.
+ *
+ * @author scf
+ */
+public class DatastreamAggregator {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatastreamAggregator.class);
+    private static final String INSERT_TRIGGER = "datastreams_actualization_insert";
+
+    private static DatastreamAggregator instance;
+    private static volatile boolean triggerChecked = false;
+
+    private final CoreSettings settings;
+    private final ScheduledExecutorService executor;
+    private DatastreamExtents pending = new DatastreamExtents();
+
+    private DatastreamAggregator(CoreSettings settings) {
+        this.settings = settings;
+        long interval = settings.getPersistenceSettings().getDatastreamAggregationInterval();
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("DatastreamAggregator-%d").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this::fold, interval, interval, TimeUnit.SECONDS);
+        LOGGER.info("Aggregating Datastreams every {} seconds.", interval);
+        if (settings.getHttpSettings().getBoolean(CoreSettings.TAG_ETAG_CHANGE_COUNTER, CoreSettings.DEFAULT_ETAG_CHANGE_COUNTER)) {
+            LOGGER.warn("The change counter does not see the deferred aggregation of Datastreams, using content based ETags instead.");
+        }
+    }
+
+    /**
+     * Get the aggregator, starting it if needed.
+     *
+     * @param settings The settings to use for starting the aggregator.
+     * @return The aggregator.
+     */
+    public static synchronized DatastreamAggregator getInstance(CoreSettings settings) {
+        if (instance == null) {
+            instance = new DatastreamAggregator(settings);
+        }
+        return instance;
+    }
+
+    /**
+     * Add the extents of committed Observation inserts, to be folded into
+     * their Datastreams with the next run.
+     *
+     * @param extents The extents to add.
+     */
+    public synchronized void addAll(DatastreamExtents extents) {
+        pending.addAll(extents);
+    }
+
+    private void fold() {
+        DatastreamExtents changes;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            changes = pending;
+            pending = new DatastreamExtents();
+        }
+        try (Connection connection = PostgresPersistenceManager.getConnection(settings)) {
+            try {
+                fold(connection, "DATASTREAMS", changes.getDatastreams());
+                fold(connection, "MULTI_DATASTREAMS", changes.getMultiDatastreams());
+                connection.commit();
+                LOGGER.debug("Aggregated {} Datastreams and {} MultiDatastreams.", changes.getDatastreams().size(), changes.getMultiDatastreams().size());
+            } catch (SQLException exc) {
+                connection.rollback();
+                throw exc;
+            }
+        } catch (SQLException | RuntimeException exc) {
+            LOGGER.error("Failed to aggregate Datastreams, retrying with the next run.", exc);
+            addAll(changes);
+        }
+    }
+
+    private static void fold(Connection connection, String table, Map<Object, DatastreamExtents.Extent> extents) throws SQLException {
+        for (Map.Entry<Object, DatastreamExtents.Extent> entry : extents.entrySet()) {
+            DatastreamExtents.Extent extent = entry.getValue();
+            int featureCount = extent.getFeatureIds().size();
+            StringBuilder sql = new StringBuilder("update \"").append(table).append("\" set")
+                    .append(" \"PHENOMENON_TIME_START\" = least(\"PHENOMENON_TIME_START\", ?),")
+                    .append(" \"PHENOMENON_TIME_END\" = greatest(\"PHENOMENON_TIME_END\", ?),")
+                    .append(" \"RESULT_TIME_START\" = least(\"RESULT_TIME_START\", ?),")
+                    .append(" \"RESULT_TIME_END\" = greatest(\"RESULT_TIME_END\", ?)");
+            if (featureCount > 0) {
+                sql.append(", \"OBSERVED_AREA\" = ST_ConvexHull(ST_Collect(\"OBSERVED_AREA\", (select ST_Collect(\"GEOM\") from \"FEATURES\" where \"ID\" in (?");
+                for (int i = 1; i < featureCount; i++) {
+                    sql.append(", ?");
+                }
+                sql.append("))))");
+            }
+            sql.append(" where \"ID\" = ?");
+            try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+                int idx = 1;
+                setTimestamp(stmt, idx++, extent.getPhenomenonTimeStart());
+                setTimestamp(stmt, idx++, extent.getPhenomenonTimeEnd());
+                setTimestamp(stmt, idx++, extent.getResultTimeStart());
+                setTimestamp(stmt, idx++, extent.getResultTimeEnd());
+                for (Object featureId : extent.getFeatureIds()) {
+                    stmt.setObject(idx++, featureId);
+                }
+                stmt.setObject(idx, entry.getKey());
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    private static void setTimestamp(PreparedStatement stmt, int idx, Timestamp value) throws SQLException {
+        if (value == null) {
+            stmt.setNull(idx, Types.TIMESTAMP);
+        } else {
+            stmt.setTimestamp(idx, value);
+        }
+    }
+
+    /**
+     * Make sure the insert trigger on the OBSERVATIONS table is disabled when
+     * aggregating deferred, and enabled otherwise. This is checked once, as
+     * soon as the trigger exists, and again after each database update, see
+     * {@link #recheckTrigger(CoreSettings, DatastreamAggregation)}. All servers
+     * using the same database must use the same mode, otherwise they keep
+     * toggling the trigger.
+     *
+     * @param settings The settings to use for connecting to the database.
+     * @param mode The aggregation mode in use.
+     */
+    public static void checkTrigger(CoreSettings settings, DatastreamAggregation mode) {
+        if (triggerChecked) {
+            return;
+        }
+        synchronized (DatastreamAggregator.class) {
+            if (triggerChecked) {
+                return;
+            }
+            try (Connection connection = PostgresPersistenceManager.getConnection(settings)) {
+                triggerChecked = checkTrigger(connection, mode);
+            } catch (SQLException exc) {
+                LOGGER.error("Failed to " + (mode == DatastreamAggregation.DEFERRED ? "disable" : "enable") + " trigger " + INSERT_TRIGGER + ".", exc);
+                triggerChecked = true;
+            }
+        }
+    }
+
+    /**
+     * Check the insert trigger again, after the database layout has been
+     * updated. Liquibase re-creates the trigger, enabled, when it runs the
+     * trigger script again.
+     *
+     * @param settings The settings to use for connecting to the database.
+     * @param mode The aggregation mode in use.
+     */
+    public static void recheckTrigger(CoreSettings settings, DatastreamAggregation mode) {
+        synchronized (DatastreamAggregator.class) {
+            triggerChecked = false;
+            checkTrigger(settings, mode);
+        }
+    }
+
+    private static boolean checkTrigger(Connection connection, DatastreamAggregation mode) throws SQLException {
+        String enabled = null;
+        String query = "select t.tgenabled from pg_trigger t join pg_class c on t.tgrelid = c.oid"
+                + " where c.relname = 'OBSERVATIONS' and t.tgname = '" + INSERT_TRIGGER + "'";
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery(query)) {
+            if (rs.next()) {
+                enabled = rs.getString(1);
+            }
+        }
+        connection.commit();
+        if (enabled == null) {
+            LOGGER.debug("Trigger {} does not exist (yet).", INSERT_TRIGGER);
+            return false;
+        }
+        boolean isDisabled = "D".equals(enabled);
+        boolean shouldDisable = mode == DatastreamAggregation.DEFERRED;
+        if (isDisabled != shouldDisable) {
+            String action = shouldDisable ? "disable" : "enable";
+            LOGGER.info("Changing trigger {} to {}d. All servers using this database must use the same datastreamAggregation.", INSERT_TRIGGER, action);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("alter table \"OBSERVATIONS\" " + action + " trigger " + INSERT_TRIGGER);
+            }
+            connection.commit();
+        }
+        return true;
+    }
+}
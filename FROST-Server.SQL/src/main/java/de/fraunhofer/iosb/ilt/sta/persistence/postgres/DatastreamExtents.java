@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The extents of inserted Observations, per Datastream and MultiDatastream,
+ * that still have to be folded into the Datastreams and MultiDatastreams.
+ *
+ * @author scf
+ */
+public class DatastreamExtents {
+
+    private final Map<Object, Extent> datastreams = new HashMap<>();
+    private final Map<Object, Extent> multiDatastreams = new HashMap<>();
+
+    /**
+     * Add an inserted Observation.
+     *
+     * @param datastreamId The id of the Datastream, or null.
+     * @param multiDatastreamId The id of the MultiDatastream, or null.
+     * @param phenomenonTimeStart The start of the phenomenonTime.
+     * @param phenomenonTimeEnd The end of the phenomenonTime, or null.
+     * @param resultTime The resultTime, or null.
+     * @param featureId The id of the FeatureOfInterest.
+     */
+    public void add(Object datastreamId, Object multiDatastreamId, Timestamp phenomenonTimeStart, Timestamp phenomenonTimeEnd, Timestamp resultTime, Object featureId) {
+        Extent extent;
+        if (datastreamId != null) {
+            extent = datastreams.computeIfAbsent(datastreamId, k -> new Extent());
+        } else if (multiDatastreamId != null) {
+            extent = multiDatastreams.computeIfAbsent(multiDatastreamId, k -> new Extent());
+        } else {
+            return;
+        }
+        Timestamp end = phenomenonTimeEnd == null ? phenomenonTimeStart : phenomenonTimeEnd;
+        extent.phenomenonTimeStart = min(extent.phenomenonTimeStart, phenomenonTimeStart);
+        extent.phenomenonTimeEnd = max(extent.phenomenonTimeEnd, end);
+        extent.resultTimeStart = min(extent.resultTimeStart, resultTime);
+        extent.resultTimeEnd = max(extent.resultTimeEnd, resultTime);
+        if (featureId != null) {
+            extent.featureIds.add(featureId);
+        }
+    }
+
+    /**
+     * Add all extents of the given extents to this one.
+     *
+     * @param other The extents to add.
+     */
+    public void addAll(DatastreamExtents other) {
+        merge(datastreams, other.datastreams);
+        merge(multiDatastreams, other.multiDatastreams);
+    }
+
+    private static void merge(Map<Object, Extent> target, Map<Object, Extent> source) {
+        for (Map.Entry<Object, Extent> entry : source.entrySet()) {
+            Extent extent = target.get(entry.getKey());
+            if (extent == null) {
+                target.put(entry.getKey(), entry.getValue().copy());
+            } else {
+                extent.add(entry.getValue());
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return datastreams.isEmpty() && multiDatastreams.isEmpty();
+    }
+
+    public void clear() {
+        datastreams.clear();
+        multiDatastreams.clear();
+    }
+
+    /**
+     * @return The extents per Datastream id.
+     */
+    public Map<Object, Extent> getDatastreams() {
+        return datastreams;
+    }
+
+    /**
+     * @return The extents per MultiDatastream id.
+     */
+    public Map<Object, Extent> getMultiDatastreams() {
+        return multiDatastreams;
+    }
+
+    private static Timestamp min(Timestamp a, Timestamp b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null || a.before(b)) {
+            return a;
+        }
+        return b;
+    }
+
+    private static Timestamp max(Timestamp a, Timestamp b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null || a.after(b)) {
+            return a;
+        }
+        return b;
+    }
+
+    /**
+     * The time range and the features of the Observations inserted into one
+     * Datastream or MultiDatastream.
+     */
+    public static class Extent {
+
+        private Timestamp phenomenonTimeStart;
+        private Timestamp phenomenonTimeEnd;
+        private Timestamp resultTimeStart;
+        private Timestamp resultTimeEnd;
+        private final Set<Object> featureIds = new HashSet<>();
+
+        private void add(Extent other) {
+            phenomenonTimeStart = min(phenomenonTimeStart, other.phenomenonTimeStart);
+            phenomenonTimeEnd = max(phenomenonTimeEnd, other.phenomenonTimeEnd);
+            resultTimeStart = min(resultTimeStart, other.resultTimeStart);
+            resultTimeEnd = max(resultTimeEnd, other.resultTimeEnd);
+            featureIds.addAll(other.featureIds);
+        }
+
+        private Extent copy() {
+            Extent copy = new Extent();
+            copy.add(this);
+            return copy;
+        }
+
+        public Timestamp getPhenomenonTimeStart() {
+            return phenomenonTimeStart;
+        }
+
+        public Timestamp getPhenomenonTimeEnd() {
+            return phenomenonTimeEnd;
+        }
+
+        public Timestamp getResultTimeStart() {
+            return resultTimeStart;
+        }
+
+        public Timestamp getResultTimeEnd() {
+            return resultTimeEnd;
+        }
+
+        public Set<Object> getFeatureIds() {
+            return featureIds;
+        }
+    }
+}
@@ -19,27 +19,45 @@ package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.mysema.commons.lang.CloseableIterator;
+import com.mysema.commons.lang.IteratorAdapter;
+import com.querydsl.core.QueryMetadata;
 import com.querydsl.core.Tuple;
+import com.querydsl.sql.SQLBaseListener;
+import com.querydsl.sql.SQLListenerContext;
 import com.querydsl.sql.SQLQuery;
+import de.fraunhofer.iosb.ilt.sta.formatter.DefaultResultFormater.VisibleComponents;
+import de.fraunhofer.iosb.ilt.sta.formatter.StreamingDataArray;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.sta.model.core.NavigableElement;
+import de.fraunhofer.iosb.ilt.sta.model.core.StreamingEntitySet;
 import de.fraunhofer.iosb.ilt.sta.path.CustomPropertyArrayIndex;
 import de.fraunhofer.iosb.ilt.sta.path.CustomPropertyPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.PropertyPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePathVisitor;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.factories.EntityFactory;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.factories.ObservationFactory;
 import de.fraunhofer.iosb.ilt.sta.query.Expand;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +75,12 @@ public class EntityCreator implements ResourcePathVisitor {
     private final ResourcePath path;
     private final Query query;
     private final SQLQuery<Tuple> sqlQuery;
+    /**
+     * The cached SQL to use instead of the sqlQuery, with the shape holding
+     * the parameter values.
+     */
+    private final SqlTemplate sqlTemplate;
+    private final QueryShape queryShape;
     private Object resultObject;
     /**
      * If resultObject is a property or sub-property, and we are not using
@@ -76,6 +100,26 @@ public class EntityCreator implements ResourcePathVisitor {
         this.path = path;
         this.query = query;
         this.sqlQuery = sqlQuery;
+        this.sqlTemplate = null;
+        this.queryShape = null;
+    }
+
+    /**
+     *
+     * @param pm The persistence manager.
+     * @param path The path leading to the items.
+     * @param query The query parameters to use when fetching expanded items.
+     * @param sqlTemplate The cached sql to use for fetching items.
+     * @param queryShape The shape of the request, with the parameter values
+     * for the sqlTemplate.
+     */
+    public EntityCreator(PostgresPersistenceManager pm, ResourcePath path, Query query, SqlTemplate sqlTemplate, QueryShape queryShape) {
+        this.pm = pm;
+        this.path = path;
+        this.query = query;
+        this.sqlQuery = null;
+        this.sqlTemplate = sqlTemplate;
+        this.queryShape = queryShape;
     }
 
     public Object getEntity() {
@@ -94,8 +138,13 @@ public class EntityCreator implements ResourcePathVisitor {
 
     @Override
     public void visit(EntityPathElement element) {
-        sqlQuery.limit(2);
-        List<Tuple> results = sqlQuery.fetch();
+        List<Tuple> results;
+        if (sqlTemplate == null) {
+            sqlQuery.limit(2);
+            results = sqlQuery.fetch();
+        } else {
+            results = sqlTemplate.fetch(pm.createQueryFactory(), queryShape, 2, 0);
+        }
         if (results.size() > 1) {
             throw new IllegalStateException("Expecting an element, yet more than 1 result. Got " + results.size() + " results.");
         }
@@ -110,10 +159,20 @@ public class EntityCreator implements ResourcePathVisitor {
         if (entity == null) {
             throw new IllegalStateException("Failed to create an entity from result set.");
         }
-        expandEntity(entity, query);
+        expandEntities(Collections.singletonList(entity), query);
         resultObject = entity;
     }
 
+    private void expandEntities(Collection<? extends Entity> entities, Query query) {
+        if (pm.getExpandStrategy() == ExpandStrategy.BATCHED || pm.getExpandStrategy() == ExpandStrategy.LATERAL) {
+            new BatchedExpander(pm, path.getServiceRootUrl()).expand(entities, query);
+            return;
+        }
+        for (Entity e : entities) {
+            expandEntity(e, query);
+        }
+    }
+
     private void expandEntity(Entity entity, Query query) {
         if (query == null) {
             return;
@@ -143,33 +202,46 @@ public class EntityCreator implements ResourcePathVisitor {
             ePath.addPathElement(child, true, false);
         }
         Object child;
+        Query subQuery = createSubQuery(expand, query1);
+        if (existing == null || !existing.isExportObject()) {
+            child = pm.get(ePath, subQuery);
+            entity.setProperty(firstNp, child);
+        } else if (existing instanceof EntitySet) {
+            expandEntitySet((EntitySet) existing, subQuery);
+        } else if (existing instanceof Entity) {
+            expandEntity((Entity) existing, subQuery);
+        }
+    }
+
+    /**
+     * Creates the query for the first navigation property of the given expand.
+     *
+     * @param expand The expand to create the query for.
+     * @param query The query that contains the expand.
+     * @return The query to use for the entities of the first navigation
+     * property of the expand.
+     */
+    static Query createSubQuery(Expand expand, Query query) {
         Query subQuery;
         if (expand.getPath().size() == 1) {
             // This was the last element in the expand path. The query is for this element.
             subQuery = expand.getSubQuery();
             if (subQuery == null) {
-                subQuery = new Query(query1.getSettings());
+                subQuery = new Query(query.getSettings());
             }
         } else {
             // This is not the last element in the expand path. The query is not for this element.
-            subQuery = new Query(query1.getSettings());
+            subQuery = new Query(query.getSettings());
             Expand subExpand = new Expand();
             subExpand.getPath().addAll(expand.getPath());
             subExpand.getPath().remove(0);
             subExpand.setSubQuery(expand.getSubQuery());
             subQuery.addExpand(subExpand);
-            if (query1.getCount().isPresent()) {
-                subQuery.setCount(query1.isCountOrDefault());
+            if (query.getCount().isPresent()) {
+                subQuery.setCount(query.isCountOrDefault());
             }
         }
-        if (existing == null || !existing.isExportObject()) {
-            child = pm.get(ePath, subQuery);
-            entity.setProperty(firstNp, child);
-        } else if (existing instanceof EntitySet) {
-            expandEntitySet((EntitySet) existing, subQuery);
-        } else if (existing instanceof Entity) {
-            expandEntity((Entity) existing, subQuery);
-        }
+        return subQuery;
     }
 
     private void expandEntitySet(EntitySet entitySet, Query subQuery) {
@@ -182,36 +254,62 @@ public class EntityCreator implements ResourcePathVisitor {
 
     @Override
     public void visit(EntitySetPathElement element) {
+        if (sqlTemplate == null && canStream()) {
+            streamEntitySet(element);
+            return;
+        }
+        if (sqlTemplate == null && canStreamDataArray(element)) {
+            streamDataArray((EntityPathElement) element.getParent());
+            return;
+        }
 
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
         int top = query.getTopOrDefault();
-        sqlQuery.limit(1l + top);
-
         int skip = query.getSkip(0);
-        sqlQuery.offset(skip);
+        SQLQuery<Tuple> countQuery = null;
+        QueryMetadata metadata;
+        CloseableIterator<Tuple> source;
 
         long start = System.currentTimeMillis();
-        if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("Query: {}", sqlQuery.getSQL().getSQL());
+        if (sqlTemplate == null) {
+            sqlQuery.limit(1l + top);
+            sqlQuery.offset(skip);
+
+            if (query.isCountOrDefault()) {
+                // The count is over all pages, so without the continuation token.
+                countQuery = sqlQuery.clone();
+            }
+            String skipToken = query.getSkipToken();
+            if (skipToken != null) {
+                KeysetPagination.addToQuery(sqlQuery, skipToken, factory.getPrimaryKey());
+            }
+
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Query: {}", sqlQuery.getSQL().getSQL());
+            }
+            metadata = sqlQuery.getMetadata();
+            source = sqlQuery.iterate();
+        } else {
+            // Templates are never used for requests with $count or $skiptoken.
+            metadata = sqlTemplate.getMetadata();
+            source = new IteratorAdapter<>(sqlTemplate.fetch(pm.createQueryFactory(), queryShape, 1l + top, skip).iterator());
         }
-        CloseableIterator<Tuple> results = sqlQuery.iterate();
+        LastTupleIterator results = new LastTupleIterator(source);
         if (LOGGER.isDebugEnabled()) {
             long end = System.currentTimeMillis();
             LOGGER.debug("Query executed in {} ms.", end - start);
         }
 
-        EntityFactory factory;
-        factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
         EntitySet<? extends Entity> entitySet = pm.getEntityFactories().createSetFromTuples(factory, results, query, pm.getCoreSettings().getDataSizeMax());
 
         if (entitySet == null) {
             throw new IllegalStateException("Empty set!");
         }
 
-        if (query.isCountOrDefault()) {
-            SQLQuery<Tuple> countQuery = sqlQuery.clone();
+        if (countQuery != null) {
             countQuery.select(factory.getPrimaryKey());
-            int count = (int) countQuery.fetchCount();
-            entitySet.setCount(count);
+            long threshold = pm.getCoreSettings().getPersistenceSettings().getCountEstimateThreshold();
+            CountExecutor.count(pm.createQueryFactory(), countQuery, pm.getCountMode(), threshold, entitySet);
         }
 
         int entityCount = entitySet.size();
@@ -221,14 +319,116 @@ public class EntityCreator implements ResourcePathVisitor {
             query.setTop(entityCount);
         }
         if (hasMore) {
-            entitySet.setNextLink(UrlHelper.generateNextLink(path, query));
+            String nextToken = null;
+            if (pm.getCoreSettings().getPersistenceSettings().isKeysetPagination()) {
+                nextToken = KeysetPagination.createToken(metadata, results.getLast(), factory.getPrimaryKey());
+            }
+            if (nextToken == null) {
+                entitySet.setNextLink(UrlHelper.generateNextLink(path, query));
+            } else {
+                entitySet.setNextLink(UrlHelper.generateNextLink(path, query, nextToken));
+            }
         }
-        for (Entity e : entitySet) {
-            expandEntity(e, query);
+        expandEntities(entitySet, query);
+        resultObject = entitySet;
+    }
+
+    /**
+     * Entity sets can be streamed if the PM allows it, and the entities do not
+     * need any further loading or grouping after they are read.
+     */
+    private boolean canStream() {
+        return pm.isStreaming()
+                && query.getExpand().isEmpty()
+                && !"dataarray".equalsIgnoreCase(query.getFormat());
+    }
+
+    /**
+     * The Observations of a single Datastream or MultiDatastream can be
+     * streamed in the dataArray format, since they form a single group.
+     */
+    private boolean canStreamDataArray(EntitySetPathElement element) {
+        if (!pm.isStreaming()
+                || !query.getExpand().isEmpty()
+                || !"dataarray".equalsIgnoreCase(query.getFormat())
+                || element.getEntityType() != EntityType.OBSERVATION
+                || !(element.getParent() instanceof EntityPathElement)) {
+            return false;
         }
+        EntityPathElement parent = (EntityPathElement) element.getParent();
+        return parent.getId() != null
+                && (parent.getEntityType() == EntityType.DATASTREAM || parent.getEntityType() == EntityType.MULTIDATASTREAM);
+    }
+
+    /**
+     * Creates an entity set that reads its entities from a database cursor,
+     * while it is written out. The size limit of the result does not apply,
+     * since the entities are not kept in memory.
+     */
+    private void streamEntitySet(EntitySetPathElement element) {
+        int top = query.getTopOrDefault();
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
+        StreamingEntitySet<Entity> entitySet = new StreamingEntitySet<>(element.getEntityType());
+        LastTupleIterator results = openStream(factory, entitySet);
+        DataSize size = new DataSize();
+        entitySet.setSource(new TupleStream<>(factory, results, sqlQuery.getMetadata(), entitySet, top,
+                tuple -> (Entity) factory.create(tuple, query, size)));
         resultObject = entitySet;
     }
 
+    /**
+     * Creates a dataArray that reads its rows from a database cursor, while
+     * it is written out. The rows are created directly from the tuples,
+     * without creating Observations.
+     *
+     * @param parent The Datastream or MultiDatastream of the Observations.
+     */
+    private void streamDataArray(EntityPathElement parent) {
+        int top = query.getTopOrDefault();
+        EntityFactories<?, ?> entityFactories = pm.getEntityFactories();
+        ObservationFactory<?, ?> factory = entityFactories.observationFactory;
+        VisibleComponents visComps = VisibleComponents.forQuery(query);
+        StreamingDataArray dataArray;
+        if (parent.getEntityType() == EntityType.DATASTREAM) {
+            dataArray = new StreamingDataArray(new Datastream(parent.getId()), visComps.getComponents());
+        } else {
+            dataArray = new StreamingDataArray(new MultiDatastream(parent.getId()), visComps.getComponents());
+        }
+        LastTupleIterator results = openStream(factory, dataArray);
+        dataArray.setRows(new TupleStream<>(factory, results, sqlQuery.getMetadata(), dataArray, top,
+                tuple -> factory.createDataArrayRow(tuple, visComps)));
+        resultObject = dataArray;
+    }
+
+    /**
+     * Counts the entities if requested, and opens the cursor of the query.
+     */
+    private LastTupleIterator openStream(EntityFactory factory, EntitySet<?> entitySet) {
+        int top = query.getTopOrDefault();
+        int skip = query.getSkip(0);
+        sqlQuery.limit(1l + top);
+        sqlQuery.offset(skip);
+        if (query.isCountOrDefault()) {
+            // Counted before the cursor is opened. The count is over all pages,
+            // so without the continuation token.
+            SQLQuery<Tuple> countQuery = sqlQuery.clone();
+            countQuery.select(factory.getPrimaryKey());
+            long threshold = pm.getCoreSettings().getPersistenceSettings().getCountEstimateThreshold();
+            CountExecutor.count(pm.createQueryFactory(), countQuery, pm.getCountMode(), threshold, entitySet);
+        }
+        String skipToken = query.getSkipToken();
+        if (skipToken != null) {
+            KeysetPagination.addToQuery(sqlQuery, skipToken, factory.getPrimaryKey());
+        }
+
+        int fetchSize = pm.getCoreSettings().getPersistenceSettings().getStreamingFetchSize();
+        sqlQuery.addListener(new FetchSizeListener(fetchSize));
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Streaming query: {}", sqlQuery.getSQL().getSQL());
+        }
+        return new LastTupleIterator(sqlQuery.iterate());
+    }
+
     @Override
     public void visit(PropertyPathElement element) {
         element.getParent().visit(this);
@@ -292,4 +492,133 @@ public class EntityCreator implements ResourcePathVisitor {
         entityName = null;
     }
 
+
+    /**
+     * Creates the items of a streamed entity set from the rows of the cursor.
+     * Sets the nextLink of the set and closes the cursor after the last item.
+     *
+     * @param <T> The type of the items.
+     */
+    private class TupleStream<T> implements Iterator<T> {
+
+        private final EntityFactory factory;
+        private final LastTupleIterator results;
+        private final QueryMetadata metadata;
+        private final EntitySet<? extends Entity> entitySet;
+        private final int top;
+        private final Function<Tuple, T> creator;
+        private int count = 0;
+        private boolean done = false;
+
+        public TupleStream(EntityFactory factory, LastTupleIterator results, QueryMetadata metadata, EntitySet<? extends Entity> entitySet, int top, Function<Tuple, T> creator) {
+            this.factory = factory;
+            this.results = results;
+            this.metadata = metadata;
+            this.entitySet = entitySet;
+            this.top = top;
+            this.creator = creator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (done) {
+                return false;
+            }
+            if (count < top && results.hasNext()) {
+                return true;
+            }
+            finish();
+            return false;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            count++;
+            return creator.apply(results.next());
+        }
+
+        private void finish() {
+            done = true;
+            if (results.hasNext()) {
+                String nextToken = null;
+                if (pm.getCoreSettings().getPersistenceSettings().isKeysetPagination()) {
+                    nextToken = KeysetPagination.createToken(metadata, results.getLast(), factory.getPrimaryKey());
+                }
+                if (nextToken == null) {
+                    entitySet.setNextLink(UrlHelper.generateNextLink(path, query));
+                } else {
+                    entitySet.setNextLink(UrlHelper.generateNextLink(path, query, nextToken));
+                }
+            }
+            results.close();
+        }
+    }
+
+    /**
+     * Sets the fetch size on the statement of a query, so the database returns
+     * the rows in batches through a cursor, instead of all at once. Only works
+     * when the connection is not in auto-commit mode.
+     */
+    private static class FetchSizeListener extends SQLBaseListener {
+
+        private final int fetchSize;
+
+        public FetchSizeListener(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public void preExecute(SQLListenerContext context) {
+            PreparedStatement stmt = context.getPreparedStatement();
+            if (stmt == null) {
+                return;
+            }
+            try {
+                stmt.setFetchSize(fetchSize);
+            } catch (SQLException exc) {
+                LOGGER.warn("Failed to set fetch size: {}", exc.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Iterator that remembers the last tuple it returned.
+     */
+    private static class LastTupleIterator implements CloseableIterator<Tuple> {
+
+        private final CloseableIterator<Tuple> source;
+        private Tuple last;
+
+        public LastTupleIterator(CloseableIterator<Tuple> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+
+        @Override
+        public Tuple next() {
+            last = source.next();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            source.remove();
+        }
+
+        @Override
+        public void close() {
+            source.close();
+        }
+
+        public Tuple getLast() {
+            return last;
+        }
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least-recently-used cache of the ids of entities that are known to exist,
+ * by entity type. Entries expire after a fixed time. Shared by all
+ * persistence managers.
+ *
+ * The cache listens on the message bus. Since deletes cascade in the
+ * database, without messages for the cascaded entities, any delete other
+ * than that of an Observation clears the cache. The foreign keys in the
+ * database remain the final check for entities that are deleted by other
+ * means.
+ *
+ * @author scf
+ */
+public class EntityExistenceCache implements MessageListener {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityExistenceCache.class);
+    private static EntityExistenceCache instance;
+
+    private final long ttlMillis;
+    private final Map<EntityType, Map<Object, Long>> entries = new EnumMap<>(EntityType.class);
+    /**
+     * Incremented for each delete, so that ids found before the delete are not
+     * cached.
+     */
+    private long generation = 0;
+
+    /**
+     * Get the cache, creating it if needed.
+     *
+     * @param maxSize The maximum number of ids in the cache, per entity type.
+     * @param ttlSeconds The number of seconds an entry stays valid.
+     * @return The cache, or null if the size or ttl is 0 or less, or if the
+     * message bus is not available to keep the cache up to date.
+     */
+    public static synchronized EntityExistenceCache getInstance(int maxSize, long ttlSeconds) {
+        if (maxSize <= 0 || ttlSeconds <= 0) {
+            return null;
+        }
+        if (instance == null) {
+            EntityExistenceCache cache = new EntityExistenceCache(maxSize, ttlSeconds);
+            try {
+                MessageBusFactory.getMessageBus().addMessageListener(cache);
+            } catch (IllegalStateException exc) {
+                LOGGER.debug("Message bus not available (yet), not caching entity existence.");
+                return null;
+            }
+            instance = cache;
+        }
+        return instance;
+    }
+
+    private EntityExistenceCache(final int maxSize, long ttlSeconds) {
+        this.ttlMillis = ttlSeconds * 1000;
+        for (EntityType type : EntityType.values()) {
+            entries.put(type, new LinkedHashMap<Object, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+                    return size() > maxSize;
+                }
+            });
+        }
+    }
+
+    /**
+     * Check if the entity with the given type and id is known to exist.
+     *
+     * @param type The type of the entity.
+     * @param id The id of the entity.
+     * @return true if the entity is known to exist, false if it is not known.
+     */
+    public synchronized boolean exists(EntityType type, Object id) {
+        Map<Object, Long> ids = entries.get(type);
+        Long expires = ids.get(id);
+        if (expires == null) {
+            return false;
+        }
+        if (expires < System.currentTimeMillis()) {
+            ids.remove(id);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The current generation of the cache. Pass it to
+     * {@link #putAll(Map, long)} when adding the ids found after this call.
+     *
+     * @return The current generation of the cache.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Record that the entities with the given types and ids exist, unless a
+     * delete came in since the given generation. Only ids of committed
+     * entities may be added.
+     *
+     * @param ids The ids of the entities, by type.
+     * @param generation The generation of the cache at the time the first of
+     * the ids was found.
+     */
+    public synchronized void putAll(Map<EntityType, Set<Object>> ids, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        long expires = System.currentTimeMillis() + ttlMillis;
+        for (Map.Entry<EntityType, Set<Object>> entry : ids.entrySet()) {
+            Map<Object, Long> typeEntries = entries.get(entry.getKey());
+            for (Object id : entry.getValue()) {
+                typeEntries.put(id, expires);
+            }
+        }
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        if (message.getEventType() != EntityChangedMessage.Type.DELETE) {
+            return;
+        }
+        Entity entity = message.getEntity();
+        if (message.getEntityType() == EntityType.OBSERVATION && entity != null && entity.getId() != null) {
+            remove(EntityType.OBSERVATION, entity.getId().getValue());
+        } else {
+            clear();
+        }
+    }
+
+    private synchronized void remove(EntityType type, Object id) {
+        generation++;
+        entries.get(type).remove(id);
+    }
+
+    private synchronized void clear() {
+        generation++;
+        for (Map<Object, Long> ids : entries.values()) {
+            ids.clear();
+        }
+    }
+
+}
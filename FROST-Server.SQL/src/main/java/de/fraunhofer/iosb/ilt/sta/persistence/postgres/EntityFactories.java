@@ -74,6 +74,7 @@ import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQ
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQThingsLocations;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.QCollection;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import java.io.IOException;
@@ -294,6 +295,17 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
 
     public FeatureOfInterest generateFeatureOfInterest(PostgresPersistenceManager<I, J> pm, Id datastreamId, boolean isMultiDatastream) throws NoSuchEntityException, IncompleteEntityException {
         J dsId = (J) datastreamId.getValue();
+        FeatureOfInterestCache foiCache = pm.getFeatureOfInterestCache();
+        long cacheGeneration = 0;
+        if (foiCache != null) {
+            J cachedId = (J) foiCache.get(dsId, isMultiDatastream);
+            if (cachedId != null) {
+                FeatureOfInterest foi = new FeatureOfInterest();
+                foi.setId(idFromObject(cachedId));
+                return foi;
+            }
+            cacheGeneration = foiCache.getGeneration();
+        }
         SQLQueryFactory qf = pm.createQueryFactory();
         AbstractQLocations<? extends AbstractQLocations, I, J> ql = qCollection.qLocations;
         AbstractQThingsLocations<? extends AbstractQThingsLocations, I, J> qtl = qCollection.qThingsLocations;
@@ -338,6 +350,9 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
         if (genFoiId != null) {
             foi = new FeatureOfInterest();
             foi.setId(idFromObject(genFoiId));
+            if (foiCache != null) {
+                foiCache.put(dsId, isMultiDatastream, genFoiId, cacheGeneration);
+            }
         } else if (locationId != null) {
             query = qf.select(ql.getId(), ql.encodingType, ql.location)
                     .from(ql)
@@ -359,11 +374,28 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
                     .build();
             featureOfInterestFactory.insert(pm, foi);
             J foiId = (J) foi.getId().getValue();
-            qf.update(ql)
-                    .set(ql.getGenFoiId(), (J) foi.getId().getValue())
-                    .where(ql.getId().eq(locationId))
+            // Only link the foi if no concurrent request generated one first.
+            long updated = qf.update(ql)
+                    .set(ql.getGenFoiId(), foiId)
+                    .where(ql.getId().eq(locationId).and(ql.getGenFoiId().isNull()))
                     .execute();
-            LOGGER.debug("Generated foi {} from Location {}.", foiId, locationId);
+            if (updated == 0) {
+                AbstractQFeatures<? extends AbstractQFeatures, I, J> qfoi = qCollection.qFeatures;
+                qf.delete(qfoi).where(qfoi.getId().eq(foiId)).execute();
+                genFoiId = qf.select(ql.getGenFoiId())
+                        .from(ql)
+                        .where(ql.getId().eq(locationId))
+                        .fetchOne();
+                if (genFoiId == null) {
+                    throw new NoSuchEntityException("Can not generate foi for Thing, location " + locationId + " was removed.");
+                }
+                foi = new FeatureOfInterest();
+                foi.setId(idFromObject(genFoiId));
+                LOGGER.debug("Location {} already has generated foi {}.", locationId, genFoiId);
+            } else {
+                pm.setFoiGenerated();
+                LOGGER.debug("Generated foi {} from Location {}.", foiId, locationId);
+            }
         } else {
             // Can not generate foi from Thing with no locations.
             throw new NoSuchEntityException("Can not generate foi for Thing, all locations have an un supported encoding type.");
@@ -371,12 +403,28 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
         return foi;
     }
 
-    public <T extends StoreClause> void insertUserDefinedId(PostgresPersistenceManager<I, J> pm, T clause, Path idPath, Entity entity) throws IncompleteEntityException {
+    /**
+     * Sets the client supplied id of the entity in the clause, if the
+     * idGenerationMode allows client supplied ids.
+     *
+     * @param <T> The type of the clause.
+     * @param pm the persistenceManager
+     * @param clause The insert clause to add the id to.
+     * @param idPath The path to the id column.
+     * @param entity The entity that is inserted.
+     * @return true if the id was set in the clause, false if the database
+     * should generate the id.
+     * @throws IncompleteEntityException If a client supplied id is required,
+     * but the entity has no id.
+     */
+    public <T extends StoreClause> boolean insertUserDefinedId(PostgresPersistenceManager<I, J> pm, T clause, Path idPath, Entity entity) throws IncompleteEntityException {
         IdGenerationHandler idhandler = pm.createIdGenerationHanlder(entity);
         if (idhandler.useClientSuppliedId()) {
             idhandler.modifyClientSuppliedId();
             clause.set(idPath, (J) idhandler.getIdValue());
+            return true;
         }
+        return false;
     }
 
     /**
@@ -423,6 +471,11 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
             return false;
         }
         J id = (J) e.getId().getValue();
+        PersistenceSettings persistenceSettings = pm.getCoreSettings().getPersistenceSettings();
+        EntityExistenceCache existenceCache = EntityExistenceCache.getInstance(persistenceSettings.getExistenceCacheSize(), persistenceSettings.getExistenceCacheTtl());
+        if (existenceCache != null && existenceCache.exists(e.getEntityType(), id)) {
+            return true;
+        }
         SQLQueryFactory qFactory = pm.createQueryFactory();
         long count = 0;
         switch (e.getEntityType()) {
@@ -504,6 +557,9 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
         if (count > 1) {
             LOGGER.error("More than one instance of {} with id {}.", e.getEntityType(), id);
         }
+        if (count > 0 && existenceCache != null) {
+            pm.addExistingEntity(existenceCache, e.getEntityType(), id);
+        }
         return count > 0;
     }
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ways the entities of an $expand can be loaded.
+ *
+ * @author scf
+ */
+public enum ExpandStrategy {
+    /**
+     * One query for each expanded navigation property of each entity.
+     */
+    PER_ENTITY,
+    /**
+     * One query for each expanded navigation property of all entities of a
+     * page together.
+     */
+    BATCHED,
+    /**
+     * Like BATCHED, but entity sets are loaded with a lateral join over the
+     * parents, that applies the $orderby, $skip and $top for each parent
+     * separately. Only the children that are returned are read.
+     */
+    LATERAL;
+
+    private static final Map<String, ExpandStrategy> ALIASES = new HashMap<>();
+
+    static {
+        for (ExpandStrategy type : ExpandStrategy.values()) {
+            ALIASES.put(type.name().toLowerCase(), type);
+            ALIASES.put(type.name().replace("_", "").toLowerCase(), type);
+        }
+    }
+
+    /**
+     * Find the strategy with the given name. The name is case insensitive,
+     * and may be written without underscores.
+     *
+     * @param input The name of the strategy.
+     * @return The strategy, or null if there is no strategy with the given
+     * name.
+     */
+    public static ExpandStrategy findType(String input) {
+        return ALIASES.get(input.toLowerCase());
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least-recently-used cache of the ids of the FeaturesOfInterest generated
+ * from the Locations of Things, by the id of the Datastream or
+ * MultiDatastream. Shared by all persistence managers.
+ *
+ * The cache listens on the message bus, and forgets entries when Things,
+ * Locations, HistoricalLocations, (Multi)Datastreams or FeaturesOfInterest
+ * change.
+ *
+ * @author scf
+ */
+public class FeatureOfInterestCache implements MessageListener {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FeatureOfInterestCache.class);
+    private static FeatureOfInterestCache instance;
+
+    private final Map<Object, Object> datastreams;
+    private final Map<Object, Object> multiDatastreams;
+    /**
+     * Incremented with each invalidation, so that lookups that started before
+     * an invalidation do not store stale ids.
+     */
+    private long generation = 0;
+
+    /**
+     * Get the cache, creating it if needed.
+     *
+     * @param maxSize The maximum number of ids in the cache, per type.
+     * @return The cache, or null if the size is 0 or less, or if the message
+     * bus is not available to keep the cache up to date.
+     */
+    public static synchronized FeatureOfInterestCache getInstance(int maxSize) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        if (instance == null) {
+            FeatureOfInterestCache cache = new FeatureOfInterestCache(maxSize);
+            try {
+                MessageBusFactory.getMessageBus().addMessageListener(cache);
+            } catch (IllegalStateException exc) {
+                LOGGER.debug("Message bus not available (yet), not caching generated FeaturesOfInterest.");
+                return null;
+            }
+            instance = cache;
+        }
+        return instance;
+    }
+
+    private FeatureOfInterestCache(int maxSize) {
+        this.datastreams = createMap(maxSize);
+        this.multiDatastreams = createMap(maxSize);
+    }
+
+    private static Map<Object, Object> createMap(final int maxSize) {
+        return new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the generation of the cache, to pass to
+     * {@link #put(Object, boolean, Object, long)}.
+     *
+     * @return The current generation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the id of the generated FeatureOfInterest for the given
+     * (Multi)Datastream.
+     *
+     * @param datastreamId The id of the Datastream or MultiDatastream.
+     * @param isMultiDatastream Whether the id is of a MultiDatastream.
+     * @return The id of the FeatureOfInterest, or null if it is not cached.
+     */
+    public synchronized Object get(Object datastreamId, boolean isMultiDatastream) {
+        Object foiId = getMap(isMultiDatastream).get(datastreamId);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated foi cache {} for {}", foiId == null ? "miss" : "hit", datastreamId);
+        }
+        return foiId;
+    }
+
+    /**
+     * Store the id of the generated FeatureOfInterest for the given
+     * (Multi)Datastream, unless the cache was invalidated since the given
+     * generation.
+     *
+     * @param datastreamId The id of the Datastream or MultiDatastream.
+     * @param isMultiDatastream Whether the id is of a MultiDatastream.
+     * @param foiId The id of the FeatureOfInterest.
+     * @param lookupGeneration The generation of the cache from before the
+     * FeatureOfInterest was looked up.
+     */
+    public synchronized void put(Object datastreamId, boolean isMultiDatastream, Object foiId, long lookupGeneration) {
+        if (lookupGeneration == generation) {
+            getMap(isMultiDatastream).put(datastreamId, foiId);
+        }
+    }
+
+    private Map<Object, Object> getMap(boolean isMultiDatastream) {
+        return isMultiDatastream ? multiDatastreams : datastreams;
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        Entity entity = message.getEntity();
+        switch (message.getEntityType()) {
+            case DATASTREAM:
+                remove(datastreams, entity);
+                break;
+
+            case MULTIDATASTREAM:
+                remove(multiDatastreams, entity);
+                break;
+
+            case THING:
+            case LOCATION:
+            case HISTORICALLOCATION:
+                clear();
+                break;
+
+            case FEATUREOFINTEREST:
+                if (message.getEventType() != EntityChangedMessage.Type.CREATE) {
+                    clear();
+                }
+                break;
+
+            default:
+                // Does not influence the generated FeaturesOfInterest.
+        }
+    }
+
+    private synchronized void remove(Map<Object, Object> map, Entity entity) {
+        generation++;
+        if (entity == null || entity.getId() == null) {
+            map.clear();
+        } else {
+            map.remove(entity.getId().getValue());
+        }
+    }
+
+    private synchronized void clear() {
+        generation++;
+        datastreams.clear();
+        multiDatastreams.clear();
+    }
+
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.sql.SQLQuery;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keyset (seek) pagination. Instead of skipping the rows of the previous pages
+ * with OFFSET, the nextLink contains a $skiptoken with the values of the
+ * ORDER BY expressions of the last row of the page. The next page then selects
+ * the rows that sort after these values, which the database can find using an
+ * index, no matter how deep the page is.
+ *
+ * The token is only created if the last ORDER BY expression is the primary key
+ * of the entities, since only then the ordering is unique. Both ascending and
+ * descending orders are supported, with the PostgreSQL default null ordering:
+ * nulls sort as if they are larger than any other value. When all orders are
+ * descending, the rows are selected with a row comparison. Otherwise the
+ * predicate is expanded per ORDER BY expression, with a range bound on the
+ * first expression that the database can use with an index.
+ *
+ * @author scf
+ */
+public class KeysetPagination {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeysetPagination.class);
+    /**
+     * The prefix of all tokens, also identifying the token format. It starts
+     * with a letter, so the query parser never mistakes a token for a number.
+     */
+    private static final String TOKEN_PREFIX = "k1";
+    private static final String INVALID_TOKEN = "Invalid $skiptoken.";
+    /**
+     * The number of values is stored in one byte.
+     */
+    private static final int MAX_VALUES = 255;
+
+    private static final byte TYPE_NULL = 'z';
+    private static final byte TYPE_STRING = 's';
+    private static final byte TYPE_LONG = 'l';
+    private static final byte TYPE_INTEGER = 'i';
+    private static final byte TYPE_SHORT = 'h';
+    private static final byte TYPE_DOUBLE = 'd';
+    private static final byte TYPE_FLOAT = 'f';
+    private static final byte TYPE_DECIMAL = 'n';
+    private static final byte TYPE_BOOLEAN = 'b';
+    private static final byte TYPE_TIMESTAMP = 't';
+    private static final byte TYPE_UUID = 'u';
+
+    private KeysetPagination() {
+        // Utility class, should not be instantiated.
+    }
+
+    /**
+     * Restrict the given query to the rows that sort after the row the given
+     * token was created for.
+     *
+     * @param sqlQuery The query to restrict.
+     * @param skipToken The token created by
+     * {@link #createToken(QueryMetadata, Tuple, Expression)} for the last row of the
+     * previous page.
+     * @param primaryKey The primary key of the entities of the query, that is
+     * never null.
+     * @throws IllegalArgumentException If the token is not valid for the
+     * query.
+     */
+    public static void addToQuery(SQLQuery<Tuple> sqlQuery, String skipToken, Expression<?> primaryKey) {
+        List<OrderSpecifier<?>> orderBy = sqlQuery.getMetadata().getOrderBy();
+        Object[] values = decode(skipToken);
+        if (values.length != orderBy.size()) {
+            throw new IllegalArgumentException(INVALID_TOKEN + " It does not match the $orderby.");
+        }
+        for (int i = 0; i < values.length; i++) {
+            Class<?> type = orderBy.get(i).getTarget().getType();
+            if (values[i] != null && type != Object.class && !type.isInstance(values[i])) {
+                throw new IllegalArgumentException(INVALID_TOKEN + " It does not match the $orderby.");
+            }
+        }
+        Predicate rowCompare = createRowComparison(orderBy, values);
+        if (rowCompare != null) {
+            sqlQuery.where(rowCompare);
+            return;
+        }
+        Predicate bound = createLeadingBound(orderBy.get(0), values[0], primaryKey);
+        if (bound != null) {
+            sqlQuery.where(bound);
+        }
+        sqlQuery.where(createPredicate(orderBy, values, primaryKey));
+    }
+
+    /**
+     * Create a token for the given row, that can be used to continue after
+     * the row.
+     *
+     * @param metadata The metadata of the query the row was loaded with.
+     * @param lastRow The row to create the token for.
+     * @param primaryKey The primary key of the entities of the query.
+     * @return The token, or null if the ordering of the query is not suitable
+     * for keyset pagination.
+     */
+    public static String createToken(QueryMetadata metadata, Tuple lastRow, Expression<?> primaryKey) {
+        List<OrderSpecifier<?>> orderBy = metadata.getOrderBy();
+        if (orderBy.isEmpty() || !primaryKey.equals(orderBy.get(orderBy.size() - 1).getTarget())) {
+            LOGGER.debug("Query not ordered by primary key, can not use keyset pagination.");
+            return null;
+        }
+        Expression<?> projection = metadata.getProjection();
+        if (!(projection instanceof FactoryExpression)) {
+            return null;
+        }
+        List<Expression<?>> selected = ((FactoryExpression<?>) projection).getArgs();
+        Object[] values = new Object[orderBy.size()];
+        for (int i = 0; i < values.length; i++) {
+            Expression<?> target = orderBy.get(i).getTarget();
+            if (!selected.contains(target)) {
+                LOGGER.debug("Order expression {} not selected, can not use keyset pagination.", target);
+                return null;
+            }
+            values[i] = lastRow.get(target);
+        }
+        return encode(values);
+    }
+
+    /**
+     * Create a row comparison that selects the rows sorting after the given
+     * values, if all ordering directions are descending and no value is null.
+     * Nulls sort first in descending order, so rows with null values are
+     * never after the given values, and the row comparison, which is false for
+     * nulls, is exact. The database can use it as index condition on all
+     * columns.
+     *
+     * @param orderBy The ordering of the query.
+     * @param values The values of the ordering expressions of the last row.
+     * @return The predicate, or null if a row comparison can not be used.
+     */
+    private static Predicate createRowComparison(List<OrderSpecifier<?>> orderBy, Object[] values) {
+        Expression<?>[] targets = new Expression<?>[values.length];
+        Expression<?>[] constants = new Expression<?>[values.length];
+        for (int i = 0; i < values.length; i++) {
+            OrderSpecifier<?> orderSpec = orderBy.get(i);
+            if (orderSpec.getOrder() != Order.DESC || values[i] == null) {
+                return null;
+            }
+            targets[i] = orderSpec.getTarget();
+            constants[i] = Expressions.constant(values[i]);
+        }
+        if (values.length == 1) {
+            return Expressions.predicate(Ops.LT, targets[0], constants[0]);
+        }
+        return Expressions.booleanTemplate("({0}) < ({1})", Expressions.list(targets), Expressions.list(constants));
+    }
+
+    /**
+     * Create a range bound on the first ordering expression, that the
+     * database can use as index condition, since the expanded predicate of
+     * {@link #createPredicate(List, Object[], Expression)} is an OR that it
+     * can not use.
+     *
+     * @param orderSpec The first ordering of the query.
+     * @param value The value of the first ordering expression of the last row.
+     * @param primaryKey The primary key of the entities, that is never null.
+     * @return The bound, or null if there is no bound.
+     */
+    private static Predicate createLeadingBound(OrderSpecifier<?> orderSpec, Object value, Expression<?> primaryKey) {
+        Expression<?> target = orderSpec.getTarget();
+        if (orderSpec.getOrder() == Order.ASC) {
+            if (value == null) {
+                // Nulls come last, only nulls are left.
+                return Expressions.predicate(Ops.IS_NULL, target);
+            }
+            Predicate bound = Expressions.predicate(Ops.GOE, target, Expressions.constant(value));
+            if (primaryKey.equals(target)) {
+                return bound;
+            }
+            return ExpressionUtils.or(bound, Expressions.predicate(Ops.IS_NULL, target));
+        }
+        if (value == null) {
+            // Nulls come first, everything can come after.
+            return null;
+        }
+        // Nulls come first, so they are not after a value.
+        return Expressions.predicate(Ops.LOE, target, Expressions.constant(value));
+    }
+
+    /**
+     * Create the predicate that selects the rows sorting after the given
+     * values. For the ordering (a asc, b desc, id asc) and the values (x, y,
+     * z) this is: a after x, or a = x and b after y, or a = x and b = y and
+     * id after z.
+     *
+     * @param orderBy The ordering of the query.
+     * @param values The values of the ordering expressions of the last row.
+     * @param primaryKey The primary key of the entities, that is never null.
+     * @return The predicate.
+     */
+    private static Predicate createPredicate(List<OrderSpecifier<?>> orderBy, Object[] values, Expression<?> primaryKey) {
+        Predicate result = null;
+        Predicate equalSoFar = null;
+        for (int i = 0; i < values.length; i++) {
+            OrderSpecifier<?> orderSpec = orderBy.get(i);
+            Expression<?> target = orderSpec.getTarget();
+            Object value = values[i];
+            Predicate after = createAfter(target, orderSpec.getOrder(), value, !primaryKey.equals(target));
+            if (after != null) {
+                Predicate option = equalSoFar == null ? after : ExpressionUtils.and(equalSoFar, after);
+                result = result == null ? option : ExpressionUtils.or(result, option);
+            }
+            Predicate equal;
+            if (value == null) {
+                equal = Expressions.predicate(Ops.IS_NULL, target);
+            } else {
+                equal = Expressions.predicate(Ops.EQ, target, Expressions.constant(value));
+            }
+            equalSoFar = equalSoFar == null ? equal : ExpressionUtils.and(equalSoFar, equal);
+        }
+        if (result == null) {
+            throw new IllegalArgumentException(INVALID_TOKEN);
+        }
+        return result;
+    }
+
+    private static Predicate createAfter(Expression<?> target, Order order, Object value, boolean nullable) {
+        if (order == Order.ASC) {
+            if (value == null) {
+                // Nulls come last, nothing sorts after null.
+                return null;
+            }
+            Predicate greater = Expressions.predicate(Ops.GT, target, Expressions.constant(value));
+            if (!nullable) {
+                return greater;
+            }
+            return ExpressionUtils.or(greater, Expressions.predicate(Ops.IS_NULL, target));
+        }
+        if (value == null) {
+            // Nulls come first, everything else sorts after null.
+            return Expressions.predicate(Ops.IS_NOT_NULL, target);
+        }
+        return Expressions.predicate(Ops.LT, target, Expressions.constant(value));
+    }
+
+    private static String encode(Object[] values) {
+        if (values.length > MAX_VALUES) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(values.length);
+            for (Object value : values) {
+                if (!encodeValue(out, value)) {
+                    LOGGER.debug("Can not encode value of type {}, can not use keyset pagination.", value.getClass().getName());
+                    return null;
+                }
+            }
+        } catch (IOException exc) {
+            // Should never happen, we write to memory.
+            LOGGER.error("Failed to encode token.", exc);
+            return null;
+        }
+        return TOKEN_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    private static boolean encodeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof UUID) {
+            UUID uuid = (UUID) value;
+            out.writeByte(TYPE_UUID);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object[] decode(String skipToken) {
+        if (!skipToken.startsWith(TOKEN_PREFIX)) {
+            throw new IllegalArgumentException(INVALID_TOKEN);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                Base64.getUrlDecoder().decode(skipToken.substring(TOKEN_PREFIX.length()))))) {
+            Object[] values = new Object[in.readUnsignedByte()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = decodeValue(in);
+            }
+            if (in.available() > 0) {
+                throw new IllegalArgumentException(INVALID_TOKEN);
+            }
+            return values;
+        } catch (IOException | IllegalArgumentException exc) {
+            LOGGER.debug("Failed to decode token {}.", skipToken, exc);
+            throw new IllegalArgumentException(INVALID_TOKEN, exc);
+        }
+    }
+
+    private static Object decodeValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+
+            case TYPE_STRING:
+                return in.readUTF();
+
+            case TYPE_LONG:
+                return in.readLong();
+
+            case TYPE_INTEGER:
+                return in.readInt();
+
+            case TYPE_SHORT:
+                return in.readShort();
+
+            case TYPE_DOUBLE:
+                return in.readDouble();
+
+            case TYPE_FLOAT:
+                return in.readFloat();
+
+            case TYPE_DECIMAL:
+                return new BigDecimal(in.readUTF());
+
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+
+            case TYPE_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+
+            case TYPE_UUID:
+                return new UUID(in.readLong(), in.readLong());
+
+            default:
+                throw new IllegalArgumentException(INVALID_TOKEN);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.Tuple;
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.Property;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
+import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.sta.query.expression.Path;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least-recently-used cache of the latest Observation, by phenomenonTime, of
+ * Datastreams and MultiDatastreams. Answers requests for
+ * {@code $top=1&$orderby=phenomenonTime desc} on the Observations of a
+ * (Multi)Datastream, also in an $expand, without querying the database.
+ * Shared by all persistence managers.
+ *
+ * The cache holds the database row of the Observation. It listens on the
+ * message bus and drops the entry of a (Multi)Datastream when one of its
+ * Observations is created or updated, so that the next request reads the
+ * new latest Observation from the database. Since deletes cascade in the
+ * database, without messages for the cascaded entities, any delete clears
+ * the cache. Observations changed without messages, for instance directly
+ * in the database, are not seen.
+ *
+ * @author scf
+ */
+public class LatestObservationCache implements MessageListener {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(LatestObservationCache.class);
+    private static LatestObservationCache instance;
+
+    private final Map<EntityType, Map<Object, Entry>> entries = new EnumMap<>(EntityType.class);
+    /**
+     * Incremented for each change, so that rows read while a change came in
+     * are not cached.
+     */
+    private long generation = 0;
+
+    /**
+     * Get the cache, creating it if needed.
+     *
+     * @param maxSize The maximum number of Datastreams, and of
+     * MultiDatastreams in the cache.
+     * @return The cache, or null if the size is 0 or less, or if the message
+     * bus is not available to keep the cache up to date.
+     */
+    public static synchronized LatestObservationCache getInstance(int maxSize) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        if (instance == null) {
+            LatestObservationCache cache = new LatestObservationCache(maxSize);
+            try {
+                MessageBusFactory.getMessageBus().addMessageListener(cache);
+            } catch (IllegalStateException exc) {
+                LOGGER.debug("Message bus not available (yet), not caching latest Observations.");
+                return null;
+            }
+            instance = cache;
+        }
+        return instance;
+    }
+
+    private LatestObservationCache(final int maxSize) {
+        for (EntityType type : new EntityType[]{EntityType.DATASTREAM, EntityType.MULTIDATASTREAM}) {
+            entries.put(type, new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                    return size() > maxSize;
+                }
+            });
+        }
+    }
+
+    /**
+     * Check if the query only asks for the latest Observation: $top=1 and
+     * $orderby=phenomenonTime desc, without $filter, $skip, $count or
+     * $expand.
+     *
+     * @param query The query to check.
+     * @return true if the query can be answered from the cache.
+     */
+    public static boolean isLatestQuery(Query query) {
+        if (query == null) {
+            return false;
+        }
+        Optional<Integer> top = query.getTop();
+        if (!top.isPresent() || top.get() != 1) {
+            return false;
+        }
+        if (query.getFilter() != null
+                || query.getSkip(0) != 0
+                || query.getSkipToken() != null
+                || query.isCountOrDefault()
+                || !query.getExpand().isEmpty()
+                || query.getAggregation() != null) {
+            return false;
+        }
+        List<OrderBy> orderBy = query.getOrderBy();
+        if (orderBy.size() != 1 || orderBy.get(0).getType() != OrderBy.OrderType.DESCENDING) {
+            return false;
+        }
+        Expression expression = orderBy.get(0).getExpression();
+        if (!(expression instanceof Path)) {
+            return false;
+        }
+        List<Property> elements = ((Path) expression).getElements();
+        return elements.size() == 1 && elements.get(0) == EntityProperty.PHENOMENONTIME;
+    }
+
+    /**
+     * Find the Datastream or MultiDatastream of which the path asks for the
+     * Observations, like Datastreams(1)/Observations.
+     *
+     * @param path The path to check.
+     * @return The element of the (Multi)Datastream, or null if the path does
+     * not directly ask for the Observations of one (Multi)Datastream.
+     */
+    public static EntityPathElement findStream(ResourcePath path) {
+        ResourcePathElement last = path.getLastElement();
+        if (!(last instanceof EntitySetPathElement) || ((EntitySetPathElement) last).getEntityType() != EntityType.OBSERVATION) {
+            return null;
+        }
+        if (!(last.getParent() instanceof EntityPathElement)) {
+            return null;
+        }
+        EntityPathElement stream = (EntityPathElement) last.getParent();
+        if (stream.getId() == null || !isStreamType(stream.getEntityType())) {
+            return null;
+        }
+        // Longer paths, like Things(1)/Datastreams(2)/Observations, also
+        // check that the Datastream belongs to the Thing.
+        ResourcePathElement streamParent = stream.getParent();
+        if (streamParent != null && (!(streamParent instanceof EntitySetPathElement) || streamParent.getParent() != null)) {
+            return null;
+        }
+        return stream;
+    }
+
+    public static boolean isStreamType(EntityType type) {
+        return type == EntityType.DATASTREAM || type == EntityType.MULTIDATASTREAM;
+    }
+
+    /**
+     * Get the cached latest Observation of the given Datastream or
+     * MultiDatastream.
+     *
+     * @param type The type of the stream, Datastream or MultiDatastream.
+     * @param id The id of the stream.
+     * @return The entry, or null if it is not cached.
+     */
+    public synchronized Entry get(EntityType type, Object id) {
+        return entries.get(type).get(id);
+    }
+
+    /**
+     * Start reading latest Observations that can be cached. They are only
+     * cached if no change comes in between this call and storing them.
+     *
+     * @return The ticket to store the Observations with.
+     */
+    public synchronized Ticket ticket() {
+        return new Ticket(generation);
+    }
+
+    private synchronized void put(Ticket ticket, EntityType type, Object id, Entry entry) {
+        if (ticket.generation != generation) {
+            return;
+        }
+        entries.get(type).put(id, entry);
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        if (message.getEventType() == EntityChangedMessage.Type.DELETE) {
+            clear();
+            return;
+        }
+        if (message.getEntityType() != EntityType.OBSERVATION) {
+            return;
+        }
+        Entity entity = message.getEntity();
+        if (!(entity instanceof Observation)) {
+            clear();
+            return;
+        }
+        Observation observation = (Observation) entity;
+        Object datastreamId = idOf(observation.getDatastream());
+        Object multiDatastreamId = idOf(observation.getMultiDatastream());
+        if (datastreamId == null && multiDatastreamId == null) {
+            clear();
+            return;
+        }
+        Object observationId = null;
+        if (message.getEventType() == EntityChangedMessage.Type.UPDATE && observation.getId() != null) {
+            // The updated Observation may have been the latest of another stream.
+            observationId = observation.getId().getValue();
+        }
+        remove(datastreamId, multiDatastreamId, observationId);
+    }
+
+    private static Object idOf(Entity entity) {
+        if (entity == null || entity.getId() == null) {
+            return null;
+        }
+        return entity.getId().getValue();
+    }
+
+    private synchronized void remove(Object datastreamId, Object multiDatastreamId, Object observationId) {
+        generation++;
+        if (datastreamId != null) {
+            entries.get(EntityType.DATASTREAM).remove(datastreamId);
+        }
+        if (multiDatastreamId != null) {
+            entries.get(EntityType.MULTIDATASTREAM).remove(multiDatastreamId);
+        }
+        if (observationId == null) {
+            return;
+        }
+        for (Map<Object, Entry> typeEntries : entries.values()) {
+            Iterator<Entry> it = typeEntries.values().iterator();
+            while (it.hasNext()) {
+                if (Objects.equals(observationId, it.next().observationId)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private synchronized void clear() {
+        generation++;
+        for (Map<Object, Entry> typeEntries : entries.values()) {
+            typeEntries.clear();
+        }
+    }
+
+    /**
+     * The state of the cache at the start of a read.
+     */
+    public class Ticket {
+
+        private final long generation;
+
+        private Ticket(long generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * Cache the latest Observation of a stream, unless a change came in
+         * since the ticket was created.
+         *
+         * @param type The type of the stream, Datastream or MultiDatastream.
+         * @param id The id of the stream.
+         * @param entry The latest Observation of the stream.
+         */
+        public void store(EntityType type, Object id, Entry entry) {
+            put(this, type, id, entry);
+        }
+    }
+
+    /**
+     * The latest Observation of a stream.
+     */
+    public static class Entry {
+
+        private final Tuple row;
+        private final Object observationId;
+        private final boolean hasMore;
+        private final String nextToken;
+
+        /**
+         * @param row The row of the Observation, with all columns, or null if
+         * the stream has no Observations.
+         * @param observationId The id of the Observation.
+         * @param hasMore Whether the stream has more Observations.
+         * @param nextToken The keyset pagination token for the next page, or
+         * null to use $skip.
+         */
+        public Entry(Tuple row, Object observationId, boolean hasMore, String nextToken) {
+            this.row = row;
+            this.observationId = observationId;
+            this.hasMore = hasMore;
+            this.nextToken = nextToken;
+        }
+
+        public Tuple getRow() {
+            return row;
+        }
+
+        public boolean isHasMore() {
+            return hasMore;
+        }
+
+        public String getNextToken() {
+            return nextToken;
+        }
+    }
+}
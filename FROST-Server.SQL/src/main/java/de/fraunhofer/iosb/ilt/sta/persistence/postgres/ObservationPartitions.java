@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the monthly partitions of the Observations table ahead of time, when
+ * the Observations table is partitioned. The partitions are created by the
+ * create_observation_partitions function, installed by the
+ * partitionObservations Liquibase context. Observations in the default
+ * partition that belong to a new partition are moved into it.
+ *
+ * The partitions are checked on a background thread, once a day, so that
+ * requests never wait for the partition DDL.
+ *
+ * @author scf
+ */
+public class ObservationPartitions {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationPartitions.class);
+    /**
+     * The Liquibase context that partitions the Observations table.
+     */
+    public static final String LIQUIBASE_CONTEXT = "partitionObservations";
+    private static final long CHECK_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final long RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static ObservationPartitions instance;
+
+    private final CoreSettings settings;
+    private final ScheduledExecutorService executor;
+
+    private ObservationPartitions(CoreSettings settings) {
+        this.settings = settings;
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ObservationPartitions-%d").setDaemon(true).build());
+        executor.execute(this::run);
+    }
+
+    /**
+     * Start checking the partitions in the background, if not started yet.
+     *
+     * @param settings The settings to use for connecting to the database.
+     */
+    public static synchronized void start(CoreSettings settings) {
+        if (instance == null) {
+            instance = new ObservationPartitions(settings);
+        }
+    }
+
+    /**
+     * Check the partitions again soon, for instance after the database has
+     * been upgraded. Starts the background checks if needed.
+     *
+     * @param settings The settings to use for connecting to the database.
+     */
+    public static synchronized void recheck(CoreSettings settings) {
+        if (instance == null) {
+            instance = new ObservationPartitions(settings);
+            return;
+        }
+        instance.executor.execute(instance::createPartitions);
+    }
+
+    private void run() {
+        long delay = createPartitions() ? CHECK_INTERVAL : RETRY_INTERVAL;
+        executor.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create the partitions for the coming months, if they do not exist yet.
+     *
+     * @return true if the check succeeded.
+     */
+    private boolean createPartitions() {
+        int ahead = settings.getPersistenceSettings().getPartitionsAhead();
+        try (Connection connection = PostgresPersistenceManager.getConnection(settings);
+                PreparedStatement stmt = connection.prepareStatement("select create_observation_partitions(now(), ?)")) {
+            stmt.setInt(1, ahead);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    LOGGER.info("Created {} Observation partitions.", rs.getInt(1));
+                }
+            }
+            connection.commit();
+            return true;
+        } catch (SQLException exc) {
+            LOGGER.warn("Failed to create Observation partitions, has the database been upgraded? {}", exc.getMessage());
+            return false;
+        } catch (RuntimeException exc) {
+            LOGGER.error("Failed to create Observation partitions.", exc);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least-recently-used cache of the number of ObservedProperties of
+ * MultiDatastreams, used to validate the size of the results of Observations.
+ * Shared by all persistence managers.
+ *
+ * The cache listens on the message bus, and forgets the count of a
+ * MultiDatastream when it changes. Deleting an ObservedProperty clears the
+ * cache.
+ *
+ * @author scf
+ */
+public class ObservedPropertyCountCache implements MessageListener {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservedPropertyCountCache.class);
+    private static ObservedPropertyCountCache instance;
+
+    private final Map<Object, Long> counts;
+    /**
+     * Incremented with each invalidation, so that counts read before an
+     * invalidation are not stored.
+     */
+    private long generation = 0;
+
+    /**
+     * Get the cache, creating it if needed.
+     *
+     * @param maxSize The maximum number of MultiDatastreams in the cache.
+     * @return The cache, or null if the size is 0 or less, or if the message
+     * bus is not available to keep the cache up to date.
+     */
+    public static synchronized ObservedPropertyCountCache getInstance(int maxSize) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        if (instance == null) {
+            ObservedPropertyCountCache cache = new ObservedPropertyCountCache(maxSize);
+            try {
+                MessageBusFactory.getMessageBus().addMessageListener(cache);
+            } catch (IllegalStateException exc) {
+                LOGGER.debug("Message bus not available (yet), not caching ObservedProperty counts.");
+                return null;
+            }
+            instance = cache;
+        }
+        return instance;
+    }
+
+    private ObservedPropertyCountCache(final int maxSize) {
+        counts = new LinkedHashMap<Object, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the generation of the cache, to pass to
+     * {@link #put(Object, long, long)}.
+     *
+     * @return The current generation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the number of ObservedProperties of the given MultiDatastream.
+     *
+     * @param multiDatastreamId The id of the MultiDatastream.
+     * @return The number of ObservedProperties, or null if it is not cached.
+     */
+    public synchronized Long get(Object multiDatastreamId) {
+        return counts.get(multiDatastreamId);
+    }
+
+    /**
+     * Store the number of ObservedProperties of the given MultiDatastream,
+     * unless the cache was invalidated since the given generation.
+     *
+     * @param multiDatastreamId The id of the MultiDatastream.
+     * @param count The number of ObservedProperties.
+     * @param countGeneration The generation of the cache from before the
+     * ObservedProperties were counted.
+     */
+    public synchronized void put(Object multiDatastreamId, long count, long countGeneration) {
+        if (countGeneration == generation) {
+            counts.put(multiDatastreamId, count);
+        }
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        switch (message.getEntityType()) {
+            case MULTIDATASTREAM:
+                remove(message.getEntity());
+                break;
+
+            case OBSERVEDPROPERTY:
+                if (message.getEventType() == EntityChangedMessage.Type.DELETE) {
+                    clear();
+                }
+                break;
+
+            default:
+                // Does not influence the ObservedProperty counts.
+        }
+    }
+
+    private synchronized void remove(Entity entity) {
+        generation++;
+        if (entity == null || entity.getId() == null) {
+            counts.clear();
+        } else {
+            counts.remove(entity.getId().getValue());
+        }
+    }
+
+    private synchronized void clear() {
+        generation++;
+        counts.clear();
+    }
+
+}
@@ -18,10 +18,15 @@
 package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
 
 import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ConstantImpl;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.SubQueryExpression;
 import com.querydsl.core.types.dsl.ComparableExpressionBase;
+import com.querydsl.core.types.dsl.DateTimeExpression;
+import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.sql.SQLQuery;
 import com.querydsl.sql.SQLQueryFactory;
 import com.querydsl.sql.dml.SQLDeleteClause;
@@ -50,10 +55,14 @@ import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQ
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQThings;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQThingsLocations;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.QCollection;
+import de.fraunhofer.iosb.ilt.sta.query.Aggregation;
 import de.fraunhofer.iosb.ilt.sta.query.Expand;
 import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -89,15 +98,31 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
     private Set<Property> selectedProperties;
     private final TableRef<I, J> lastPath = new TableRef<>();
     private TableRef<I, J> mainTable;
+    private I parentIdPath;
     private int aliasNr = 0;
     private boolean isFilter = false;
     private boolean needsDistinct = false;
+    /**
+     * The shape of the request, if the ids and literals should be added to the
+     * query as parameters.
+     */
+    private QueryShape queryShape;
 
     public PathSqlBuilderImp(PropertyResolver<I, J> propertyResolver) {
         this.propertyResolver = propertyResolver;
         this.qCollection = propertyResolver.qCollection;
     }
 
+    /**
+     * Set the shape of the request. The ids and literals that are slots of the
+     * shape are added to the query as parameters, instead of as constants.
+     *
+     * @param queryShape The shape of the request, or null.
+     */
+    public void setQueryShape(QueryShape queryShape) {
+        this.queryShape = queryShape;
+    }
+
     @Override
     public synchronized SQLQuery<Tuple> buildFor(EntityType entityType, Id id, SQLQueryFactory sqlQueryFactory, PersistenceSettings settings) {
         selectedProperties = Collections.emptySet();
@@ -127,6 +152,225 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         return sqlQuery;
     }
 
+    /**
+     * Builds a query for the entities at the end of the given path, for a set
+     * of entities at the start of the path together. The first element of the
+     * path is an EntitySetPathElement of the parents. The id of the parent is
+     * added to the selected expressions, and only entities of the parents with
+     * the given ids are selected. The $top and $skip of the query are not
+     * applied, since they apply per parent.
+     *
+     * If the path has only one element, the entities themselves are the
+     * parents, and the query selects the entities with the given ids.
+     *
+     * @param path The path from the parents to the entities to query.
+     * @param query The query for the entities.
+     * @param parentIds The ids of the parents to query the entities of.
+     * @param sqlQueryFactory The factory to create the query with.
+     * @param settings The persistence settings.
+     * @return The query.
+     */
+    public synchronized SQLQuery<Tuple> buildForParents(ResourcePath path, Query query, Collection<J> parentIds, SQLQueryFactory sqlQueryFactory, PersistenceSettings settings) {
+        findSelectedProperties(query);
+
+        sqlQuery = sqlQueryFactory.select();
+        lastPath.clear();
+        aliasNr = 0;
+
+        int count = path.size();
+        for (int i = count - 1; i >= 0; i--) {
+            ResourcePathElement element = path.get(i);
+            element.visit(this);
+        }
+        parentIdPath = lastPath.getIdPath();
+        // Since the parent id is selected, the joins of the path itself can not
+        // cause duplicate rows. Only joins added by the filter can.
+        needsDistinct = false;
+
+        addOrderAndFilter(query, settings);
+
+        List<Expression<?>> selected = new ArrayList<>(((FactoryExpression<?>) sqlQuery.getMetadata().getProjection()).getArgs());
+        selected.add(parentIdPath);
+        sqlQuery.select(selected.toArray(new Expression<?>[selected.size()]));
+        sqlQuery.where(parentIdPath.in(parentIds));
+        return sqlQuery;
+    }
+
+    /**
+     * Builds a query for the entities at the end of the given path, for the
+     * one parent at the start of the path with the given id. The id is an
+     * expression of an enclosing query, so that the query can be used as the
+     * right side of a lateral join over a set of parents. The first element of
+     * the path is an EntitySetPathElement of the parents. The id of the parent
+     * is added to the selected expressions.
+     *
+     * Unlike buildForParents, the $orderby, $skip and $top of the query are
+     * applied, with one entity more than $top, to find out if there is a
+     * nextLink. The id of the entities is added to the ordering, if it is not
+     * in there yet, to make the ordering unique.
+     *
+     * @param path The path from the parents to the entities to query.
+     * @param query The query for the entities.
+     * @param parentId The id of the parent, from the enclosing query.
+     * @param sqlQueryFactory The factory to create the query with.
+     * @param settings The persistence settings.
+     * @return The query.
+     */
+    public synchronized SQLQuery<Tuple> buildForLateralParent(ResourcePath path, Query query, Expression<J> parentId, SQLQueryFactory sqlQueryFactory, PersistenceSettings settings) {
+        findSelectedProperties(query);
+
+        sqlQuery = sqlQueryFactory.select();
+        lastPath.clear();
+        aliasNr = 0;
+
+        int count = path.size();
+        for (int i = count - 1; i >= 0; i--) {
+            ResourcePathElement element = path.get(i);
+            element.visit(this);
+        }
+        parentIdPath = lastPath.getIdPath();
+        // As with buildForParents, only joins added by the filter can cause
+        // duplicate rows.
+        needsDistinct = false;
+
+        addOrderAndFilter(query, settings);
+        OrderSpecifier<?> idOrder = idOrder(query);
+        if (!sqlQuery.getMetadata().getOrderBy().contains(idOrder)) {
+            sqlQuery.orderBy(idOrder);
+        }
+
+        List<Expression<?>> selected = new ArrayList<>(((FactoryExpression<?>) sqlQuery.getMetadata().getProjection()).getArgs());
+        selected.add(parentIdPath);
+        sqlQuery.select(selected.toArray(new Expression<?>[selected.size()]));
+        sqlQuery.where(parentIdPath.eq(parentId));
+        sqlQuery.offset(query.getSkip(0));
+        sqlQuery.limit(query.getTopOrDefault() + 1L);
+        return sqlQuery;
+    }
+
+    /**
+     * Builds a query for the time-bucketed aggregates of the numeric results
+     * of the Observations at the end of the given path. The $filter of the
+     * query is applied, the $orderby is not: the buckets are ordered by time.
+     * The first selected expression is the start of the bucket, followed by
+     * one expression for each function of the aggregation, in order. The $top
+     * and $skip are not applied.
+     *
+     * @param path The path to the Observations to aggregate.
+     * @param query The query, with an aggregation.
+     * @param sqlQueryFactory The factory to create the query with.
+     * @param settings The persistence settings.
+     * @return The query.
+     */
+    public synchronized SQLQuery<Tuple> buildAggregateFor(ResourcePath path, Query query, SQLQueryFactory sqlQueryFactory, PersistenceSettings settings) {
+        findSelectedProperties(query);
+
+        sqlQuery = sqlQueryFactory.select();
+        lastPath.clear();
+        aliasNr = 0;
+
+        int count = path.size();
+        for (int i = count - 1; i >= 0; i--) {
+            ResourcePathElement element = path.get(i);
+            element.visit(this);
+        }
+        if (mainTable == null || mainTable.getType() != EntityType.OBSERVATION) {
+            throw new IllegalArgumentException("$aggregate is only allowed on collections of Observations.");
+        }
+        // A path ends in a set after the id of its parent, so the joins of the
+        // path itself can not return an Observation twice. Only joins added by
+        // the filter can.
+        needsDistinct = false;
+        isFilter = true;
+        de.fraunhofer.iosb.ilt.sta.query.expression.Expression filter = query.getFilter();
+        if (filter != null) {
+            PgExpressionHandler handler = new PgExpressionHandler(this, mainTable.copy(), queryShape);
+            handler.addFilterToQuery(filter, sqlQuery);
+        }
+
+        AbstractQObservations<?, I, J> qObservations = (AbstractQObservations<?, I, J>) mainTable.getqPath();
+        if (needsDistinct) {
+            SQLQuery<J> idQuery = sqlQuery.select(mainTable.getIdPath()).distinct();
+            qObservations = qCollection.qObservations.newWithAlias(ALIAS_PREFIX + (++aliasNr));
+            sqlQuery = sqlQueryFactory.select();
+            sqlQuery.from(qObservations).where(qObservations.getId().in(idQuery));
+            needsDistinct = false;
+        }
+
+        Aggregation aggregation = query.getAggregation();
+        // The bucket is inlined, so that the select, group by and order by use
+        // the same expression.
+        DateTimeExpression<Timestamp> bucket = Expressions.dateTimeTemplate(
+                Timestamp.class,
+                "date_trunc('" + aggregation.getBucket().name + "', {0} at time zone 'UTC') at time zone 'UTC'",
+                qObservations.phenomenonTimeStart);
+        List<Expression<?>> selected = new ArrayList<>();
+        selected.add(bucket);
+        for (Aggregation.Function function : aggregation.getFunctions()) {
+            selected.add(aggregateExpression(function, qObservations));
+        }
+        sqlQuery.select(selected.toArray(new Expression<?>[selected.size()]))
+                .where(qObservations.resultNumber.isNotNull())
+                .groupBy(bucket)
+                .orderBy(bucket.asc());
+        return sqlQuery;
+    }
+
+    private static Expression<?> aggregateExpression(Aggregation.Function function, AbstractQObservations<?, ?, ?> qObservations) {
+        switch (function) {
+            case AVG:
+                return qObservations.resultNumber.avg();
+
+            case MIN:
+                return qObservations.resultNumber.min();
+
+            case MAX:
+                return qObservations.resultNumber.max();
+
+            case COUNT:
+                return qObservations.resultNumber.count();
+
+            case FIRST:
+                return Expressions.numberTemplate(Double.class, "(array_agg({0} order by {1} asc))[1]", qObservations.resultNumber, qObservations.phenomenonTimeStart);
+
+            case LAST:
+                return Expressions.numberTemplate(Double.class, "(array_agg({0} order by {1} desc))[1]", qObservations.resultNumber, qObservations.phenomenonTimeStart);
+
+            default:
+                throw new IllegalArgumentException("Unknown aggregate function " + function);
+        }
+    }
+
+    /**
+     * The id path of the main table of the last built query.
+     *
+     * @return The id path of the main table of the last built query.
+     */
+    public I getMainIdPath() {
+        return mainTable.getIdPath();
+    }
+
+    /**
+     * The id path of the parents of the last query built with
+     * buildForParents.
+     *
+     * @return The id path of the parents of the last query built with
+     * buildForParents.
+     */
+    public I getParentIdPath() {
+        return parentIdPath;
+    }
+
+    /**
+     * Check if the last built query can return the same row more than once,
+     * and thus uses DISTINCT.
+     *
+     * @return true if the last built query uses DISTINCT.
+     */
+    public boolean isDistinct() {
+        return needsDistinct;
+    }
+
     private void findSelectedProperties(Query query) {
         selectedProperties = new HashSet<>();
         if (query == null) {
@@ -150,7 +394,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
 
     private void addOrderAndFilter(Query query, PersistenceSettings settings) {
         if (query != null) {
-            PgExpressionHandler handler = new PgExpressionHandler(this, mainTable.copy());
+            PgExpressionHandler handler = new PgExpressionHandler(this, mainTable.copy(), queryShape);
             for (OrderBy ob : query.getOrderBy()) {
                 handler.addOrderbyToQuery(ob, sqlQuery);
             }
@@ -159,8 +403,12 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
             if (filter != null) {
                 handler.addFilterToQuery(filter, sqlQuery);
             }
-            if (settings.getAlwaysOrderbyId()) {
-                sqlQuery.orderBy(mainTable.getIdPath().asc());
+            if (settings.isKeysetPagination()) {
+                // Keyset pagination needs a unique ordering, with the id selected.
+                sqlQuery.orderBy(idOrder(query));
+                selectIfMissing(mainTable.getIdPath());
+            } else if (settings.getAlwaysOrderbyId()) {
+                sqlQuery.orderBy(idOrder(query));
             }
             if (needsDistinct) {
                 sqlQuery.distinct();
@@ -168,6 +416,30 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
+    /**
+     * The ordering on the id that makes the ordering unique. The id follows
+     * the direction of the last $orderby, so that an index on the ordered
+     * columns plus the id can be scanned in one direction.
+     */
+    private OrderSpecifier<?> idOrder(Query query) {
+        List<OrderBy> orderBy = query.getOrderBy();
+        if (!orderBy.isEmpty() && orderBy.get(orderBy.size() - 1).getType() == OrderBy.OrderType.DESCENDING) {
+            return mainTable.getIdPath().desc();
+        }
+        return mainTable.getIdPath().asc();
+    }
+
+    private void selectIfMissing(Expression<?> expression) {
+        Expression<?> projection = sqlQuery.getMetadata().getProjection();
+        if (projection instanceof FactoryExpression) {
+            List<Expression<?>> selected = new ArrayList<>(((FactoryExpression<?>) projection).getArgs());
+            if (!selected.contains(expression)) {
+                selected.add(expression);
+                sqlQuery.select(selected.toArray(new Expression<?>[selected.size()]));
+            }
+        }
+    }
+
     public SQLDeleteClause createDelete(EntitySetPathElement set, SQLQueryFactory sqlQueryFactory, SubQueryExpression idSelect) {
         switch (set.getEntityType()) {
             case DATASTREAM:
@@ -230,12 +502,17 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
 
     @Override
     public void queryEntityType(EntityType type, Id targetId, TableRef last) {
-        J id = null;
+        Expression<J> id = null;
         if (targetId != null) {
             if (targetId.getBasicPersistenceType() != propertyResolver.getBasicPersistenceType()) {
                 throw new IllegalArgumentException("This implementation expects " + propertyResolver.getBasicPersistenceType() + " ids, not " + targetId.getBasicPersistenceType());
             }
-            id = (J) targetId.asBasicPersistenceType();
+            J idValue = (J) targetId.asBasicPersistenceType();
+            if (queryShape == null) {
+                id = ConstantImpl.create(idValue);
+            } else {
+                id = queryShape.parameterFor(targetId, idValue);
+            }
         }
 
         switch (type) {
@@ -290,7 +567,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         return propertyResolver.expressionsForProperty(property, qPath, target);
     }
 
-    private void queryDatastreams(J entityId, TableRef last) {
+    private void queryDatastreams(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQDatastreams<? extends AbstractQDatastreams, I, J> qDataStreams = qCollection.qDatastreams.newWithAlias(alias);
@@ -342,7 +619,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void queryMultiDatastreams(J entityId, TableRef last) {
+    private void queryMultiDatastreams(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQMultiDatastreams<? extends AbstractQMultiDatastreams, I, J> qMultiDataStreams = qCollection.qMultiDatastreams.newWithAlias(alias);
@@ -400,7 +677,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void queryThings(J entityId, TableRef last) {
+    private void queryThings(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQThings<?, I, J> qThings = qCollection.qThings.newWithAlias(alias);
@@ -452,7 +729,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void queryFeatures(J entityId, TableRef last) {
+    private void queryFeatures(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQFeatures<?, I, J> qFeatures = qCollection.qFeatures.newWithAlias(alias);
@@ -486,7 +763,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void queryHistLocations(J entityId, TableRef last) {
+    private void queryHistLocations(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQHistLocations<?, I, J> qHistLocations = qCollection.qHistLocations.newWithAlias(alias);
@@ -529,7 +806,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void queryLocations(J entityId, TableRef last) {
+    private void queryLocations(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQLocations<?, I, J> qLocations = qCollection.qLocations.newWithAlias(alias);
@@ -574,7 +851,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void querySensors(J entityId, TableRef last) {
+    private void querySensors(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQSensors<? extends AbstractQSensors, I, J> qSensors = qCollection.qSensors.newWithAlias(alias);
@@ -613,7 +890,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void queryObservations(J entityId, TableRef last) {
+    private void queryObservations(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQObservations<? extends AbstractQObservations, I, J> qObservations = qCollection.qObservations.newWithAlias(alias);
@@ -660,7 +937,7 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
     }
 
-    private void queryObsProperties(J entityId, TableRef last) {
+    private void queryObsProperties(Expression<J> entityId, TableRef last) {
         int nr = ++aliasNr;
         String alias = ALIAS_PREFIX + nr;
         AbstractQObsProperties<?, I, J> qObsProperties = qCollection.qObsProperties.newWithAlias(alias);
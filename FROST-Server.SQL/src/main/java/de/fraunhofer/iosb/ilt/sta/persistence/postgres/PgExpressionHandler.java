@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
 
 import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ConstantImpl;
 import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.QTuple;
@@ -55,6 +56,7 @@ import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
 import de.fraunhofer.iosb.ilt.sta.query.expression.ExpressionVisitor;
 import de.fraunhofer.iosb.ilt.sta.query.expression.Path;
 import de.fraunhofer.iosb.ilt.sta.query.expression.constant.BooleanConstant;
+import de.fraunhofer.iosb.ilt.sta.query.expression.constant.Constant;
 import de.fraunhofer.iosb.ilt.sta.query.expression.constant.DateConstant;
 import de.fraunhofer.iosb.ilt.sta.query.expression.constant.DateTimeConstant;
 import de.fraunhofer.iosb.ilt.sta.query.expression.constant.DoubleConstant;
@@ -161,10 +163,19 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
      * The table reference for the main table of the request.
      */
     private final PathSqlBuilder.TableRef tableRef;
+    /**
+     * The shape of the request, if the literals should be added as parameters.
+     */
+    private final QueryShape queryShape;
 
     public PgExpressionHandler(PathSqlBuilder psb, PathSqlBuilder.TableRef tableRef) {
+        this(psb, tableRef, null);
+    }
+
+    public PgExpressionHandler(PathSqlBuilder psb, PathSqlBuilder.TableRef tableRef, QueryShape queryShape) {
         this.psb = psb;
         this.tableRef = tableRef;
+        this.queryShape = queryShape;
     }
 
     public void addFilterToQuery(de.fraunhofer.iosb.ilt.sta.query.expression.Expression filter, SQLQuery<Tuple> sqlQuery) {
@@ -273,6 +284,23 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         }
     }
 
+    /**
+     * Add a bounding box test in front of the given exact spatial predicate,
+     * if one of the geometries is a constant. The bounding box test can use a
+     * spatial index on the other geometry.
+     *
+     * @param g1 The first geometry of the predicate.
+     * @param g2 The second geometry of the predicate.
+     * @param exact The exact predicate.
+     * @return The predicate, with the bounding box test if applicable.
+     */
+    private static BooleanExpression withBoundingBox(GeometryExpression g1, GeometryExpression g2, BooleanExpression exact) {
+        if (g1 instanceof ConstantGeometryExpression || g2 instanceof ConstantGeometryExpression) {
+            return Expressions.booleanTemplate("{0} && {1}", g1, g2).and(exact);
+        }
+        return exact;
+    }
+
     private static class PathState {
 
         PathSqlBuilder.TableRef pathTableRef;
@@ -431,7 +459,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
 
     @Override
     public Expression<?> visit(DoubleConstant node) {
-        return new ConstantNumberExpression(node.getValue());
+        return new ConstantNumberExpression(constantFor(node, node.getValue()));
     }
 
     @Override
@@ -450,7 +478,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
 
     @Override
     public Expression<?> visit(IntegerConstant node) {
-        return new ConstantNumberExpression(node.getValue());
+        return new ConstantNumberExpression(constantFor(node, node.getValue()));
     }
 
     @Override
@@ -480,7 +508,18 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
 
     @Override
     public Expression<?> visit(StringConstant node) {
-        return new ConstantStringExpression(node.getValue());
+        return new ConstantStringExpression(constantFor(node, node.getValue()));
+    }
+
+    /**
+     * Get the expression for a literal of the request. This is a parameter if
+     * the literal is a slot of the shape of the request, a constant otherwise.
+     */
+    private <T> Expression<T> constantFor(Constant<T> node, T value) {
+        if (queryShape == null) {
+            return ConstantImpl.create(value);
+        }
+        return queryShape.parameterFor(node, value);
     }
 
     @Override
@@ -930,7 +969,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.intersects(g2);
+        return withBoundingBox(g1, g2, g1.intersects(g2));
     }
 
     @Override
@@ -1001,7 +1040,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.contains(g2);
+        return withBoundingBox(g1, g2, g1.contains(g2));
     }
 
     @Override
@@ -1012,7 +1051,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.crosses(g2);
+        return withBoundingBox(g1, g2, g1.crosses(g2));
     }
 
     @Override
@@ -1034,7 +1073,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.eq(g2);
+        return withBoundingBox(g1, g2, g1.eq(g2));
     }
 
     @Override
@@ -1045,7 +1084,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.intersects(g2);
+        return withBoundingBox(g1, g2, g1.intersects(g2));
     }
 
     @Override
@@ -1056,7 +1095,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.overlaps(g2);
+        return withBoundingBox(g1, g2, g1.overlaps(g2));
     }
 
     @Override
@@ -1084,7 +1123,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.touches(g2);
+        return withBoundingBox(g1, g2, g1.touches(g2));
     }
 
     @Override
@@ -1095,7 +1134,7 @@ public class PgExpressionHandler implements ExpressionVisitor<Expression> {
         Expression<?> e2 = p2.accept(this);
         GeometryExpression g1 = getSingleOfType(GeometryExpression.class, e1);
         GeometryExpression g2 = getSingleOfType(GeometryExpression.class, e2);
-        return g1.within(g2);
+        return withBoundingBox(g1, g2, g1.within(g2));
     }
 
     @Override
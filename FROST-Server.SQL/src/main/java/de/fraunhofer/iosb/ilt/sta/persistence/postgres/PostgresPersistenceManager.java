@@ -25,8 +25,12 @@ import com.querydsl.sql.SQLQueryFactory;
 import com.querydsl.sql.SQLTemplates;
 import com.querydsl.sql.dml.SQLDeleteClause;
 import com.querydsl.sql.spatial.PostGISTemplates;
+import de.fraunhofer.iosb.ilt.sta.formatter.AggregationResult;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySetImpl;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
@@ -36,22 +40,31 @@ import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
 import de.fraunhofer.iosb.ilt.sta.persistence.AbstractPersistenceManager;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.factories.EntityFactory;
+import de.fraunhofer.iosb.ilt.sta.query.Aggregation;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.Settings;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.UpgradeFailedException;
+import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.inject.Provider;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -73,6 +86,7 @@ import org.apache.commons.dbcp2.PoolingDriver;
 import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -91,6 +105,15 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
     public static final String TAG_DB_MAXCONN = "db.conn.max";
     public static final String TAG_DB_MAXIDLE = "db.conn.idle.max";
     public static final String TAG_DB_MINIDLE = "db.conn.idle.min";
+    /**
+     * The prefix of the settings of the read replica. These are the same as
+     * the settings of the primary database.
+     */
+    public static final String PREFIX_REPLICA = "replica.";
+    private static final String SOURCE_NAME = "FROST-Source";
+    private static final String REPLICA_SOURCE_NAME = "FROST-Replica";
+    private static final String LIQUIBASE_CONTEXT_DEFAULT = "default";
+    private static final String LIQUIBASE_CONTEXT_OBSERVATION_INDEXES = "observationIndexes";
 
     public static final DateTime DATETIME_MAX = DateTime.parse("9999-12-31T23:59:59.999Z");
     public static final DateTime DATETIME_MIN = DateTime.parse("-4000-01-01T00:00:00.000Z");
@@ -106,16 +129,48 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
 
         private final CoreSettings settings;
         private Connection connection;
+        private boolean readOnly;
+        private boolean onReplica;
 
         public MyConnectionWrapper(CoreSettings settings) {
             this.settings = settings;
         }
 
+        /**
+         * Only has an effect if no connection is open yet. Reset when the
+         * connection is closed.
+         */
+        public void setReadOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
+        /**
+         * Check if the connection is, or will be, to a read replica. Read-only
+         * connections go to the primary if no replica is configured.
+         *
+         * @return true if reads go to a read replica.
+         */
+        public boolean isOnReplica() {
+            if (connection == null) {
+                return readOnly && isReplicaConfigured(settings);
+            }
+            return onReplica;
+        }
+
         @Override
         public Connection get() {
             if (connection == null) {
                 try {
-                    connection = getConnection(settings);
+                    if (readOnly && isReplicaConfigured(settings)) {
+                        connection = getReplicaConnection(settings);
+                        onReplica = true;
+                    } else {
+                        connection = getConnection(settings);
+                    }
                 } catch (SQLException ex) {
                     LOGGER.error("Could not inizialize " + getClass().getName(), ex);
                 }
@@ -171,6 +226,8 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
 
         public void clear() {
             connection = null;
+            readOnly = false;
+            onReplica = false;
         }
 
     }
@@ -178,11 +235,75 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
     private CoreSettings settings;
     private MyConnectionWrapper connectionProvider;
     private SQLQueryFactory queryFactory;
+    private ExpandStrategy expandStrategy;
+    private CountMode countMode;
+    private DatastreamAggregation datastreamAggregation;
+    /**
+     * The extents of the Observations inserted in the current transaction,
+     * when aggregating deferred.
+     */
+    private DatastreamExtents pendingExtents;
+    /**
+     * Whether the current transaction generated a FeatureOfInterest. Such
+     * FeaturesOfInterest are not committed yet, and must not be cached.
+     */
+    private boolean foiGenerated;
+    /**
+     * Whether the current transaction changed the ObservedProperties of a
+     * MultiDatastream. Counts read in such a transaction must not be cached.
+     */
+    private boolean observedPropertiesLinked;
+    /**
+     * The ids of the entities found to exist in the current transaction, by
+     * type. They may have been created by the transaction itself, so they are
+     * only added to the existence cache when the transaction commits.
+     */
+    private Map<EntityType, Set<Object>> existingEntities;
+    /**
+     * The generation of the existence cache when the first of the
+     * existingEntities was found.
+     */
+    private long existingGeneration;
+    /**
+     * Whether the current transaction changed entities. The latest
+     * Observations of such a transaction are not committed yet.
+     */
+    private boolean entitiesChanged;
+    /**
+     * Whether entity collections can be streamed from a cursor, until this PM
+     * is closed.
+     */
+    private boolean streaming;
 
     @Override
     public void init(CoreSettings settings) {
         this.settings = settings;
         connectionProvider = new MyConnectionWrapper(settings);
+        String strategy = settings.getPersistenceSettings().getExpandStrategy();
+        expandStrategy = ExpandStrategy.findType(strategy);
+        if (expandStrategy == null) {
+            String error = "Unknown expandStrategy: " + strategy + ".";
+            LOGGER.error(error);
+            throw new IllegalArgumentException(error);
+        }
+        String mode = settings.getPersistenceSettings().getCountMode();
+        countMode = CountMode.findType(mode);
+        if (countMode == null) {
+            String error = "Unknown countMode: " + mode + ".";
+            LOGGER.error(error);
+            throw new IllegalArgumentException(error);
+        }
+        String aggregation = settings.getPersistenceSettings().getDatastreamAggregation();
+        datastreamAggregation = DatastreamAggregation.findType(aggregation);
+        if (datastreamAggregation == null) {
+            String error = "Unknown datastreamAggregation: " + aggregation + ".";
+            LOGGER.error(error);
+            throw new IllegalArgumentException(error);
+        }
+        DatastreamAggregator.checkTrigger(settings, datastreamAggregation);
+        if (settings.getPersistenceSettings().isPartitionObservations()) {
+            ObservationPartitions.start(settings);
+        }
     }
 
     @Override
@@ -190,6 +311,122 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         return settings;
     }
 
+    public ExpandStrategy getExpandStrategy() {
+        return expandStrategy;
+    }
+
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    /**
+     * The extents to add inserted Observations to, for the deferred
+     * aggregation of their Datastreams.
+     *
+     * @return The extents of the current transaction, or null if the
+     * Datastreams are not aggregated deferred.
+     */
+    public DatastreamExtents getPendingExtents() {
+        if (datastreamAggregation != DatastreamAggregation.DEFERRED) {
+            return null;
+        }
+        if (pendingExtents == null) {
+            pendingExtents = new DatastreamExtents();
+        }
+        return pendingExtents;
+    }
+
+    /**
+     * The cache for the ids of generated FeaturesOfInterest, if it can be used
+     * in the current transaction.
+     *
+     * @return The cache, or null if it is disabled, or if the current
+     * transaction generated a FeatureOfInterest itself.
+     */
+    public FeatureOfInterestCache getFeatureOfInterestCache() {
+        if (foiGenerated) {
+            return null;
+        }
+        return FeatureOfInterestCache.getInstance(settings.getPersistenceSettings().getGeneratedFoiCacheSize());
+    }
+
+    /**
+     * The cache of the latest Observation of (Multi)Datastreams, if it can be
+     * used in the current transaction.
+     *
+     * @return The cache, or null if it is disabled, or if the current
+     * transaction changed entities.
+     */
+    public LatestObservationCache getLatestObservationCache() {
+        if (entitiesChanged) {
+            return null;
+        }
+        return LatestObservationCache.getInstance(settings.getPersistenceSettings().getLatestObservationCacheSize());
+    }
+
+    /**
+     * Check if rows read by this PM can be cached for all clients. Rows read
+     * from a read replica can be older than the changes seen on the message
+     * bus. Read-only PMs read from the primary when no replica is configured,
+     * so their rows can be cached.
+     *
+     * @return true if the rows read by this PM can be cached.
+     */
+    public boolean isReadCacheable() {
+        return !isReadFromReplica();
+    }
+
+    @Override
+    public boolean isReadFromReplica() {
+        return connectionProvider.isOnReplica();
+    }
+
+    /**
+     * Mark that the current transaction generated a FeatureOfInterest.
+     */
+    public void setFoiGenerated() {
+        foiGenerated = true;
+    }
+
+    /**
+     * The cache of the number of ObservedProperties of MultiDatastreams, if
+     * it can be used in the current transaction.
+     *
+     * @return The cache, or null if it is disabled, or if the current
+     * transaction changed the ObservedProperties of a MultiDatastream.
+     */
+    public ObservedPropertyCountCache getObservedPropertyCountCache() {
+        if (observedPropertiesLinked) {
+            return null;
+        }
+        return ObservedPropertyCountCache.getInstance(settings.getPersistenceSettings().getObservedPropertyCountCacheSize());
+    }
+
+    /**
+     * Mark that the current transaction changed the ObservedProperties of a
+     * MultiDatastream.
+     */
+    public void setObservedPropertiesLinked() {
+        observedPropertiesLinked = true;
+    }
+
+    /**
+     * Record that the given entity was found to exist in the current
+     * transaction. It is added to the existence cache when the transaction
+     * commits.
+     *
+     * @param cache The existence cache.
+     * @param type The type of the entity.
+     * @param id The id of the entity.
+     */
+    public void addExistingEntity(EntityExistenceCache cache, EntityType type, Object id) {
+        if (existingEntities == null) {
+            existingEntities = new EnumMap<>(EntityType.class);
+            existingGeneration = cache.getGeneration();
+        }
+        existingEntities.computeIfAbsent(type, k -> new HashSet<>()).add(id);
+    }
+
     public abstract EntityFactories<I, J> getEntityFactories();
 
     public abstract IdGenerationHandler createIdGenerationHanlder(Entity e);
@@ -257,15 +494,18 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
             }
         }
 
-        SQLQueryFactory qf = createQueryFactory();
-        PathSqlBuilderImp psb = new PathSqlBuilderImp(getPropertyResolver());
-        SQLQuery<Tuple> sqlQuery = psb.buildFor(path, query, qf, getCoreSettings().getPersistenceSettings());
-
-        if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("Generated SQL:\n{}", sqlQuery.getSQL().getSQL());
+        if (query.getAggregation() != null) {
+            return getAggregation(path, query);
+        }
+        LatestObservationCache latestCache = getLatestObservationCache();
+        if (latestCache != null && LatestObservationCache.isLatestQuery(query)) {
+            EntityPathElement stream = LatestObservationCache.findStream(path);
+            if (stream != null) {
+                return getLatestObservation(latestCache, stream, path, query);
+            }
         }
 
-        EntityCreator entityCreator = new EntityCreator(this, path, query, sqlQuery);
+        EntityCreator entityCreator = createEntityCreator(path, query);
         lastElement.visit(entityCreator);
         Object entity = entityCreator.getEntity();
 
@@ -283,12 +523,149 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         return entity;
     }
 
+    /**
+     * Fetch the time-bucketed aggregates of the Observations of the given
+     * path. The $top and $skip of the query apply to the buckets.
+     */
+    private AggregationResult getAggregation(ResourcePath path, Query query) {
+        PathSqlBuilderImp psb = new PathSqlBuilderImp(getPropertyResolver());
+        SQLQuery<Tuple> sqlQuery = psb.buildAggregateFor(path, query, createQueryFactory(), getCoreSettings().getPersistenceSettings());
+        int top = query.getTopOrDefault();
+        sqlQuery.offset(query.getSkip(0)).limit(top + 1L);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", sqlQuery.getSQL().getSQL());
+        }
+        List<Tuple> tuples = sqlQuery.fetch();
+
+        Aggregation aggregation = query.getAggregation();
+        List<Aggregation.Function> functions = aggregation.getFunctions();
+        AggregationResult result = new AggregationResult();
+        for (int i = 0; i < tuples.size() && i < top; i++) {
+            Tuple tuple = tuples.get(i);
+            Timestamp start = tuple.get(0, Timestamp.class);
+            Timestamp end = new Timestamp(new DateTime(start.getTime(), DateTimeZone.UTC).plus(aggregation.getBucket().period).getMillis());
+            Map<String, Object> bucket = new LinkedHashMap<>();
+            bucket.put(EntityProperty.PHENOMENONTIME.entitiyName, Utils.intervalToIso(start, end));
+            for (int f = 0; f < functions.size(); f++) {
+                bucket.put(functions.get(f).name, tuple.get(f + 1, Object.class));
+            }
+            result.getValue().add(bucket);
+        }
+        if (tuples.size() > top) {
+            result.setNextLink(UrlHelper.generateNextLink(path, query));
+        }
+        return result;
+    }
+
+    /**
+     * Get the latest Observation of a (Multi)Datastream from the cache, or
+     * read it from the database and cache it.
+     */
+    private EntitySet<Observation> getLatestObservation(LatestObservationCache cache, EntityPathElement stream, ResourcePath path, Query query) {
+        EntityType streamType = stream.getEntityType();
+        Object streamId = stream.getId().getValue();
+        EntityFactory<Observation, I, J> factory = getEntityFactories().getFactoryFor(EntityType.OBSERVATION);
+        LatestObservationCache.Entry entry = cache.get(streamType, streamId);
+        if (entry == null) {
+            LatestObservationCache.Ticket ticket = cache.ticket();
+            // Read all columns, the $select of the request is applied when
+            // creating the Observation.
+            Query fullQuery = new Query(query.getSettings());
+            fullQuery.setTop(1);
+            fullQuery.setOrderBy(query.getOrderBy());
+            PersistenceSettings persistenceSettings = getCoreSettings().getPersistenceSettings();
+            PathSqlBuilderImp psb = new PathSqlBuilderImp(getPropertyResolver());
+            SQLQuery<Tuple> sqlQuery = psb.buildFor(path, fullQuery, createQueryFactory(), persistenceSettings);
+            sqlQuery.limit(2);
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Generated SQL:\n{}", sqlQuery.getSQL().getSQL());
+            }
+            List<Tuple> tuples = sqlQuery.fetch();
+            Tuple row = tuples.isEmpty() ? null : tuples.get(0);
+            boolean hasMore = tuples.size() > 1;
+            String nextToken = null;
+            if (hasMore && persistenceSettings.isKeysetPagination()) {
+                nextToken = KeysetPagination.createToken(sqlQuery.getMetadata(), row, factory.getPrimaryKey());
+            }
+            entry = new LatestObservationCache.Entry(row, row == null ? null : row.get(factory.getPrimaryKey()), hasMore, nextToken);
+            if (isReadCacheable()) {
+                ticket.store(streamType, streamId, entry);
+            }
+        }
+
+        EntitySet<Observation> result = new EntitySetImpl<>(EntityType.OBSERVATION);
+        if (entry.getRow() != null) {
+            result.add(factory.create(entry.getRow(), query, new DataSize()));
+        }
+        if (entry.isHasMore()) {
+            if (entry.getNextToken() == null) {
+                result.setNextLink(UrlHelper.generateNextLink(path, query));
+            } else {
+                result.setNextLink(UrlHelper.generateNextLink(path, query, entry.getNextToken()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create the EntityCreator for the given request. If the template cache
+     * is enabled, the cached SQL for the shape of the request is used, or
+     * generated and cached. Templates read the whole page into memory, so
+     * they are not used for collections that may be streamed.
+     */
+    private EntityCreator createEntityCreator(ResourcePath path, Query query) {
+        SQLQueryFactory qf = createQueryFactory();
+        PersistenceSettings persistenceSettings = getCoreSettings().getPersistenceSettings();
+        SqlTemplateCache templateCache = SqlTemplateCache.getInstance(persistenceSettings.getSqlTemplateCacheSize());
+        QueryShape shape = null;
+        boolean mayStream = streaming && path.getLastElement() instanceof EntitySetPathElement;
+        if (templateCache != null && !mayStream) {
+            shape = new QueryShape(getClass().getName(), path, query);
+            if (!shape.isCacheable()) {
+                shape = null;
+            }
+        }
+        if (shape != null) {
+            SqlTemplate template = templateCache.get(shape);
+            if (template != null && template.matches(shape)) {
+                return new EntityCreator(this, path, query, template, shape);
+            }
+        }
+
+        PathSqlBuilderImp psb = new PathSqlBuilderImp(getPropertyResolver());
+        psb.setQueryShape(shape);
+        SQLQuery<Tuple> sqlQuery = psb.buildFor(path, query, qf, persistenceSettings);
+
+        if (shape != null) {
+            SqlTemplate template = SqlTemplate.create(qf.getConfiguration(), sqlQuery, shape);
+            if (template != null) {
+                templateCache.put(shape, template);
+                return new EntityCreator(this, path, query, template, shape);
+            }
+            shape.bindParameters(sqlQuery);
+        }
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", sqlQuery.getSQL().getSQL());
+        }
+        return new EntityCreator(this, path, query, sqlQuery);
+    }
+
     @Override
-    public boolean doInsert(Entity entity) throws NoSuchEntityException, IncompleteEntityException {
+    public EntityChangedMessage doInsert(Entity entity) throws NoSuchEntityException, IncompleteEntityException {
         EntityFactories<I, J> ef = getEntityFactories();
         EntityFactory<Entity, I, J> factory = ef.getFactoryFor(entity.getEntityType());
-        factory.insert(this, entity);
-        return true;
+        entitiesChanged = true;
+        Entity stored = factory.insertReturning(this, entity);
+        return new EntityChangedMessage().setEntity(stored);
+    }
+
+    @Override
+    public List<Exception> doInsertAll(List<Observation> observations, List<Entity> stored) {
+        EntityFactories<I, J> ef = getEntityFactories();
+        EntityFactory<Observation, I, J> factory = ef.getFactoryFor(EntityType.OBSERVATION);
+        entitiesChanged = true;
+        return factory.insertAll(this, observations, stored);
     }
 
     @Override
@@ -302,6 +679,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         }
 
         EntityFactory<Entity, I, J> factory = ef.getFactoryFor(entity.getEntityType());
+        entitiesChanged = true;
         return factory.update(this, entity, id);
     }
 
@@ -310,6 +688,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         EntityFactories<I, J> ef = getEntityFactories();
         EntityType type = pathElement.getEntityType();
         EntityFactory<Entity, I, J> factory = ef.getFactoryFor(type);
+        entitiesChanged = true;
         factory.delete(this, (J) pathElement.getId().getValue());
         return true;
     }
@@ -323,25 +702,88 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         SQLQuery<Tuple> sqlQuery = psb.buildFor(path, query, qf, getCoreSettings().getPersistenceSettings());
         SQLDeleteClause sqlDelete = psb.createDelete((EntitySetPathElement) path.getLastElement(), qf, sqlQuery);
 
+        entitiesChanged = true;
         long rowCount = sqlDelete.execute();
         LOGGER.debug("Deleted {} rows using query {}", rowCount, sqlDelete);
     }
 
     @Override
     protected boolean doCommit() {
-        return connectionProvider.doCommit();
+        boolean committed = connectionProvider.doCommit();
+        if (committed && pendingExtents != null && !pendingExtents.isEmpty()) {
+            DatastreamAggregator.getInstance(settings).addAll(pendingExtents);
+        }
+        if (committed && existingEntities != null) {
+            PersistenceSettings persistenceSettings = settings.getPersistenceSettings();
+            EntityExistenceCache cache = EntityExistenceCache.getInstance(persistenceSettings.getExistenceCacheSize(), persistenceSettings.getExistenceCacheTtl());
+            if (cache != null) {
+                cache.putAll(existingEntities, existingGeneration);
+            }
+        }
+        pendingExtents = null;
+        existingEntities = null;
+        foiGenerated = false;
+        observedPropertiesLinked = false;
+        entitiesChanged = false;
+        return committed;
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        connectionProvider.setReadOnly(readOnly);
+    }
+
+    @Override
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @return true if entity collections can be streamed from a cursor.
+     */
+    public boolean isStreaming() {
+        return streaming;
     }
 
     @Override
     protected boolean doRollback() {
+        pendingExtents = null;
+        existingEntities = null;
+        foiGenerated = false;
+        observedPropertiesLinked = false;
+        entitiesChanged = false;
         return connectionProvider.doRollback();
     }
 
     @Override
     protected boolean doClose() {
+        pendingExtents = null;
+        existingEntities = null;
+        foiGenerated = false;
+        observedPropertiesLinked = false;
+        entitiesChanged = false;
+        streaming = false;
         return connectionProvider.doClose();
     }
 
+    /**
+     * The Liquibase contexts to run, for the optional parts of the database
+     * layout. Without any context, Liquibase would run all changeSets,
+     * including the optional ones.
+     */
+    private Contexts getLiquibaseContexts() {
+        PersistenceSettings persistenceSettings = getCoreSettings().getPersistenceSettings();
+        List<String> contexts = new ArrayList<>();
+        contexts.add(LIQUIBASE_CONTEXT_DEFAULT);
+        if (persistenceSettings.isPartitionObservations()) {
+            contexts.add(ObservationPartitions.LIQUIBASE_CONTEXT);
+        }
+        if (persistenceSettings.isObservationIndexes()) {
+            contexts.add(LIQUIBASE_CONTEXT_OBSERVATION_INDEXES);
+        }
+        return new Contexts(contexts.toArray(new String[contexts.size()]));
+    }
+
     @Override
     public String checkForUpgrades() {
         StringWriter out = new StringWriter();
@@ -350,7 +792,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
 
             Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
             Liquibase liquibase = new liquibase.Liquibase(getLiquibaseChangelogFilename(), new ClassLoaderResourceAccessor(), database);
-            liquibase.update(new Contexts(), out);
+            liquibase.update(getLiquibaseContexts(), out);
             database.commit();
             database.close();
             connection.close();
@@ -376,10 +818,17 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
 
             Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
             Liquibase liquibase = new liquibase.Liquibase(getLiquibaseChangelogFilename(), new ClassLoaderResourceAccessor(), database);
-            liquibase.update(new Contexts());
+            liquibase.update(getLiquibaseContexts());
             database.commit();
             database.close();
             connection.close();
+            if (datastreamAggregation != null) {
+                // The update may have re-created the insert trigger.
+                DatastreamAggregator.recheckTrigger(getCoreSettings(), datastreamAggregation);
+            }
+            if (getCoreSettings().getPersistenceSettings().isPartitionObservations()) {
+                ObservationPartitions.recheck(getCoreSettings());
+            }
 
         } catch (SQLException | DatabaseException ex) {
             LOGGER.error("Could not initialise database.", ex);
@@ -399,11 +848,49 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
 
     public static Connection getConnection(CoreSettings settings) throws SQLException {
         Settings customSettings = settings.getPersistenceSettings().getCustomSettings();
-        Connection connection = PostgresPersistenceManager.getPoolingConnection("FROST-Source", customSettings);
+        Connection connection = PostgresPersistenceManager.getPoolingConnection(SOURCE_NAME, customSettings);
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    /**
+     * Get a read-only connection to the read replica, or to the primary
+     * database if no read replica is configured.
+     *
+     * @param settings The settings containing the database settings.
+     * @return A read-only database connection.
+     * @throws SQLException If the connection fails.
+     */
+    public static Connection getReplicaConnection(CoreSettings settings) throws SQLException {
+        if (!isReplicaConfigured(settings)) {
+            return getConnection(settings);
+        }
+        Connection connection = PostgresPersistenceManager.getPoolingConnection(REPLICA_SOURCE_NAME, getReplicaSettings(settings));
         connection.setAutoCommit(false);
+        connection.setReadOnly(true);
         return connection;
     }
 
+    /**
+     * Check if a read replica is configured.
+     *
+     * @param settings The settings containing the database settings.
+     * @return true if a read replica is configured.
+     */
+    public static boolean isReplicaConfigured(CoreSettings settings) {
+        Settings replicaSettings = getReplicaSettings(settings);
+        return isConfigured(replicaSettings, TAG_DB_URL) || isConfigured(replicaSettings, TAG_DATA_SOURCE);
+    }
+
+    private static Settings getReplicaSettings(CoreSettings settings) {
+        Settings customSettings = settings.getPersistenceSettings().getCustomSettings();
+        return new Settings(customSettings.getProperties(), customSettings.getPrefix() + PREFIX_REPLICA, false);
+    }
+
+    private static boolean isConfigured(Settings settings, String name) {
+        return settings.containsName(name) && !settings.get(name).isEmpty();
+    }
+
     /**
      * Creates a connection, setting up a new pool if needed.
      *
@@ -425,7 +912,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         synchronized (existingPools) {
             ConnectionSource source = existingPools.get(name);
             if (source == null) {
-                if (settings.containsName(TAG_DB_URL) && !settings.get(TAG_DB_URL).isEmpty()) {
+                if (isConfigured(settings, TAG_DB_URL)) {
                     source = setupBasicDataSource(settings);
                 } else {
                     source = setupDataSource(settings);
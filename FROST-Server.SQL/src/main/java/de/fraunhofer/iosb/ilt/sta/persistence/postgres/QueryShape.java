@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ConstantImpl;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.sql.SQLQuery;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.Property;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
+import de.fraunhofer.iosb.ilt.sta.query.Expand;
+import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.sta.query.expression.constant.Constant;
+import de.fraunhofer.iosb.ilt.sta.query.expression.constant.DoubleConstant;
+import de.fraunhofer.iosb.ilt.sta.query.expression.constant.IntegerConstant;
+import de.fraunhofer.iosb.ilt.sta.query.expression.constant.StringConstant;
+import de.fraunhofer.iosb.ilt.sta.query.expression.function.Function;
+import de.fraunhofer.iosb.ilt.sta.query.expression.function.string.EndsWith;
+import de.fraunhofer.iosb.ilt.sta.query.expression.function.string.StartsWith;
+import de.fraunhofer.iosb.ilt.sta.query.expression.function.string.SubstringOf;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The shape of a request: the path and the query options that influence the
+ * generated SQL, with the entity ids and the number and string literals
+ * replaced by parameter slots. Requests with the same shape generate the same
+ * SQL, with only different parameter values. The string literals of
+ * startswith, endswith and substringof are part of the shape, since QueryDSL
+ * only escapes LIKE wildcards in constants.
+ *
+ * The $top and $skip are not part of the shape, they are added to the SQL as
+ * parameters when it is executed. Requests with $count or a $skiptoken are not
+ * cacheable, since these change the queries that are executed.
+ *
+ * @author scf
+ */
+public class QueryShape {
+
+    private final String key;
+    private final boolean cacheable;
+    /**
+     * The value of each slot, in order of appearance.
+     */
+    private final List<Object> slotValues = new ArrayList<>();
+    /**
+     * The slot number of each id and literal of the request.
+     */
+    private final Map<Object, Integer> slotByNode = new IdentityHashMap<>();
+    /**
+     * The parameters handed out for the slots, null for slots that were not
+     * used in the generated SQL.
+     */
+    private final List<Param<?>> params = new ArrayList<>();
+
+    /**
+     * Create the shape of the given request.
+     *
+     * @param prefix A prefix for the key, identifying the persistence manager
+     * implementation.
+     * @param path The path of the request.
+     * @param query The query options of the request.
+     */
+    public QueryShape(String prefix, ResourcePath path, Query query) {
+        StringBuilder builder = new StringBuilder(prefix);
+        int count = path.size();
+        for (int i = 0; i < count; i++) {
+            builder.append('/');
+            appendPathElement(builder, path.get(i));
+        }
+        if (query == null) {
+            cacheable = true;
+        } else {
+            cacheable = !query.isCountOrDefault() && query.getSkipToken() == null;
+            appendQuery(builder, query);
+        }
+        key = builder.toString();
+        for (int i = 0; i < slotValues.size(); i++) {
+            params.add(null);
+        }
+    }
+
+    private void appendPathElement(StringBuilder builder, ResourcePathElement element) {
+        if (element instanceof EntityPathElement) {
+            EntityPathElement entityElement = (EntityPathElement) element;
+            builder.append(element.toString());
+            Id id = entityElement.getId();
+            if (id != null) {
+                builder.append("(?").append(id.getBasicPersistenceType()).append(')');
+                addSlot(id, id.asBasicPersistenceType());
+            }
+        } else {
+            builder.append(element.toString());
+        }
+    }
+
+    private void appendQuery(StringBuilder builder, Query query) {
+        TreeSet<String> select = new TreeSet<>();
+        for (Property property : query.getSelect()) {
+            select.add(property.getName());
+        }
+        builder.append("?$select=").append(select);
+
+        // Only the first element of each expand influences the selected columns.
+        TreeSet<String> expand = new TreeSet<>();
+        for (Expand item : query.getExpand()) {
+            if (!item.getPath().isEmpty()) {
+                expand.add(item.getPath().get(0).getName());
+            }
+        }
+        builder.append("&$expand=").append(expand);
+
+        builder.append("&$orderby=");
+        for (OrderBy orderBy : query.getOrderBy()) {
+            appendExpression(builder, orderBy.getExpression());
+            builder.append(' ').append(orderBy.getType()).append(',');
+        }
+        Expression filter = query.getFilter();
+        if (filter != null) {
+            builder.append("&$filter=");
+            appendExpression(builder, filter);
+        }
+    }
+
+    private void appendExpression(StringBuilder builder, Expression expression) {
+        if (expression instanceof Function) {
+            Function function = (Function) expression;
+            builder.append(function.getClass().getSimpleName()).append('(');
+            // The string literals of LIKE functions stay constants, so that
+            // QueryDSL escapes the wildcards in them.
+            boolean isLike = function instanceof StartsWith
+                    || function instanceof EndsWith
+                    || function instanceof SubstringOf;
+            for (Expression parameter : function.getParameters()) {
+                if (isLike && parameter instanceof StringConstant) {
+                    builder.append(parameter.toUrl());
+                } else {
+                    appendExpression(builder, parameter);
+                }
+                builder.append(',');
+            }
+            builder.append(')');
+        } else if (expression instanceof IntegerConstant
+                || expression instanceof DoubleConstant
+                || expression instanceof StringConstant) {
+            builder.append('?').append(expression.getClass().getSimpleName());
+            addSlot(expression, ((Constant<?>) expression).getValue());
+        } else {
+            builder.append(expression.toUrl());
+        }
+    }
+
+    private void addSlot(Object node, Object value) {
+        slotByNode.put(node, slotValues.size());
+        slotValues.add(value);
+    }
+
+    /**
+     * The key of the shape. Requests with the same key have the same shape.
+     *
+     * @return The key of the shape.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Check if the SQL of requests with this shape can be cached.
+     *
+     * @return true if the SQL of requests with this shape can be cached.
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * Get the expression to use in the SQL for the given id or literal. If the
+     * node is a slot of this shape, this is a parameter, otherwise a constant.
+     *
+     * @param <T> The type of the value.
+     * @param node The id or literal of the request.
+     * @param value The value of the node, as used in the SQL.
+     * @return The expression to use for the node.
+     */
+    public <T> com.querydsl.core.types.Expression<T> parameterFor(Object node, T value) {
+        Integer slot = slotByNode.get(node);
+        if (slot == null || value == null) {
+            return ConstantImpl.create(value);
+        }
+        Param<T> param = (Param<T>) params.get(slot);
+        if (param == null) {
+            param = new Param<>((Class<T>) value.getClass(), "p" + slot);
+            params.set(slot, param);
+        }
+        return param;
+    }
+
+    /**
+     * The number of slots of this shape.
+     *
+     * @return The number of slots of this shape.
+     */
+    public int getSlotCount() {
+        return slotValues.size();
+    }
+
+    /**
+     * The value of the given slot, for this request.
+     *
+     * @param slot The slot to get the value of.
+     * @return The value of the slot.
+     */
+    public Object getSlotValue(int slot) {
+        return slotValues.get(slot);
+    }
+
+    /**
+     * Check if a parameter was handed out for the given slot.
+     *
+     * @param slot The slot to check.
+     * @return true if the slot is used as parameter in the generated SQL.
+     */
+    public boolean isSlotUsed(int slot) {
+        return params.get(slot) != null;
+    }
+
+    /**
+     * Find the slot of the given parameter.
+     *
+     * @param param The parameter to find the slot of.
+     * @return The slot, or -1 if the parameter was not handed out by this
+     * shape.
+     */
+    public int findSlot(ParamExpression<?> param) {
+        for (int i = 0; i < params.size(); i++) {
+            if (params.get(i) == param) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Set the values of all used slots on the given query, for executing the
+     * query directly.
+     *
+     * @param sqlQuery The query to set the parameter values on.
+     */
+    public void bindParameters(SQLQuery<Tuple> sqlQuery) {
+        for (int i = 0; i < params.size(); i++) {
+            Param<Object> param = (Param<Object>) params.get(i);
+            if (param != null) {
+                sqlQuery.set(param, slotValues.get(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.QTuple;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.SQLBindings;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.dml.AbstractSQLClause;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes insert and update clauses so that the written rows are returned by
+ * the statement itself, using INSERT ... RETURNING and UPDATE ... RETURNING.
+ * This saves reading the rows back after the write.
+ *
+ * @author scf
+ */
+public class ReturningExecutor {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReturningExecutor.class);
+
+    private ReturningExecutor() {
+        // Utility class, should not be instantiated.
+    }
+
+    /**
+     * Execute the given clause, and return the given columns of all rows it
+     * wrote. The batches of a clause are grouped by their SQL, since batches
+     * can differ in the columns they set. Each group is executed as one JDBC
+     * batch, and the rows are returned in the order of the batches.
+     *
+     * @param qFactory The query factory the clause was created with.
+     * @param clause The insert or update clause to execute.
+     * @param columns The columns to return. These are also the keys of the
+     * returned tuples.
+     * @return The written rows.
+     */
+    public static List<Tuple> execute(SQLQueryFactory qFactory, AbstractSQLClause<?> clause, Path<?>... columns) {
+        List<SQLBindings> statements = clause.getSQL();
+        if (statements.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String[] columnNames = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnNames[i] = ColumnMetadata.getName(columns[i]);
+        }
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < statements.size(); i++) {
+            groups.computeIfAbsent(statements.get(i).getSQL(), k -> new ArrayList<>()).add(i);
+        }
+        if (groups.size() == 1) {
+            return execute(qFactory, statements, groups.values().iterator().next(), columnNames, columns);
+        }
+        Tuple[] rows = new Tuple[statements.size()];
+        for (List<Integer> group : groups.values()) {
+            List<Tuple> groupRows = execute(qFactory, statements, group, columnNames, columns);
+            if (groupRows.size() != group.size()) {
+                throw new IllegalStateException("Batch of " + group.size() + " statements returned " + groupRows.size() + " rows.");
+            }
+            for (int i = 0; i < group.size(); i++) {
+                rows[group.get(i)] = groupRows.get(i);
+            }
+        }
+        return Arrays.asList(rows);
+    }
+
+    /**
+     * Execute the statements with the given indices, that all have the same
+     * SQL, as one JDBC batch.
+     */
+    private static List<Tuple> execute(SQLQueryFactory qFactory, List<SQLBindings> statements, List<Integer> indices, String[] columnNames, Path<?>[] columns) {
+        Configuration configuration = qFactory.getConfiguration();
+        SQLBindings first = statements.get(indices.get(0));
+        String sql = first.getSQL();
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", sql);
+        }
+        // The driver adds the RETURNING clause for the requested columns.
+        try (PreparedStatement stmt = qFactory.getConnection().prepareStatement(sql, columnNames)) {
+            if (indices.size() == 1) {
+                setParameters(configuration, stmt, first);
+                stmt.executeUpdate();
+            } else {
+                for (Integer index : indices) {
+                    setParameters(configuration, stmt, statements.get(index));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            return readRows(configuration, stmt, columns);
+        } catch (SQLException exc) {
+            throw configuration.translate(sql, first.getNullFriendlyBindings(), exc);
+        }
+    }
+
+    static void setParameters(Configuration configuration, PreparedStatement stmt, SQLBindings bindings) throws SQLException {
+        List<Object> values = bindings.getNullFriendlyBindings();
+        for (int i = 0; i < values.size(); i++) {
+            configuration.set(stmt, null, i + 1, values.get(i));
+        }
+    }
+
+    private static List<Tuple> readRows(Configuration configuration, PreparedStatement stmt, Path<?>[] columns) throws SQLException {
+        QTuple projection = Projections.tuple(columns);
+        List<Tuple> rows = new ArrayList<>();
+        try (ResultSet rs = stmt.getGeneratedKeys()) {
+            while (rs.next()) {
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = configuration.get(rs, columns[i], i + 1, columns[i].getType());
+                }
+                rows.add(projection.newInstance(values));
+            }
+        }
+        return rows;
+    }
+}
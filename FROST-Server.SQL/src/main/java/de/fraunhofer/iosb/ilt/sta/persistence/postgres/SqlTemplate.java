@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.SQLSerializer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The SQL generated for a QueryShape, with the layout of its bind parameters.
+ * Executing a template only binds the parameter values of the request, without
+ * building and serializing the query again. Since the SQL text is identical
+ * for all requests with the same shape, the JDBC driver can re-use its
+ * server-side prepared statement.
+ *
+ * The LIMIT and OFFSET are appended as the last two parameters.
+ *
+ * @author scf
+ */
+public class SqlTemplate {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlTemplate.class);
+
+    private final String sql;
+    /**
+     * The fixed value of each bind parameter, null for parameters that take
+     * the value of a slot.
+     */
+    private final Object[] values;
+    /**
+     * The slot of each bind parameter, -1 for fixed parameters.
+     */
+    private final int[] slots;
+    /**
+     * The path each bind parameter is compared to, if any.
+     */
+    private final Path<?>[] paths;
+    /**
+     * The values of the slots that did not end up as parameters. Requests with
+     * other values for these slots can not use this template.
+     */
+    private final Map<Integer, Object> fixedSlots;
+    private final FactoryExpression<Tuple> projection;
+    private final QueryMetadata metadata;
+
+    private SqlTemplate(String sql, Object[] values, int[] slots, Path<?>[] paths, Map<Integer, Object> fixedSlots, FactoryExpression<Tuple> projection, QueryMetadata metadata) {
+        this.sql = sql;
+        this.values = values;
+        this.slots = slots;
+        this.paths = paths;
+        this.fixedSlots = fixedSlots;
+        this.projection = projection;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Create a template from the given query, that was built with the
+     * parameters of the given shape. The query must not have a limit or
+     * offset.
+     *
+     * @param configuration The configuration to serialize the query with.
+     * @param sqlQuery The query to create the template from.
+     * @param shape The shape the query was built for.
+     * @return The template, or null if the query can not be turned into a
+     * template.
+     */
+    public static SqlTemplate create(Configuration configuration, SQLQuery<Tuple> sqlQuery, QueryShape shape) {
+        QueryMetadata queryMetadata = sqlQuery.getMetadata();
+        Expression<?> projection = queryMetadata.getProjection();
+        if (!(projection instanceof FactoryExpression)) {
+            return null;
+        }
+        for (Expression<?> arg : ((FactoryExpression<?>) projection).getArgs()) {
+            if (arg instanceof FactoryExpression) {
+                LOGGER.debug("Nested projections are not supported by templates.");
+                return null;
+            }
+        }
+
+        SQLSerializer serializer = new SQLSerializer(configuration);
+        serializer.serialize(queryMetadata, false);
+        List<Object> constants = serializer.getConstants();
+        List<Path<?>> constantPaths = serializer.getConstantPaths();
+        if (constants.size() != constantPaths.size()) {
+            return null;
+        }
+        int count = constants.size();
+        Object[] values = new Object[count];
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            Object constant = constants.get(i);
+            if (constant instanceof ParamExpression) {
+                slots[i] = shape.findSlot((ParamExpression<?>) constant);
+                if (slots[i] < 0) {
+                    return null;
+                }
+            } else if (constant == null) {
+                return null;
+            } else {
+                slots[i] = -1;
+                values[i] = constant;
+            }
+        }
+        Map<Integer, Object> fixedSlots = new HashMap<>();
+        for (int slot = 0; slot < shape.getSlotCount(); slot++) {
+            if (!shape.isSlotUsed(slot)) {
+                fixedSlots.put(slot, shape.getSlotValue(slot));
+            }
+        }
+        String sql = serializer.toString() + "\nlimit ?\noffset ?";
+        return new SqlTemplate(
+                sql,
+                values,
+                slots,
+                constantPaths.toArray(new Path<?>[count]),
+                fixedSlots,
+                (FactoryExpression<Tuple>) projection,
+                queryMetadata.clone());
+    }
+
+    /**
+     * Check if this template can be used for the given shape, that has the
+     * same key as the shape the template was created for.
+     *
+     * @param shape The shape to check.
+     * @return true if the template can be used for the shape.
+     */
+    public boolean matches(QueryShape shape) {
+        for (Map.Entry<Integer, Object> entry : fixedSlots.entrySet()) {
+            if (!entry.getValue().equals(shape.getSlotValue(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The metadata of the query the template was created from.
+     *
+     * @return The metadata of the query the template was created from.
+     */
+    public QueryMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Execute the template with the slot values of the given shape.
+     *
+     * @param qFactory The query factory to get the connection and
+     * configuration from.
+     * @param shape The shape with the values to use for the slots.
+     * @param limit The maximum number of rows to return.
+     * @param offset The number of rows to skip.
+     * @return The rows.
+     */
+    public List<Tuple> fetch(SQLQueryFactory qFactory, QueryShape shape, long limit, long offset) {
+        Configuration configuration = qFactory.getConfiguration();
+        Object[] bindings = new Object[values.length + 2];
+        for (int i = 0; i < values.length; i++) {
+            bindings[i] = slots[i] < 0 ? values[i] : shape.getSlotValue(slots[i]);
+        }
+        bindings[values.length] = limit;
+        bindings[values.length + 1] = offset;
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Cached SQL:\n{}", sql);
+        }
+        try (PreparedStatement stmt = qFactory.getConnection().prepareStatement(sql)) {
+            for (int i = 0; i < bindings.length; i++) {
+                Path<?> path = i < paths.length ? paths[i] : null;
+                configuration.set(stmt, path, i + 1, bindings[i]);
+            }
+            return readRows(configuration, stmt);
+        } catch (SQLException exc) {
+            throw configuration.translate(sql, Arrays.asList(bindings), exc);
+        }
+    }
+
+    private List<Tuple> readRows(Configuration configuration, PreparedStatement stmt) throws SQLException {
+        List<Expression<?>> args = projection.getArgs();
+        List<Tuple> rows = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Object[] row = new Object[args.size()];
+                for (int i = 0; i < row.length; i++) {
+                    Expression<?> arg = args.get(i);
+                    Path<?> path = arg instanceof Path ? (Path<?>) arg : null;
+                    row[i] = configuration.get(rs, path, i + 1, arg.getType());
+                }
+                rows.add(projection.newInstance(row));
+            }
+        }
+        return rows;
+    }
+
+}
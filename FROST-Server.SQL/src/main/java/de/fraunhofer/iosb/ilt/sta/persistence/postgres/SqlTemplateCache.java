@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least-recently-used cache of SqlTemplates, by the key of their QueryShape.
+ * Shared by all persistence managers.
+ *
+ * @author scf
+ */
+public class SqlTemplateCache {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlTemplateCache.class);
+    private static SqlTemplateCache instance;
+
+    private final int maxSize;
+    private final Map<String, SqlTemplate> templates;
+
+    /**
+     * Get the cache with the given size.
+     *
+     * @param maxSize The maximum number of templates in the cache.
+     * @return The cache, or null if the size is 0 or less.
+     */
+    public static synchronized SqlTemplateCache getInstance(int maxSize) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        if (instance == null || instance.maxSize != maxSize) {
+            instance = new SqlTemplateCache(maxSize);
+        }
+        return instance;
+    }
+
+    private SqlTemplateCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.templates = new LinkedHashMap<String, SqlTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SqlTemplate> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the template for the given shape.
+     *
+     * @param shape The shape to get the template for.
+     * @return The template, or null if there is no template for the shape.
+     */
+    public synchronized SqlTemplate get(QueryShape shape) {
+        SqlTemplate template = templates.get(shape.getKey());
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Template cache {} for {}", template == null ? "miss" : "hit", shape.getKey());
+        }
+        return template;
+    }
+
+    /**
+     * Store the template for the given shape.
+     *
+     * @param shape The shape the template was created for.
+     * @param template The template.
+     */
+    public synchronized void put(QueryShape shape, SqlTemplate template) {
+        templates.put(shape.getKey(), template);
+    }
+
+}
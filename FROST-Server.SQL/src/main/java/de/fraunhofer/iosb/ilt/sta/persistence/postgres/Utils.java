@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.RawValue;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.custom.GeoJsonDeserializier;
 import de.fraunhofer.iosb.ilt.sta.model.ext.TimeInstant;
@@ -28,6 +29,9 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.Map;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +51,7 @@ public class Utils {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(Utils.class);
     private static final String FAILED_JSON_PARSE = "Failed to parse stored json.";
+    private static final DateTimeFormatter UTC_TIME_PRINTER = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
 
     private Utils() {
         // Utility class, should not be instantiated.
@@ -80,6 +85,76 @@ public class Utils {
         return intervalFromTimes(timeStart, timeEnd);
     }
 
+    /**
+     * Format the given time the same way a TimeInstant is formatted, without
+     * creating the TimeInstant.
+     *
+     * @param time The time to format.
+     * @return The ISO 8601 representation of the time, or null.
+     */
+    public static String timeToIso(Timestamp time) {
+        if (time == null) {
+            return null;
+        }
+        return UTC_TIME_PRINTER.print(time.getTime());
+    }
+
+    /**
+     * Format the given times the same way the TimeValue from
+     * {@link #valueFromTimes(Timestamp, Timestamp)} is formatted, without
+     * creating the TimeValue.
+     *
+     * @param timeStart The start time.
+     * @param timeEnd The end time.
+     * @return The ISO 8601 representation of the time or interval, or null.
+     */
+    public static String timesToIso(Timestamp timeStart, Timestamp timeEnd) {
+        if (timeEnd == null || timeEnd.equals(timeStart)) {
+            return timeToIso(timeStart);
+        }
+        return intervalToIso(timeStart, timeEnd);
+    }
+
+    /**
+     * Format the given times the same way the TimeInterval from
+     * {@link #intervalFromTimes(Timestamp, Timestamp)} is formatted, without
+     * creating the TimeInterval.
+     *
+     * @param timeStart The start time.
+     * @param timeEnd The end time.
+     * @return The ISO 8601 representation of the interval, or null.
+     */
+    public static String intervalToIso(Timestamp timeStart, Timestamp timeEnd) {
+        if (timeStart == null) {
+            timeStart = Timestamp.valueOf(LocalDateTime.MAX);
+        }
+        if (timeEnd == null) {
+            timeEnd = Timestamp.valueOf(LocalDateTime.MIN);
+        }
+        if (timeEnd.before(timeStart)) {
+            return null;
+        }
+        StringBuilder timeString = new StringBuilder(48);
+        UTC_TIME_PRINTER.printTo(timeString, timeStart.getTime());
+        timeString.append('/');
+        UTC_TIME_PRINTER.printTo(timeString, timeEnd.getTime());
+        return timeString.toString();
+    }
+
+    /**
+     * Wrap stored json, so that it is written out as is, without parsing it.
+     * Only for json that was serialised by the server itself.
+     *
+     * @param json The stored json.
+     * @return The json, wrapped for writing, or null.
+     */
+    public static RawValue jsonToRaw(String json) {
+        if (json == null) {
+            return null;
+        }
+        return new RawValue(json);
+    }
+
     public static Object locationFromEncoding(String encodingType, String locationString) {
         if (locationString == null || locationString.isEmpty()) {
             return null;
@@ -17,8 +17,8 @@
  */
 package de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression;
 
-import com.querydsl.core.types.Constant;
 import com.querydsl.core.types.ConstantImpl;
+import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.Visitor;
 import com.querydsl.core.types.dsl.NumberExpression;
 import javax.annotation.Nullable;
@@ -35,10 +35,17 @@ public class ConstantNumberExpression<N extends Number & Comparable<?>> extends
         super(ConstantImpl.create(constant));
     }
 
+    /**
+     * @param constant The constant or parameter holding the number.
+     */
+    public ConstantNumberExpression(final Expression<N> constant) {
+        super(constant);
+    }
+
     @Override
     @Nullable
     public <R, C> R accept(final Visitor<R, C> v, @Nullable final C context) {
-        return v.visit((Constant<N>) mixin, context);
+        return mixin.accept(v, context);
     }
 
 }
@@ -17,8 +17,8 @@
  */
 package de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression;
 
-import com.querydsl.core.types.Constant;
 import com.querydsl.core.types.ConstantImpl;
+import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.Visitor;
 import com.querydsl.core.types.dsl.StringExpression;
 import javax.annotation.Nullable;
@@ -33,10 +33,17 @@ public class ConstantStringExpression extends StringExpression {
         super(ConstantImpl.create(constant));
     }
 
+    /**
+     * @param constant The constant or parameter holding the string.
+     */
+    public ConstantStringExpression(final Expression<String> constant) {
+        super(constant);
+    }
+
     @Override
     @Nullable
     public <R, C> R accept(Visitor<R, C> v, C context) {
-        return v.visit((Constant<String>) mixin, context);
+        return mixin.accept(v, context);
     }
 
 }
@@ -165,7 +165,9 @@ public class StaTimeIntervalExpression implements TimeExpression {
                 return e1.loe(t2).and(s1.lt(t2));
 
             case "<=":
-                return e1.loe(t2);
+                // The start condition follows from the end condition, but
+                // lets the database use indexes and partitions on the start.
+                return e1.loe(t2).and(s1.loe(t2));
 
             case "a":
                 return s1.gt(t2);
@@ -186,7 +188,7 @@ public class StaTimeIntervalExpression implements TimeExpression {
                 return s1.eq(t2);
 
             case "f":
-                return e1.eq(t2);
+                return e1.eq(t2).and(s1.loe(t2));
 
             default:
                 throw new UnsupportedOperationException("Unknown boolean operation: " + op);
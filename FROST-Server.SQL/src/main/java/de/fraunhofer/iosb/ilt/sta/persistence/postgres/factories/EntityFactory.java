@@ -28,6 +28,8 @@ import de.fraunhofer.iosb.ilt.sta.persistence.postgres.PostgresPersistenceManage
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -62,13 +64,60 @@ public interface EntityFactory<T extends Entity, I extends SimpleExpression<J> &
      */
     public boolean insert(PostgresPersistenceManager<I, J> pm, T entity) throws NoSuchEntityException, IncompleteEntityException;
 
+    /**
+     * Insert the given entity into the database as a new entity, and return
+     * the entity as it is stored, if that is known without reading it back.
+     * The default implementation calls insert and returns null.
+     *
+     * @param pm The persistenceManager to use to access the database.
+     * @param entity The entity to insert into the database.
+     * @return The entity as it is stored in the database, or null if it has to
+     * be read back.
+     * @throws NoSuchEntityException If the entity depends on another entity
+     * that does not exist.
+     * @throws IncompleteEntityException If the entity is not complete and can
+     * thus not be inserted.
+     */
+    public default T insertReturning(PostgresPersistenceManager<I, J> pm, T entity) throws NoSuchEntityException, IncompleteEntityException {
+        insert(pm, entity);
+        return null;
+    }
+
+    /**
+     * Insert the given entities into the database as new entities. An entity
+     * that can not be inserted does not stop the insertion of the others. The
+     * default implementation inserts the entities one by one.
+     *
+     * @param pm The persistenceManager to use to access the database.
+     * @param entities The entities to insert into the database.
+     * @param stored The list to add, for each entity in the same order, the
+     * entity as it is stored to, or null if that is not known.
+     * @return A list with, for each entity in the same order, null if the
+     * entity was inserted, or the Exception explaining why it was not.
+     */
+    public default List<Exception> insertAll(PostgresPersistenceManager<I, J> pm, List<T> entities, List<? super T> stored) {
+        List<Exception> errors = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            try {
+                stored.add(insertReturning(pm, entity));
+                errors.add(null);
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                errors.add(exc);
+                stored.add(null);
+            }
+        }
+        return errors;
+    }
+
     /**
      * Update the given entity in the database.
      *
      * @param pm The persistenceManager to use to access the database.
      * @param entity The updated entity.
      * @param entityId The id of the entity to update.
-     * @return The message with the details about what was updated.
+     * @return The message with the details about what was updated. If the
+     * entity as it is stored after the update is known, it is set in the
+     * message.
      * @throws NoSuchEntityException If the update can not happen because a
      * related entity is missing.
      * @throws IncompleteEntityException If the update can not happen because
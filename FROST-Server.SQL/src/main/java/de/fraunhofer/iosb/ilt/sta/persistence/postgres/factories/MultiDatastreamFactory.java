@@ -224,6 +224,10 @@ public class MultiDatastreamFactory<I extends SimpleExpression<J> & Path<J>, J>
         }
 
         linkExistingObservedProperties(mdsId, countOrig, ops, qFactory, pm);
+        if (!ops.isEmpty()) {
+            // Other transactions see the change when its message arrives.
+            pm.setObservedPropertiesLinked();
+        }
 
         linkExistingObservations(md, pm, qFactory, mdsId);
 
@@ -24,13 +24,16 @@ import com.querydsl.core.types.dsl.SimpleExpression;
 import com.querydsl.sql.SQLQueryFactory;
 import com.querydsl.sql.dml.SQLInsertClause;
 import com.querydsl.sql.dml.SQLUpdateClause;
+import de.fraunhofer.iosb.ilt.sta.formatter.DefaultResultFormater.VisibleComponents;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.FeatureOfInterest;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.sta.model.ext.TimeInterval;
 import de.fraunhofer.iosb.ilt.sta.model.ext.TimeValue;
 import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
@@ -39,11 +42,15 @@ import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.DataSize;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.DatastreamExtents;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.IdGenerationHandler;
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CAN_NOT_BE_NULL;
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CHANGED_MULTIPLE_ROWS;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ObservedPropertyCountCache;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.PostgresPersistenceManager;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ResultType;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ReturningExecutor;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.Utils;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQObservations;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.QCollection;
@@ -52,7 +59,10 @@ import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -70,6 +80,10 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ObservationFactory.class);
+    /**
+     * The maximum number of Observations written in one JDBC batch.
+     */
+    private static final int BATCH_SIZE = 1000;
 
     private final EntityFactories<I, J> entityFactories;
     private final AbstractQObservations<?, I, J> qInstance;
@@ -125,6 +139,67 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
         return entity;
     }
 
+    /**
+     * Create the dataArray row of an Observation directly from the tuple,
+     * without creating the Observation. Times are formatted directly, and
+     * stored json is written out without parsing it.
+     *
+     * @param tuple The tuple to create the row from.
+     * @param visComps The components to put in the row.
+     * @return The row.
+     */
+    public List<Object> createDataArrayRow(Tuple tuple, VisibleComponents visComps) {
+        List<Object> row = new ArrayList<>();
+        if (visComps.id) {
+            row.add(entityFactories.getIdFromTuple(tuple, qInstance.getId()));
+        }
+        if (visComps.phenomenonTime) {
+            row.add(Utils.timesToIso(tuple.get(qInstance.phenomenonTimeStart), tuple.get(qInstance.phenomenonTimeEnd)));
+        }
+        if (visComps.result) {
+            row.add(readRawResult(tuple));
+        }
+        if (visComps.resultTime) {
+            row.add(Utils.timeToIso(tuple.get(qInstance.resultTime)));
+        }
+        if (visComps.resultQuality) {
+            row.add(Utils.jsonToRaw(tuple.get(qInstance.resultQuality)));
+        }
+        if (visComps.validTime) {
+            Timestamp vTimeStart = tuple.get(qInstance.validTimeStart);
+            Timestamp vTimeEnd = tuple.get(qInstance.validTimeEnd);
+            row.add(vTimeStart == null || vTimeEnd == null ? null : Utils.intervalToIso(vTimeStart, vTimeEnd));
+        }
+        if (visComps.parameters) {
+            row.add(Utils.jsonToRaw(tuple.get(qInstance.parameters)));
+        }
+        return row;
+    }
+
+    private Object readRawResult(Tuple tuple) {
+        Byte resultTypeOrd = tuple.get(qInstance.resultType);
+        if (resultTypeOrd == null) {
+            return null;
+        }
+        switch (ResultType.fromSqlValue(resultTypeOrd)) {
+            case BOOLEAN:
+                return tuple.get(qInstance.resultBoolean);
+            case NUMBER:
+                try {
+                    return new BigDecimal(tuple.get(qInstance.resultString));
+                } catch (NumberFormatException e) {
+                    // It was not a Number? Use the double value.
+                    return tuple.get(qInstance.resultNumber);
+                }
+            case OBJECT_ARRAY:
+                return Utils.jsonToRaw(tuple.get(qInstance.resultJson));
+            case STRING:
+                return tuple.get(qInstance.resultString);
+            default:
+                return null;
+        }
+    }
+
     private void readResultQuality(Set<Property> select, Tuple tuple, DataSize dataSize, Observation entity) {
         if (select.isEmpty() || select.contains(EntityProperty.RESULTQUALITY)) {
             String resultQuality = tuple.get(qInstance.resultQuality);
@@ -168,6 +243,12 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
 
     @Override
     public boolean insert(PostgresPersistenceManager<I, J> pm, Observation newObservation) throws NoSuchEntityException, IncompleteEntityException {
+        insertReturning(pm, newObservation);
+        return true;
+    }
+
+    @Override
+    public Observation insertReturning(PostgresPersistenceManager<I, J> pm, Observation newObservation) throws NoSuchEntityException, IncompleteEntityException {
         Datastream ds = newObservation.getDatastream();
         MultiDatastream mds = newObservation.getMultiDatastream();
         Id streamId;
@@ -212,17 +293,202 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
         handleResult(newObservation, newIsMultiDatastream, pm, query, qo);
 
         if (newObservation.getResultQuality() != null) {
-            query.set(qo.resultQuality, newObservation.getResultQuality().toString());
+            query.set(qo.resultQuality, EntityFactories.objectToJson(newObservation.getResultQuality()));
         }
         query.set(qo.parameters, EntityFactories.objectToJson(newObservation.getParameters()));
         query.set(qo.getFeatureId(), (J) f.getId().getValue());
 
         entityFactories.insertUserDefinedId(pm, query, qo.getId(), newObservation);
 
-        J generatedId = query.executeWithKey(qo.getId());
-        LOGGER.debug("Inserted Observation. Created id = {}.", generatedId);
-        newObservation.setId(entityFactories.idFromObject(generatedId));
-        return true;
+        List<Tuple> rows = ReturningExecutor.execute(qFactory, query, qInstance.all());
+        if (rows.size() != 1) {
+            throw new IllegalStateException("Inserting an Observation returned " + rows.size() + " rows.");
+        }
+        Observation stored = create(rows.get(0), null, new DataSize());
+        addToExtents(pm.getPendingExtents(), rows.get(0));
+        LOGGER.debug("Inserted Observation. Created id = {}.", stored.getId());
+        newObservation.setId(stored.getId());
+        return stored;
+    }
+
+    @Override
+    public List<Exception> insertAll(PostgresPersistenceManager<I, J> pm, List<Observation> observations, List<? super Observation> stored) {
+        List<Exception> errors = new ArrayList<>(Collections.nCopies(observations.size(), (Exception) null));
+        Observation[] storedRows = new Observation[observations.size()];
+        CheckedEntities checked = new CheckedEntities();
+        InsertBatch serverIds = new InsertBatch(pm, storedRows);
+        InsertBatch clientIds = new InsertBatch(pm, storedRows);
+        AbstractQObservations<? extends AbstractQObservations, I, J> qo = qCollection.qObservations;
+        for (int i = 0; i < observations.size(); i++) {
+            Observation newObservation = observations.get(i);
+            try {
+                // All checks must be done before anything is set on the batch
+                // clause, otherwise a failing row would leave values behind.
+                Datastream ds = newObservation.getDatastream();
+                MultiDatastream mds = newObservation.getMultiDatastream();
+                Id streamId;
+                boolean newIsMultiDatastream = false;
+                if (ds != null) {
+                    checkExistsOrCreate(pm, ds, checked.datastreams);
+                    streamId = ds.getId();
+                } else if (mds != null) {
+                    checkExistsOrCreate(pm, mds, checked.multiDatastreams);
+                    streamId = mds.getId();
+                    newIsMultiDatastream = true;
+                } else {
+                    throw new IncompleteEntityException("Missing Datastream or MultiDatastream.");
+                }
+
+                FeatureOfInterest f = newObservation.getFeatureOfInterest();
+                if (f == null) {
+                    f = generateFeatureOfInterest(pm, streamId, newIsMultiDatastream, checked);
+                } else {
+                    checkExistsOrCreate(pm, f, checked.features);
+                }
+
+                if (newIsMultiDatastream) {
+                    Long count = checked.observedPropertyCounts.get(streamId);
+                    if (count == null) {
+                        count = countObservedProperties(pm, mds);
+                        checked.observedPropertyCounts.put(streamId, count);
+                    }
+                    checkResultSize(newObservation.getResult(), count);
+                }
+
+                IdGenerationHandler idhandler = pm.createIdGenerationHanlder(newObservation);
+                InsertBatch batch;
+                if (idhandler.useClientSuppliedId()) {
+                    idhandler.modifyClientSuppliedId();
+                    batch = clientIds;
+                    batch.clause.set(qo.getId(), (J) idhandler.getIdValue());
+                } else {
+                    batch = serverIds;
+                }
+                setBatchColumns(batch.clause, qo, newObservation, f);
+                batch.add(newObservation, i);
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                errors.set(i, exc);
+            }
+        }
+        serverIds.flush();
+        clientIds.flush();
+        stored.addAll(Arrays.asList(storedRows));
+        return errors;
+    }
+
+    /**
+     * Adds the inserted row to the extents of its (Multi)Datastream, if the
+     * Datastreams are aggregated deferred.
+     */
+    private void addToExtents(DatastreamExtents extents, Tuple row) {
+        if (extents == null) {
+            return;
+        }
+        extents.add(
+                row.get(qInstance.getDatastreamId()),
+                row.get(qInstance.getMultiDatastreamId()),
+                row.get(qInstance.phenomenonTimeStart),
+                row.get(qInstance.phenomenonTimeEnd),
+                row.get(qInstance.resultTime),
+                row.get(qInstance.getFeatureId()));
+    }
+
+    /**
+     * Sets all columns of the Observation in the clause. Unlike a single
+     * insert, all columns are always set, also when they are null, so that all
+     * rows of a batch use the same SQL.
+     */
+    private void setBatchColumns(SQLInsertClause clause, AbstractQObservations<? extends AbstractQObservations, I, J> qo, Observation newObservation, FeatureOfInterest f) {
+        Datastream ds = newObservation.getDatastream();
+        if (ds == null) {
+            clause.setNull(qo.getDatastreamId());
+        } else {
+            clause.set(qo.getDatastreamId(), (J) ds.getId().getValue());
+        }
+        MultiDatastream mds = newObservation.getMultiDatastream();
+        if (mds == null) {
+            clause.setNull(qo.getMultiDatastreamId());
+        } else {
+            clause.set(qo.getMultiDatastreamId(), (J) mds.getId().getValue());
+        }
+
+        TimeValue phenomenonTime = newObservation.getPhenomenonTime();
+        if (phenomenonTime == null) {
+            phenomenonTime = TimeInstant.now();
+        }
+        // insertTimeValue sets the columns of an instant in a different order.
+        if (phenomenonTime instanceof TimeInstant) {
+            EntityFactories.insertTimeInstant(clause, qo.phenomenonTimeStart, (TimeInstant) phenomenonTime);
+            EntityFactories.insertTimeInstant(clause, qo.phenomenonTimeEnd, (TimeInstant) phenomenonTime);
+        } else {
+            EntityFactories.insertTimeInterval(clause, qo.phenomenonTimeStart, qo.phenomenonTimeEnd, (TimeInterval) phenomenonTime);
+        }
+        if (newObservation.getResultTime() == null) {
+            clause.setNull(qo.resultTime);
+        } else {
+            EntityFactories.insertTimeInstant(clause, qo.resultTime, newObservation.getResultTime());
+        }
+        if (newObservation.getValidTime() == null) {
+            clause.setNull(qo.validTimeStart);
+            clause.setNull(qo.validTimeEnd);
+        } else {
+            EntityFactories.insertTimeInterval(clause, qo.validTimeStart, qo.validTimeEnd, newObservation.getValidTime());
+        }
+
+        setResult(newObservation.getResult(), clause, qo);
+
+        clause.set(qo.resultQuality, EntityFactories.objectToJson(newObservation.getResultQuality()));
+        clause.set(qo.parameters, EntityFactories.objectToJson(newObservation.getParameters()));
+        clause.set(qo.getFeatureId(), (J) f.getId().getValue());
+    }
+
+    /**
+     * Checks if the given related entity exists, or creates it, remembering
+     * the outcome for entities with an id, so each is only checked once.
+     */
+    private void checkExistsOrCreate(PostgresPersistenceManager<I, J> pm, Entity entity, Map<Id, Exception> checkedEntities) throws NoSuchEntityException, IncompleteEntityException {
+        Id id = entity.getId();
+        if (id == null) {
+            entityFactories.entityExistsOrCreate(pm, entity);
+            return;
+        }
+        if (checkedEntities.containsKey(id)) {
+            throwIfSet(checkedEntities.get(id));
+            return;
+        }
+        try {
+            entityFactories.entityExistsOrCreate(pm, entity);
+            checkedEntities.put(id, null);
+        } catch (NoSuchEntityException | IncompleteEntityException exc) {
+            checkedEntities.put(id, exc);
+            throw exc;
+        }
+    }
+
+    private FeatureOfInterest generateFeatureOfInterest(PostgresPersistenceManager<I, J> pm, Id streamId, boolean isMultiDatastream, CheckedEntities checked) throws NoSuchEntityException, IncompleteEntityException {
+        Map<Id, Object> generated = isMultiDatastream ? checked.multiDatastreamFeatures : checked.datastreamFeatures;
+        Object foi = generated.get(streamId);
+        if (foi == null) {
+            try {
+                foi = entityFactories.generateFeatureOfInterest(pm, streamId, isMultiDatastream);
+            } catch (NoSuchEntityException | IncompleteEntityException exc) {
+                foi = exc;
+            }
+            generated.put(streamId, foi);
+        }
+        if (foi instanceof Exception) {
+            throwIfSet((Exception) foi);
+        }
+        return (FeatureOfInterest) foi;
+    }
+
+    private static void throwIfSet(Exception exc) throws NoSuchEntityException, IncompleteEntityException {
+        if (exc instanceof NoSuchEntityException) {
+            throw (NoSuchEntityException) exc;
+        }
+        if (exc instanceof IncompleteEntityException) {
+            throw (IncompleteEntityException) exc;
+        }
     }
 
     @Override
@@ -277,14 +543,18 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
             message.addField(EntityProperty.VALIDTIME);
         }
         query.where(qo.getId().eq(id));
-        long count = 0;
-        if (!query.isEmpty()) {
-            count = query.execute();
+        if (query.isEmpty()) {
+            message.setEntity(oldObservation);
+            return message;
         }
-        if (count > 1) {
-            LOGGER.error("Updating Observation {} caused {} rows to change!", id, count);
+        List<Tuple> rows = ReturningExecutor.execute(qFactory, query, qInstance.all());
+        if (rows.size() > 1) {
+            LOGGER.error("Updating Observation {} caused {} rows to change!", id, rows.size());
             throw new IllegalStateException(CHANGED_MULTIPLE_ROWS);
         }
+        if (!rows.isEmpty()) {
+            message.setEntity(create(rows.get(0), null, new DataSize()));
+        }
         LOGGER.debug("Updated Observation {}", id);
         return message;
     }
@@ -292,43 +562,86 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
     private void handleResult(Observation newObservation, boolean newIsMultiDatastream, PostgresPersistenceManager<I, J> pm, StoreClause query, AbstractQObservations<? extends AbstractQObservations, I, J> qo) {
         Object result = newObservation.getResult();
         if (newIsMultiDatastream) {
-            MultiDatastream mds = newObservation.getMultiDatastream();
-            if (!(result instanceof List)) {
-                throw new IllegalArgumentException("Multidatastream only accepts array results.");
-            }
-            List list = (List) result;
-            ResourcePath path = mds.getPath();
-            path.addPathElement(new EntitySetPathElement(EntityType.OBSERVEDPROPERTY, null), false, false);
-            long count = pm.count(path, null);
-            if (count != list.size()) {
-                throw new IllegalArgumentException("Size of result array (" + list.size() + ") must match number of observed properties (" + count + ") in the MultiDatastream.");
+            checkResultSize(result, countObservedProperties(pm, newObservation.getMultiDatastream()));
+        }
+        setResult(result, query, qo);
+    }
+
+    private long countObservedProperties(PostgresPersistenceManager<I, J> pm, MultiDatastream mds) {
+        ObservedPropertyCountCache countCache = pm.getObservedPropertyCountCache();
+        Object mdsId = mds.getId() == null ? null : mds.getId().getValue();
+        long cacheGeneration = 0;
+        if (countCache != null && mdsId != null) {
+            Long count = countCache.get(mdsId);
+            if (count != null) {
+                return count;
             }
+            cacheGeneration = countCache.getGeneration();
         }
+        ResourcePath path = mds.getPath();
+        path.addPathElement(new EntitySetPathElement(EntityType.OBSERVEDPROPERTY, null), false, false);
+        long count = pm.count(path, null);
+        if (countCache != null && mdsId != null) {
+            countCache.put(mdsId, count, cacheGeneration);
+        }
+        return count;
+    }
+
+    private static void checkResultSize(Object result, long count) {
+        if (!(result instanceof List)) {
+            throw new IllegalArgumentException("Multidatastream only accepts array results.");
+        }
+        List list = (List) result;
+        if (count != list.size()) {
+            throw new IllegalArgumentException("Size of result array (" + list.size() + ") must match number of observed properties (" + count + ") in the MultiDatastream.");
+        }
+    }
 
+    /**
+     * Sets the result columns. All five columns are always set, in the same
+     * order, so that all rows of an insert batch use the same SQL.
+     */
+    private void setResult(Object result, StoreClause query, AbstractQObservations<? extends AbstractQObservations, I, J> qo) {
+        ResultType type;
+        String resultString = null;
+        Double resultNumber = null;
+        Boolean resultBoolean = null;
+        String resultJson = null;
         if (result instanceof Number) {
-            query.set(qo.resultType, ResultType.NUMBER.sqlValue());
-            query.set(qo.resultString, result.toString());
-            query.set(qo.resultNumber, ((Number) result).doubleValue());
-            query.setNull(qo.resultBoolean);
-            query.setNull(qo.resultJson);
+            type = ResultType.NUMBER;
+            resultString = result.toString();
+            resultNumber = ((Number) result).doubleValue();
         } else if (result instanceof Boolean) {
-            query.set(qo.resultType, ResultType.BOOLEAN.sqlValue());
-            query.set(qo.resultString, result.toString());
-            query.set(qo.resultBoolean, result);
-            query.setNull(qo.resultNumber);
-            query.setNull(qo.resultJson);
+            type = ResultType.BOOLEAN;
+            resultString = result.toString();
+            resultBoolean = (Boolean) result;
         } else if (result instanceof String) {
-            query.set(qo.resultType, ResultType.STRING.sqlValue());
-            query.set(qo.resultString, result.toString());
-            query.setNull(qo.resultNumber);
-            query.setNull(qo.resultBoolean);
-            query.setNull(qo.resultJson);
+            type = ResultType.STRING;
+            resultString = result.toString();
         } else {
-            query.set(qo.resultType, ResultType.OBJECT_ARRAY.sqlValue());
-            query.set(qo.resultJson, EntityFactories.objectToJson(result));
+            type = ResultType.OBJECT_ARRAY;
+            resultJson = EntityFactories.objectToJson(result);
+        }
+        query.set(qo.resultType, type.sqlValue());
+        if (resultString == null) {
             query.setNull(qo.resultString);
+        } else {
+            query.set(qo.resultString, resultString);
+        }
+        if (resultNumber == null) {
             query.setNull(qo.resultNumber);
+        } else {
+            query.set(qo.resultNumber, resultNumber);
+        }
+        if (resultBoolean == null) {
             query.setNull(qo.resultBoolean);
+        } else {
+            query.set(qo.resultBoolean, resultBoolean);
+        }
+        if (resultJson == null) {
+            query.setNull(qo.resultJson);
+        } else {
+            query.set(qo.resultJson, resultJson);
         }
     }
 
@@ -395,4 +708,78 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
         return qInstance.getId();
     }
 
+    /**
+     * The outcome of the checks on the related entities, done during one call
+     * to insertAll.
+     */
+    private static class CheckedEntities {
+
+        private final Map<Id, Exception> datastreams = new HashMap<>();
+        private final Map<Id, Exception> multiDatastreams = new HashMap<>();
+        private final Map<Id, Exception> features = new HashMap<>();
+        /**
+         * The generated FeatureOfInterest, or the Exception from generating it,
+         * per Datastream id.
+         */
+        private final Map<Id, Object> datastreamFeatures = new HashMap<>();
+        /**
+         * The generated FeatureOfInterest, or the Exception from generating it,
+         * per MultiDatastream id.
+         */
+        private final Map<Id, Object> multiDatastreamFeatures = new HashMap<>();
+        private final Map<Id, Long> observedPropertyCounts = new HashMap<>();
+    }
+
+    /**
+     * A JDBC batch of Observation inserts, that is executed each time it
+     * reaches BATCH_SIZE rows. The inserted rows are returned by the batch
+     * itself, and put in the stored array at the position of their
+     * Observation.
+     */
+    private class InsertBatch {
+
+        private final SQLQueryFactory qFactory;
+        private final DatastreamExtents extents;
+        private final Observation[] stored;
+        private final List<Observation> rows = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        private SQLInsertClause clause;
+
+        public InsertBatch(PostgresPersistenceManager<I, J> pm, Observation[] stored) {
+            this.qFactory = pm.createQueryFactory();
+            this.extents = pm.getPendingExtents();
+            this.stored = stored;
+            this.clause = qFactory.insert(qCollection.qObservations);
+        }
+
+        public void add(Observation observation, int position) {
+            clause.addBatch();
+            rows.add(observation);
+            positions.add(position);
+            if (rows.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        public void flush() {
+            if (rows.isEmpty()) {
+                return;
+            }
+            List<Tuple> inserted = ReturningExecutor.execute(qFactory, clause, qInstance.all());
+            if (inserted.size() != rows.size()) {
+                throw new IllegalStateException("Inserted " + rows.size() + " Observations, but got " + inserted.size() + " rows back.");
+            }
+            for (int i = 0; i < rows.size(); i++) {
+                Observation storedRow = create(inserted.get(i), null, new DataSize());
+                addToExtents(extents, inserted.get(i));
+                rows.get(i).setId(storedRow.getId());
+                stored[positions.get(i)] = storedRow;
+            }
+            LOGGER.debug("Inserted batch of {} Observations.", rows.size());
+            rows.clear();
+            positions.clear();
+            clause = qFactory.insert(qCollection.qObservations);
+        }
+    }
+
 }
@@ -0,0 +1,69 @@
+-- Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+-- Karlsruhe, Germany.
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU Lesser General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU Lesser General Public License for more details.
+--
+-- You should have received a copy of the GNU Lesser General Public License
+-- along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+-- ---------------------------------------
+-- Function: create_observation_partitions(timestamp with time zone, integer)
+-- Creates the monthly partitions of OBSERVATIONS, from the month of the given
+-- time, up to the given number of months after the current month. Existing
+-- partitions are skipped. Returns the number of created partitions.
+--
+-- Observations of a month without partition are stored in
+-- OBSERVATIONS_DEFAULT. A partition can not be created while the default
+-- partition has rows for it, so the default partition is detached, the
+-- partition is created, the rows are moved into it, and the default partition
+-- is attached again.
+-- ---------------------------------------
+create or replace function create_observation_partitions(from_time timestamp with time zone, months_ahead integer)
+  returns integer as
+$BODY$
+declare
+"MONTH_START" timestamp with time zone := date_trunc('month', from_time at time zone 'UTC') at time zone 'UTC';
+"MONTH_END" timestamp with time zone;
+"LAST_START" timestamp with time zone := (date_trunc('month', now() at time zone 'UTC') at time zone 'UTC') + make_interval(months => months_ahead);
+"PARTITION_NAME" text;
+"CREATED" integer := 0;
+begin
+
+while "MONTH_START" <= "LAST_START" loop
+    "MONTH_END" := "MONTH_START" + interval '1 month';
+    "PARTITION_NAME" := 'OBSERVATIONS_' || to_char("MONTH_START" at time zone 'UTC', 'YYYY_MM');
+    if to_regclass(quote_ident("PARTITION_NAME")) is null then
+        if to_regclass('"OBSERVATIONS_DEFAULT"') is not null and exists (
+                select 1 from "OBSERVATIONS_DEFAULT"
+                where "PHENOMENON_TIME_START" >= "MONTH_START" and "PHENOMENON_TIME_START" < "MONTH_END") then
+            alter table "OBSERVATIONS" detach partition "OBSERVATIONS_DEFAULT";
+            execute format('create table %I partition of "OBSERVATIONS" for values from (%L) to (%L)',
+                "PARTITION_NAME", "MONTH_START", "MONTH_END");
+            execute format('insert into %I select * from "OBSERVATIONS_DEFAULT" where "PHENOMENON_TIME_START" >= %L and "PHENOMENON_TIME_START" < %L',
+                "PARTITION_NAME", "MONTH_START", "MONTH_END");
+            delete from "OBSERVATIONS_DEFAULT"
+                where "PHENOMENON_TIME_START" >= "MONTH_START" and "PHENOMENON_TIME_START" < "MONTH_END";
+            alter table "OBSERVATIONS" attach partition "OBSERVATIONS_DEFAULT" default;
+        else
+            execute format('create table %I partition of "OBSERVATIONS" for values from (%L) to (%L)',
+                "PARTITION_NAME", "MONTH_START", "MONTH_END");
+        end if;
+        "CREATED" := "CREATED" + 1;
+    end if;
+    "MONTH_START" := "MONTH_END";
+end loop;
+
+return "CREATED";
+END
+$BODY$
+  language plpgsql volatile
+  cost 100;
@@ -0,0 +1,98 @@
+-- Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+-- Karlsruhe, Germany.
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU Lesser General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU Lesser General Public License for more details.
+--
+-- You should have received a copy of the GNU Lesser General Public License
+-- along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+-- ---------------------------------------
+-- Function: create_observation_partitions(timestamp with time zone, integer)
+-- Creates the monthly partitions of OBSERVATIONS, from the month of the given
+-- time, up to the given number of months after the current month. Existing
+-- partitions are skipped. Returns the number of created partitions.
+-- ---------------------------------------
+create or replace function create_observation_partitions(from_time timestamp with time zone, months_ahead integer)
+  returns integer as
+$BODY$
+declare
+"MONTH_START" timestamp with time zone := date_trunc('month', from_time at time zone 'UTC') at time zone 'UTC';
+"LAST_START" timestamp with time zone := (date_trunc('month', now() at time zone 'UTC') at time zone 'UTC') + make_interval(months => months_ahead);
+"PARTITION_NAME" text;
+"CREATED" integer := 0;
+begin
+
+while "MONTH_START" <= "LAST_START" loop
+    "PARTITION_NAME" := 'OBSERVATIONS_' || to_char("MONTH_START" at time zone 'UTC', 'YYYY_MM');
+    if to_regclass(quote_ident("PARTITION_NAME")) is null then
+        execute format('create table %I partition of "OBSERVATIONS" for values from (%L) to (%L)',
+            "PARTITION_NAME", "MONTH_START", "MONTH_START" + interval '1 month');
+        "CREATED" := "CREATED" + 1;
+    end if;
+    "MONTH_START" := "MONTH_START" + interval '1 month';
+end loop;
+
+return "CREATED";
+END
+$BODY$
+  language plpgsql volatile
+  cost 100;
+
+
+-- ---------------------------------------
+-- Replace OBSERVATIONS with a table that is partitioned by month on
+-- PHENOMENON_TIME_START. The primary key of a partitioned table must contain
+-- the partition column.
+-- ---------------------------------------
+alter table "OBSERVATIONS" rename to "OBSERVATIONS_UNPARTITIONED";
+alter table "OBSERVATIONS_UNPARTITIONED" rename constraint "OBSERVATIONS_PKEY" to "OBSERVATIONS_UNPARTITIONED_PKEY";
+
+create table "OBSERVATIONS" (like "OBSERVATIONS_UNPARTITIONED" including defaults including constraints)
+  partition by range ("PHENOMENON_TIME_START");
+alter table "OBSERVATIONS" add constraint "OBSERVATIONS_PKEY" primary key ("ID", "PHENOMENON_TIME_START");
+
+-- Catches the Observations outside the range of the monthly partitions.
+create table "OBSERVATIONS_DEFAULT" partition of "OBSERVATIONS" default;
+
+select create_observation_partitions(
+    coalesce((select min("PHENOMENON_TIME_START") from "OBSERVATIONS_UNPARTITIONED"), now()),
+    1);
+
+insert into "OBSERVATIONS" select * from "OBSERVATIONS_UNPARTITIONED";
+
+-- The id sequence, if any, must survive dropping the old table. The indexes
+-- of the old table are recreated on the new one.
+do $$
+declare
+"INDEX_DEFS" text[];
+"INDEX_DEF" text;
+begin
+select array_agg(regexp_replace(indexdef, ' ON (\S+\.)?"OBSERVATIONS_UNPARTITIONED" ', ' ON "OBSERVATIONS" '))
+    into "INDEX_DEFS"
+    from pg_indexes
+    where tablename = 'OBSERVATIONS_UNPARTITIONED' and indexname != 'OBSERVATIONS_UNPARTITIONED_PKEY';
+
+alter sequence if exists "OBSERVATIONS_ID_seq" owned by "OBSERVATIONS"."ID";
+drop table "OBSERVATIONS_UNPARTITIONED";
+
+foreach "INDEX_DEF" in array coalesce("INDEX_DEFS", '{}') loop
+    execute "INDEX_DEF";
+end loop;
+end
+$$;
+
+alter table "OBSERVATIONS" add constraint "OBSERVATIONS_DATASTREAM_ID_FKEY"
+  foreign key ("DATASTREAM_ID") references "DATASTREAMS" ("ID") on update cascade on delete cascade;
+alter table "OBSERVATIONS" add constraint "OBSERVATIONS_MULTI_DATASTREAM_ID_FKEY"
+  foreign key ("MULTI_DATASTREAM_ID") references "MULTI_DATASTREAMS" ("ID") on update cascade on delete cascade;
+alter table "OBSERVATIONS" add constraint "OBSERVATIONS_FEATURE_ID_FKEY"
+  foreign key ("FEATURE_ID") references "FEATURES" ("ID") on update cascade on delete cascade;